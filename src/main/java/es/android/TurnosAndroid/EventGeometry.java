@@ -18,6 +18,7 @@ package es.android.TurnosAndroid;
 
 import android.graphics.Rect;
 import es.android.TurnosAndroid.model.Event;
+import es.android.TurnosAndroid.model.EventRenderModel;
 
 public class EventGeometry {
   // This is the space from the grid line to the event rectangle.
@@ -44,65 +45,49 @@ public class EventGeometry {
     mMinuteHeight = height / 60.0f;
   }
 
-  // Computes the rectangle coordinates of the given event on the screen.
-  // Returns true if the rectangle is visible on the screen.
-  public boolean computeEventRect(int date, int left, int top, int cellWidth, Event event) {
-//    if (event.drawAsAllday()) {
-//      return false;
-//    }
-
+  // Computes the rectangle coordinates of an event of the render model on the screen. The model already has it in minutes and fractions of the
+  // day, this only scales it to the current cell size.
+  public void computeEventRect(int left, int top, int cellWidth, EventRenderModel model, int index) {
+    Event event = model.getEvent(index);
     float cellMinuteHeight = mMinuteHeight;
-//    int startDay = event.startDay;
-//    int endDay = event.endDay;
-
-//    if (startDay > date || endDay < date) {
-//      return false;
-//    }
-
-//    int startTime = event.startTime;
-//    int endTime = event.endTime;
-
-    // If the event started on a previous day, then show it starting
-    // at the beginning of this day.
-//    if (startDay < date) {
-//      startTime = 0;
-//    }
-
-    // If the event ends on a future day, then show it extending to
-    // the end of this day.
-//    if (endDay > date) {
-//      endTime = DayView.MINUTES_PER_DAY;
-//    }
-
-    int col = event.getColumn();
-    int maxCols = event.getMaxColumns();
-//    int startHour = startTime / 60;
-//    int endHour = endTime / 60;
+    float startTime = model.getTop(index);
+    float endTime = model.getBottom(index);
+    int startHour = (int) startTime / 60;
+    int endHour = (int) endTime / 60;
 
     // If the end point aligns on a cell boundary then count it as
     // ending in the previous cell so that we don't cross the border
     // between hours.
-//    if (endHour * 60 == endTime) {
-//      endHour -= 1;
-//    }
+    if (endHour * 60 == endTime) {
+      endHour -= 1;
+    }
 
     event.top = top;
-//    event.top += (int) (startTime * cellMinuteHeight);
-//    event.top += startHour * mHourGap;
+    event.top += (int) (startTime * cellMinuteHeight);
+    event.top += startHour * mHourGap;
 
     event.bottom = top;
-//    event.bottom += (int) (endTime * cellMinuteHeight);
-//    event.bottom += endHour * mHourGap - 1;
+    event.bottom += (int) (endTime * cellMinuteHeight);
+    event.bottom += endHour * mHourGap - 1;
 
     // Make the rectangle be at least mMinEventHeight pixels high
     if (event.bottom < event.top + mMinEventHeight) {
       event.bottom = event.top + mMinEventHeight;
     }
 
-    float colWidth = (float) (cellWidth - (maxCols + 1) * mCellMargin) / (float) maxCols;
-    event.left = left + col * (colWidth + mCellMargin);
-    event.right = event.left + colWidth;
-    return true;
+    // The margins go between the columns and on both sides
+    float columnsWidth = cellWidth - mCellMargin;
+    event.left = left + model.getLeft(index) * columnsWidth;
+    event.right = event.left + model.getWidth(index) * columnsWidth - mCellMargin;
+  }
+
+  /**
+   * Returns the minutes since midnight at a y coordinate, the opposite of the placement in {@link #computeEventRect}.
+   */
+  public float yToMinute(float y, int top) {
+    float hourHeight = mMinuteHeight * 60 + mHourGap;
+    int hour = (int) Math.floor((y - top) / hourHeight);
+    return hour * 60 + (y - top - hour * hourHeight) / mMinuteHeight;
   }
 
   /**
@@ -51,6 +51,12 @@ public class MainActivity extends FragmentActivity implements EventHandler {
     initDrawer();
   }
 
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    ((CustomApplication) getApplication()).getCalendarController().unregisterEventHandler(this);
+  }
+
   private void initDrawer() {
     drawerLayout.setDrawerShadow(R.drawable.drawer_shadow, GravityCompat.START);
     drawerToggle = new ActionBarDrawerToggle(this, drawerLayout, R.drawable.ic_drawer, R.string.drawer_open, R.string.drawer_close) {
@@ -25,17 +25,30 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.provider.CalendarContract.Calendars;
 import android.text.format.Time;
 import android.util.Log;
+import android.view.Choreographer;
 import es.android.TurnosAndroid.EventHandler;
 import es.android.TurnosAndroid.helpers.TimeZoneUtils;
+import es.android.TurnosAndroid.helpers.Utils;
 import es.android.TurnosAndroid.model.EventInfo;
 import es.android.TurnosAndroid.model.EventType;
 import es.android.TurnosAndroid.views.ViewType;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 
+/**
+ * Sends the events of the {@link EventType} types to the {@link EventHandler}s registered for them. Handlers are kept by the bit of each type they
+ * support, so an event only reaches the handlers of its type, and are only weakly referenced: a handler that is gone is dropped, one that stays
+ * must call {@link #unregisterEventHandler} when it stops handling events.
+ * <p/>
+ * Navigation and title updates come in bursts while scrolling; only the last {@link EventType#GO_TO} and {@link EventType#UPDATE_TITLE} sent before
+ * a frame is dispatched, when the frame starts. Any other event is dispatched right away, after those pending. Everything runs in the UI thread.
+ */
 public class CalendarController {
   private static final String TAG                         = CalendarController.class.getSimpleName();
   public static final  long   EXTRA_CREATE_ALL_DAY        = 0x10;
@@ -44,10 +57,20 @@ public class CalendarController {
   public static final  long   EXTRA_GOTO_BACK_TO_PREVIOUS = 4;
   public static final  long   EXTRA_GOTO_TODAY            = 8;
 
-  private ArrayList<EventHandler> eventHandlers;
-  private Context                 context;
-  private Time                    time;
-  private EventHandler            firstEventHandler;
+  // The event types dispatched once per frame
+  private static final long   COALESCED_TYPES             = EventType.GO_TO | EventType.UPDATE_TITLE;
+  private static final int    NUM_TYPES                   = Long.SIZE;
+
+  // The handlers of type bit b are handlers[b], in the order they were registered
+  private final ArrayList<WeakReference<EventHandler>>[] handlers;
+  // The last event of each coalesced type bit sent since the last frame
+  private final EventInfo[]                              pendingEvents;
+  private final Runnable                                 dispatchPending;
+  private final Handler                                  handler;
+  private       boolean                                  frameScheduled;
+  private       Context                                  context;
+  private       Time                                     time;
+  private       WeakReference<EventHandler>              firstEventHandler;
   private ViewType                viewType;
   private ViewType                detailViewType;
   private final Runnable updateTimezone = new Runnable() {
@@ -59,7 +82,16 @@ public class CalendarController {
 
   public CalendarController(Context context) {
     this.context = context;
-    eventHandlers = new ArrayList<EventHandler>();
+    handlers = newHandlerTable();
+    pendingEvents = new EventInfo[NUM_TYPES];
+    handler = new Handler(Looper.getMainLooper());
+    dispatchPending = new Runnable() {
+      @Override
+      public void run() {
+        frameScheduled = false;
+        dispatchPendingEvents();
+      }
+    };
     time = new Time();
     updateTimezone.run();
     time.setToNow();
@@ -181,24 +213,20 @@ public class CalendarController {
       event.startTime = time;
     }
 
-    boolean handled = false;
-
-    // Dispatch to event handler(s)
-    if (firstEventHandler != null) {
-      // Handle the 'first' one before handling the others
-      EventHandler handler = firstEventHandler;
-      if ((handler.getSupportedEventTypes() & event.eventType) != 0) {
-        handler.handleEvent(event);
-        handled = true;
-      }
-    }
-    for (EventHandler eventHandler : eventHandlers) {
-      if (eventHandler != null && (eventHandler.getSupportedEventTypes() & event.eventType) != 0) {
-        eventHandler.handleEvent(event);
-        handled = true;
-      }
+    if ((event.eventType & COALESCED_TYPES) != 0) {
+      // Handled on the next frame, when the times sent, ours included, may have been changed again
+      event.startTime = copyOf(event.startTime);
+      event.endTime = copyOf(event.endTime);
+      event.selectedTime = copyOf(event.selectedTime);
+      pendingEvents[Long.numberOfTrailingZeros(event.eventType)] = event;
+      scheduleFrame();
+      return;
     }
 
+    // Whatever was sent before this event is handled before it
+    dispatchPendingEvents();
+    boolean handled = dispatch(event);
+
     if (!handled) {
       // Launch Calendar Visible Selector
       if (event.eventType == EventType.LAUNCH_SELECT_VISIBLE_CALENDARS) {
@@ -225,14 +253,111 @@ public class CalendarController {
   }
 
   /**
-   * Adds or updates an event handler. This uses a LinkedHashMap so that we can
-   * replace fragments based on the view id they are being expanded into.
+   * Adds an event handler for the types it supports when registered, or updates them if it was already registered. The last handler registered
+   * handles the events before the others.
    *
    * @param eventHandler Typically a fragment or activity in the calendar app
    */
   public void registerEventHandler(EventHandler eventHandler) {
-    eventHandlers.add(eventHandler);
-    firstEventHandler = eventHandler;
+    unregisterEventHandler(eventHandler);
+    WeakReference<EventHandler> reference = new WeakReference<EventHandler>(eventHandler);
+    long types = eventHandler.getSupportedEventTypes();
+    while (types != 0) {
+      int type = Long.numberOfTrailingZeros(types);
+      handlers[type].add(reference);
+      types &= types - 1;
+    }
+    firstEventHandler = reference;
+  }
+
+  /**
+   * Stops sending events to a handler.
+   */
+  public void unregisterEventHandler(EventHandler eventHandler) {
+    for (ArrayList<WeakReference<EventHandler>> typeHandlers : handlers) {
+      for (int i = typeHandlers.size() - 1; i >= 0; i--) {
+        EventHandler registered = typeHandlers.get(i).get();
+        if (registered == null || registered == eventHandler) {
+          typeHandlers.remove(i);
+        }
+      }
+    }
+    if (firstEventHandler != null && firstEventHandler.get() == eventHandler) {
+      firstEventHandler = null;
+    }
+  }
+
+  // Sends an event to the handlers of its type, the first handler before the others. Returns whether any handled it.
+  private boolean dispatch(EventInfo event) {
+    ArrayList<WeakReference<EventHandler>> typeHandlers = handlers[Long.numberOfTrailingZeros(event.eventType)];
+    if (typeHandlers.isEmpty()) {
+      return false;
+    }
+
+    EventHandler first = firstEventHandler == null ? null : firstEventHandler.get();
+    // Handlers may register or unregister others while handling the event
+    ArrayList<EventHandler> targets = new ArrayList<EventHandler>(typeHandlers.size());
+    for (int i = 0; i < typeHandlers.size(); i++) {
+      EventHandler eventHandler = typeHandlers.get(i).get();
+      if (eventHandler == null) {
+        typeHandlers.remove(i--);
+      } else if (eventHandler == first) {
+        targets.add(0, eventHandler);
+      } else {
+        targets.add(eventHandler);
+      }
+    }
+    for (EventHandler eventHandler : targets) {
+      eventHandler.handleEvent(event);
+    }
+    return !targets.isEmpty();
+  }
+
+  private void dispatchPendingEvents() {
+    for (int type = 0; type < NUM_TYPES; type++) {
+      EventInfo event = pendingEvents[type];
+      if (event != null) {
+        pendingEvents[type] = null;
+        dispatch(event);
+      }
+    }
+  }
+
+  private void scheduleFrame() {
+    if (frameScheduled) {
+      return;
+    }
+    frameScheduled = true;
+    if (Utils.isJellybeanOrLater()) {
+      FrameScheduler.postFrame(dispatchPending);
+    } else {
+      handler.post(dispatchPending);
+    }
+  }
+
+  private static Time copyOf(Time time) {
+    return time == null ? null : new Time(time);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ArrayList<WeakReference<EventHandler>>[] newHandlerTable() {
+    ArrayList<WeakReference<EventHandler>>[] table = new ArrayList[NUM_TYPES];
+    for (int type = 0; type < NUM_TYPES; type++) {
+      table[type] = new ArrayList<WeakReference<EventHandler>>(1);
+    }
+    return table;
+  }
+
+  // Choreographer is only there since Jelly Bean, this class is not loaded before
+  private static final class FrameScheduler {
+    static void postFrame(final Runnable callback) {
+      Choreographer.getInstance().postFrameCallback(new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+          callback.run();
+        }
+      });
+    }
   }
 
   /**
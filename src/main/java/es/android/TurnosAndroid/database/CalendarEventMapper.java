@@ -0,0 +1,52 @@
+package es.android.TurnosAndroid.database;
+
+import android.database.Cursor;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.model.Event;
+import es.android.TurnosAndroid.model.EventDefinition;
+
+/**
+ * Reads the days of a cursor from {@link CalendarEventsQuery} as {@link Event}s, one per day, set on the Julian day of its date. What each event is
+ * comes from the {@link EventCatalog}, its strings are shared with every other day of the same event; the days whose event doesn't exist are left
+ * out.
+ */
+public class CalendarEventMapper extends CursorMapper<Event> {
+  private final String       timezone;
+  private final EventCatalog catalog;
+  private       int          idColumn;
+  private       int          dateColumn;
+  private       int          eventIdColumn;
+
+  public CalendarEventMapper(String timezone, EventCatalog catalog) {
+    this.timezone = timezone;
+    this.catalog = catalog;
+  }
+
+  @Override
+  protected void bindColumns(Cursor cursor) {
+    idColumn = cursor.getColumnIndexOrThrow(DBConstants.ID);
+    dateColumn = cursor.getColumnIndexOrThrow(DBConstants.DATE);
+    eventIdColumn = cursor.getColumnIndexOrThrow(DBConstants.EVENT_ID);
+  }
+
+  @Override
+  protected Event mapRow(Cursor cursor) {
+    EventDefinition definition = catalog.get(cursor.getLong(eventIdColumn));
+    if (definition == null) {
+      return null;
+    }
+
+    Event event = new Event();
+    event.setId(cursor.getLong(idColumn));
+    event.setName(definition.getName());
+    event.setDescription(definition.getDescription());
+    event.setStartTime(definition.getStartTime());
+    event.setDuration(definition.getDuration());
+    event.setLocation(definition.getLocation());
+    event.setColor(definition.getColor());
+    int julianDay = JulianDay.fromMillis(cursor.getLong(dateColumn), timezone);
+    event.setStartDay(julianDay);
+    event.setEndDay(julianDay);
+    return event;
+  }
+}
@@ -0,0 +1,128 @@
+package es.android.TurnosAndroid.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+import android.text.format.Time;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.model.Pattern;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+
+/**
+ * Reads the events of a range of days, merging the days stored in calendarevents with the days generated by the patterns. A day that has any row in
+ * calendarevents overrides what the patterns say for it, so a row pointing to a non existing event (for example event id 0) marks a day off.
+ * <p/>
+ * The returned cursor has the {@link DBConstants#MONTH_PROJECTION} columns sorted by date. Rows generated from a pattern have the negated pattern id as id.
+ * Rows only say which event is on which day, what the event is comes from the {@link EventCatalog}; the rows marking a day off, or pointing to an
+ * event that has been deleted, are returned too and have no event there.
+ */
+public class CalendarEventsQuery {
+  private static final String               RANGE_QUERY     = "SELECT " + DBConstants.ID + ", " + DBConstants.DATE + ", " + DBConstants.EVENT_ID + " FROM " +
+                                                              DBConstants.CALENDAR_EVENTS_TABLE + " WHERE " + DBConstants.DATE + " BETWEEN ? AND ?" +
+                                                              " ORDER BY " + DBConstants.DATE;
+  private static final int                  DATE_COLUMN     = 1;
+  private static final Comparator<Object[]> DATE_COMPARATOR = new Comparator<Object[]>() {
+    @Override
+    public int compare(Object[] lhs, Object[] rhs) {
+      long lhsDate = (Long) lhs[DATE_COLUMN];
+      long rhsDate = (Long) rhs[DATE_COLUMN];
+      return lhsDate < rhsDate ? -1 : (lhsDate == rhsDate ? 0 : 1);
+    }
+  };
+
+  private CalendarEventsQuery() {
+  }
+
+  /**
+   * @param db         the database to read from
+   * @param initialDay first day to load, in milliseconds
+   * @param finalDay   last day to load, in milliseconds
+   * @return a cursor with the events of every day in the range
+   */
+  public static Cursor query(SQLiteDatabase db, long initialDay, long finalDay) {
+    return query(db, initialDay, finalDay, null);
+  }
+
+  /**
+   * Same as {@link #query(SQLiteDatabase, long, long)}, but the range query can be aborted from another thread. Cancelling makes this method
+   * throw {@link android.os.OperationCanceledException}. CancellationSignal only exists from Jelly Bean on, so older versions must pass null.
+   *
+   * @param signal the signal to cancel the query with, or null
+   */
+  public static Cursor query(SQLiteDatabase db, long initialDay, long finalDay, CancellationSignal signal) {
+    String[] selectionArgs = new String[]{String.valueOf(initialDay), String.valueOf(finalDay)};
+    Cursor explicitEvents = signal == null ? db.rawQuery(RANGE_QUERY, selectionArgs) : db.rawQuery(RANGE_QUERY, selectionArgs, signal);
+    ArrayList<Pattern> patterns;
+    try {
+      if (signal != null) {
+        // The cursor is filled lazily, do it here so the signal can still stop it
+        explicitEvents.getCount();
+        signal.throwIfCanceled();
+      }
+      patterns = loadPatterns(db);
+    } catch (RuntimeException e) {
+      explicitEvents.close();
+      throw e;
+    }
+
+    if (patterns.isEmpty()) {
+      return explicitEvents;
+    }
+
+    String timezone = Time.getCurrentTimezone();
+    int firstJulianDay = JulianDay.fromMillis(initialDay, timezone);
+    int numDays = JulianDay.fromMillis(finalDay, timezone) - firstJulianDay + 1;
+    if (numDays <= 0) {
+      return explicitEvents;
+    }
+
+    ArrayList<Object[]> rows = new ArrayList<Object[]>();
+    // Every day with a row in calendarevents, days off included, overrides the patterns
+    boolean[] overriddenDays = new boolean[numDays];
+    try {
+      while (explicitEvents.moveToNext()) {
+        long date = explicitEvents.getLong(1);
+        rows.add(new Object[]{explicitEvents.getLong(0), date, explicitEvents.getLong(2)});
+        int day = JulianDay.fromMillis(date, timezone) - firstJulianDay;
+        if (day >= 0 && day < numDays) {
+          overriddenDays[day] = true;
+        }
+      }
+    } finally {
+      explicitEvents.close();
+    }
+
+    if (signal != null) {
+      signal.throwIfCanceled();
+    }
+    int[] eventIds = new int[numDays];
+    for (Pattern pattern : patterns) {
+      pattern.expand(firstJulianDay, eventIds);
+      for (int i = 0; i < numDays; i++) {
+        if (!overriddenDays[i] && eventIds[i] != Pattern.NO_EVENT) {
+          rows.add(new Object[]{-pattern.getId(), JulianDay.toMillis(firstJulianDay + i, timezone), (long) eventIds[i]});
+        }
+      }
+    }
+
+    Collections.sort(rows, DATE_COMPARATOR);
+    MatrixCursor merged = new MatrixCursor(DBConstants.MONTH_PROJECTION, rows.size());
+    for (Object[] row : rows) {
+      merged.addRow(row);
+    }
+    return merged;
+  }
+
+  private static ArrayList<Pattern> loadPatterns(SQLiteDatabase db) {
+    Cursor cursor = db.query(DBConstants.PATTERNS_TABLE, DBConstants.PATTERNS_PROJECTION, null, null, null, null, null);
+    try {
+      return new PatternMapper().mapAll(cursor);
+    } finally {
+      cursor.close();
+    }
+  }
+}
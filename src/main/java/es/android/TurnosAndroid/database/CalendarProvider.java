@@ -1,32 +1,54 @@
 package es.android.TurnosAndroid.database;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.text.TextUtils;
+import android.text.format.Time;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.model.Pattern;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 
 public class CalendarProvider extends ContentProvider {
 
-  private static final String AUTHORITY           = "es.android.TurnosAndroid.database.calendarprovider";
-  public static final  Uri    EVENTS_URI          = Uri.parse("content://" + AUTHORITY + "/" + DBConstants.EVENTS_TABLE);
-  public static final  Uri    CALENDAR_EVENTS_URI = Uri.parse("content://" + AUTHORITY + "/" + DBConstants.CALENDAR_EVENTS_TABLE);
-  public static final  Uri    PATTERNS_URI        = Uri.parse("content://" + AUTHORITY + "/" + DBConstants.PATTERNS_TABLE);
+  public static final  String AUTHORITY            = "es.android.TurnosAndroid.database.calendarprovider";
+  public static final  Uri    EVENTS_URI           = Uri.parse("content://" + AUTHORITY + "/" + DBConstants.EVENTS_TABLE);
+  public static final  Uri    CALENDAR_EVENTS_URI  = Uri.parse("content://" + AUTHORITY + "/" + DBConstants.CALENDAR_EVENTS_TABLE);
+  public static final  Uri    PATTERNS_URI         = Uri.parse("content://" + AUTHORITY + "/" + DBConstants.PATTERNS_TABLE);
+  /**
+   * Searches the events, see {@link EventSearchQuery}. The words go in the {@link #SEARCH_QUERY} parameter, and the page in {@link #SEARCH_LIMIT} and
+   * {@link #SEARCH_OFFSET}.
+   */
+  public static final  Uri    SEARCH_URI           = Uri.parse("content://" + AUTHORITY + "/" + DBConstants.EVENTS_SEARCH_TABLE);
+  public static final  String SEARCH_QUERY         = "q";
+  public static final  String SEARCH_LIMIT         = "limit";
+  public static final  String SEARCH_OFFSET        = "offset";
+  private static final int    DEFAULT_SEARCH_LIMIT = 50;
   private static final UriMatcher              uriMatcher;
   private static final HashMap<String, String> MY_EVENTS_PROJECTION_MAP;
   private static final HashMap<String, String> CALENDAR_EVENTS_PROJECTION_MAP;
+  private static final HashMap<String, String> PATTERNS_PROJECTION_MAP;
 
   static {
     uriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
     uriMatcher.addURI(AUTHORITY, DBConstants.EVENTS_TABLE, 1);
     uriMatcher.addURI(AUTHORITY, DBConstants.CALENDAR_EVENTS_TABLE, 2);
     uriMatcher.addURI(AUTHORITY, DBConstants.PATTERNS_TABLE, 3);
+    uriMatcher.addURI(AUTHORITY, DBConstants.EVENTS_SEARCH_TABLE, 4);
 
     MY_EVENTS_PROJECTION_MAP = new HashMap<String, String>();
     MY_EVENTS_PROJECTION_MAP.put(DBConstants.ID, DBConstants.ID);
@@ -41,26 +63,62 @@ public class CalendarProvider extends ContentProvider {
     CALENDAR_EVENTS_PROJECTION_MAP.put(DBConstants.ID, DBConstants.ID);
     CALENDAR_EVENTS_PROJECTION_MAP.put(DBConstants.DATE, DBConstants.DATE);
     CALENDAR_EVENTS_PROJECTION_MAP.put(DBConstants.EVENT_ID, DBConstants.EVENT_ID);
+
+    PATTERNS_PROJECTION_MAP = new HashMap<String, String>();
+    PATTERNS_PROJECTION_MAP.put(DBConstants.ID, DBConstants.ID);
+    PATTERNS_PROJECTION_MAP.put(DBConstants.NAME, DBConstants.NAME);
+    PATTERNS_PROJECTION_MAP.put(DBConstants.ANCHOR_DAY, DBConstants.ANCHOR_DAY);
+    PATTERNS_PROJECTION_MAP.put(DBConstants.CYCLE, DBConstants.CYCLE);
   }
 
+  private static final String[]                CALENDAR_EVENTS_INSERT_COLUMNS = new String[]{DBConstants.DATE, DBConstants.EVENT_ID};
+  private static final String[]                EVENTS_INSERT_COLUMNS          = new String[]{
+      DBConstants.NAME,
+      DBConstants.DESCRIPTION,
+      DBConstants.START,
+      DBConstants.DURATION,
+      DBConstants.LOCATION,
+      DBConstants.COLOR
+  };
+  // Above this many rows a change is notified with the table uri instead of one uri per row
+  private static final int                     MAX_ROW_NOTIFICATIONS          = 16;
+  // The changes of the operations of applyBatch, while it runs on a thread, notified once the transaction has been committed
+  private final        ThreadLocal<ArrayList<Uri>> batchChanges               = new ThreadLocal<ArrayList<Uri>>();
   private DatabaseHelper DBHelper;
   private SQLiteDatabase db;
 
+  /**
+   * Opening the database may create or upgrade it, which doesn't belong in the main thread where the provider is created. It is opened by the first
+   * operation instead, which runs in the thread of the caller.
+   */
   @Override
   public boolean onCreate() {
     DBHelper = new DatabaseHelper(getContext());
-    db = DBHelper.getWritableDatabase();
-    return (db != null);
+    return true;
+  }
+
+  private synchronized SQLiteDatabase getDatabase() {
+    if (db == null) {
+      db = DBHelper.getWritableDatabase();
+    }
+    return db;
   }
 
   @Override
   public int delete(Uri uri, String selection, String[] selectionArgs) {
+    SQLiteDatabase db = getDatabase();
     int count = 0;
+    ArrayList<Long> ids = new ArrayList<Long>();
     int num = uriMatcher.match(uri);
     if (num == 1) {
-      count = db.delete(DBConstants.EVENTS_TABLE, selection, selectionArgs);
+      count = deleteEvents(selection, selectionArgs, ids);
+    } else if (num == 2) {
+      count = deleteCalendarEvents(selection, selectionArgs, ids);
+    } else if (num == 3) {
+      ids = queryIds(DBConstants.PATTERNS_TABLE, selection, selectionArgs);
+      count = db.delete(DBConstants.PATTERNS_TABLE, selection, selectionArgs);
     }
-    getContext().getContentResolver().notifyChange(uri, null);
+    notifyRowsChanged(uri, ids);
     return count;
   }
 
@@ -71,21 +129,40 @@ public class CalendarProvider extends ContentProvider {
 
   @Override
   public Uri insert(Uri uri, ContentValues values) {
+    SQLiteDatabase db = getDatabase();
     Uri _uri = null;
 
     if (uriMatcher.match(uri) == 1) {
       long rowID = db.insert(DBConstants.EVENTS_TABLE, null, values);
       if (rowID > 0) {
         _uri = ContentUris.withAppendedId(EVENTS_URI, rowID);
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(_uri);
       } else {
         throw new SQLException("Failed to insert row into " + uri);
       }
     } else if (uriMatcher.match(uri) == 2) {
-      long rowID = db.insert(DBConstants.CALENDAR_EVENTS_TABLE, null, values);
+      long rowID;
+      db.beginTransaction();
+      try {
+        rowID = db.insert(DBConstants.CALENDAR_EVENTS_TABLE, null, values);
+        if (rowID > 0 && values.containsKey(DBConstants.DATE)) {
+          OccupancyIndex.addDay(db, values.getAsLong(DBConstants.DATE), getEventId(values));
+        }
+        db.setTransactionSuccessful();
+      } finally {
+        db.endTransaction();
+      }
       if (rowID > 0) {
         _uri = ContentUris.withAppendedId(CALENDAR_EVENTS_URI, rowID);
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(_uri);
+      } else {
+        throw new SQLException("Failed to insert row into " + uri);
+      }
+    } else if (uriMatcher.match(uri) == 3) {
+      long rowID = db.insert(DBConstants.PATTERNS_TABLE, null, values);
+      if (rowID > 0) {
+        _uri = ContentUris.withAppendedId(PATTERNS_URI, rowID);
+        notifyChange(_uri);
       } else {
         throw new SQLException("Failed to insert row into " + uri);
       }
@@ -96,6 +173,15 @@ public class CalendarProvider extends ContentProvider {
 
   @Override
   public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+    SQLiteDatabase db = getDatabase();
+    if (uriMatcher.match(uri) == 4) {
+      Cursor c = EventSearchQuery.query(db, uri.getQueryParameter(SEARCH_QUERY), getIntParameter(uri, SEARCH_LIMIT, DEFAULT_SEARCH_LIMIT),
+                                        getIntParameter(uri, SEARCH_OFFSET, 0));
+      // The index follows the events, so do the results
+      c.setNotificationUri(getContext().getContentResolver(), EVENTS_URI);
+      return c;
+    }
+
     SQLiteQueryBuilder sqlBuilder = new SQLiteQueryBuilder();
 
     if (uriMatcher.match(uri) == 1) {
@@ -103,24 +189,271 @@ public class CalendarProvider extends ContentProvider {
     } else if (uriMatcher.match(uri) == 2) {
       sqlBuilder.setTables(DBConstants.EVENTS_TABLE);
       sqlBuilder.setTables(DBConstants.CALENDAR_EVENTS_TABLE);
+    } else if (uriMatcher.match(uri) == 3) {
+      sqlBuilder.setTables(DBConstants.PATTERNS_TABLE);
     }
 
     Cursor c = sqlBuilder.query(db, projection, selection, selectionArgs, null, null, sortOrder);
-//    c.setNotificationUri(getContext().getContentResolver(), uri);
+    c.setNotificationUri(getContext().getContentResolver(), uri);
     return c;
   }
 
   @Override
   public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+    SQLiteDatabase db = getDatabase();
+    String table;
+    int num = uriMatcher.match(uri);
+
+    if (num == 1) {
+      table = DBConstants.EVENTS_TABLE;
+    } else if (num == 3) {
+      table = DBConstants.PATTERNS_TABLE;
+    } else {
+      throw new IllegalArgumentException("Unknown URI " + uri);
+    }
+
     int count;
+    ArrayList<Long> ids;
+    db.beginTransaction();
+    try {
+      ids = queryIds(table, selection, selectionArgs);
+      count = db.update(table, values, selection, selectionArgs);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    notifyRowsChanged(uri, ids);
+    return count;
+  }
+
+  /**
+   * Inserts all the rows in a single transaction, reusing one compiled statement, and notifies the change only once at the end.
+   */
+  @Override
+  public int bulkInsert(Uri uri, ContentValues[] values) {
+    SQLiteDatabase db = getDatabase();
+    String table;
+    String[] columns;
     int num = uriMatcher.match(uri);
 
     if (num == 1) {
-      count = db.update(DBConstants.EVENTS_TABLE, values, selection, selectionArgs);
+      table = DBConstants.EVENTS_TABLE;
+      columns = EVENTS_INSERT_COLUMNS;
+    } else if (num == 2) {
+      table = DBConstants.CALENDAR_EVENTS_TABLE;
+      columns = CALENDAR_EVENTS_INSERT_COLUMNS;
     } else {
       throw new IllegalArgumentException("Unknown URI " + uri);
     }
-    getContext().getContentResolver().notifyChange(uri, null);
+
+    int count = 0;
+    OccupancyIndex.Batch occupancy = num == 2 ? new OccupancyIndex.Batch() : null;
+    SQLiteStatement statement = db.compileStatement(buildInsertStatement(table, columns));
+    db.beginTransaction();
+    try {
+      for (ContentValues contentValues : values) {
+        statement.clearBindings();
+        bindValues(statement, columns, contentValues);
+        if (statement.executeInsert() <= 0) {
+          throw new SQLException("Failed to insert row into " + uri);
+        }
+        if (occupancy != null && contentValues.containsKey(DBConstants.DATE)) {
+          occupancy.addDay(contentValues.getAsLong(DBConstants.DATE), getEventId(contentValues));
+        }
+        count++;
+      }
+      if (occupancy != null) {
+        occupancy.apply(db);
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      statement.close();
+    }
+
+    if (count > 0) {
+      notifyChange(uri);
+    }
     return count;
   }
+
+  /**
+   * Applies all the operations in a single transaction. The operations don't notify on their own, the changes they would have notified are sent
+   * once each when the transaction has been committed, and not at all if it fails.
+   */
+  @Override
+  public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+    SQLiteDatabase db = getDatabase();
+    ContentProviderResult[] results;
+    ArrayList<Uri> changes = new ArrayList<Uri>();
+    batchChanges.set(changes);
+    db.beginTransaction();
+    try {
+      results = super.applyBatch(operations);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+      batchChanges.set(null);
+    }
+
+    for (Uri uri : changes) {
+      notifyChange(uri);
+    }
+    return results;
+  }
+
+  /**
+   * Deletes calendarevents rows and clears the days that have been left empty from the occupancy index. The ids of the deleted rows are added to ids.
+   */
+  /**
+   * Deletes events, clearing the occupancy of the days that point to them: their rows are left, but the days have no event to show anymore.
+   */
+  private int deleteEvents(String selection, String[] selectionArgs, ArrayList<Long> ids) {
+    SQLiteDatabase db = getDatabase();
+    int count;
+    db.beginTransaction();
+    try {
+      ids.addAll(queryIds(DBConstants.EVENTS_TABLE, selection, selectionArgs));
+      HashSet<Integer> julianDays = new HashSet<Integer>();
+      String timezone = Time.getCurrentTimezone();
+      String daysSelection = DBConstants.EVENT_ID + " IN (SELECT " + DBConstants.ID + " FROM " + DBConstants.EVENTS_TABLE +
+                             (TextUtils.isEmpty(selection) ? "" : " WHERE " + selection) + ")";
+      Cursor cursor = db.query(true, DBConstants.CALENDAR_EVENTS_TABLE, new String[]{DBConstants.DATE}, daysSelection, selectionArgs, null, null, null,
+                               null);
+      try {
+        while (cursor.moveToNext()) {
+          julianDays.add(JulianDay.fromMillis(cursor.getLong(0), timezone));
+        }
+      } finally {
+        cursor.close();
+      }
+
+      count = db.delete(DBConstants.EVENTS_TABLE, selection, selectionArgs);
+      OccupancyIndex.refreshDays(db, julianDays);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    return count;
+  }
+
+  private int deleteCalendarEvents(String selection, String[] selectionArgs, ArrayList<Long> ids) {
+    SQLiteDatabase db = getDatabase();
+    int count;
+    db.beginTransaction();
+    try {
+      HashSet<Integer> julianDays = new HashSet<Integer>();
+      String timezone = Time.getCurrentTimezone();
+      Cursor cursor = db.query(DBConstants.CALENDAR_EVENTS_TABLE, new String[]{DBConstants.ID, DBConstants.DATE}, selection, selectionArgs, null, null, null);
+      try {
+        while (cursor.moveToNext()) {
+          ids.add(cursor.getLong(0));
+          julianDays.add(JulianDay.fromMillis(cursor.getLong(1), timezone));
+        }
+      } finally {
+        cursor.close();
+      }
+
+      count = db.delete(DBConstants.CALENDAR_EVENTS_TABLE, selection, selectionArgs);
+      OccupancyIndex.refreshDays(db, julianDays);
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+    return count;
+  }
+
+  private static int getIntParameter(Uri uri, String name, int defaultValue) {
+    String value = uri.getQueryParameter(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Math.max(Integer.parseInt(value), 0);
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  private static long getEventId(ContentValues values) {
+    Long eventId = values.getAsLong(DBConstants.EVENT_ID);
+    return eventId == null ? Pattern.NO_EVENT : eventId;
+  }
+
+  private ArrayList<Long> queryIds(String table, String selection, String[] selectionArgs) {
+    SQLiteDatabase db = getDatabase();
+    ArrayList<Long> ids = new ArrayList<Long>();
+    Cursor cursor = db.query(table, new String[]{DBConstants.ID}, selection, selectionArgs, null, null, null);
+    try {
+      while (cursor.moveToNext()) {
+        ids.add(cursor.getLong(0));
+      }
+    } finally {
+      cursor.close();
+    }
+    return ids;
+  }
+
+  /**
+   * Notifies one uri per changed row, with the row id appended, so the observers can patch only that row. Large changes are notified with the
+   * table uri, which means that anything from the table may have changed.
+   */
+  private void notifyRowsChanged(Uri uri, ArrayList<Long> ids) {
+    if (ids.size() > MAX_ROW_NOTIFICATIONS) {
+      notifyChange(uri);
+      return;
+    }
+    for (long id : ids) {
+      notifyChange(ContentUris.withAppendedId(uri, id));
+    }
+  }
+
+  private void notifyChange(Uri uri) {
+    ArrayList<Uri> changes = batchChanges.get();
+    if (changes == null) {
+      List<String> segments = uri.getPathSegments();
+      if (!segments.isEmpty() && DBConstants.EVENTS_TABLE.equals(segments.get(0))) {
+        // Before notifying, so whoever reads the days again after the change reads the new events
+        EventCatalog.getInstance(getContext()).invalidate();
+      }
+      getContext().getContentResolver().notifyChange(uri, null);
+    } else if (!changes.contains(uri)) {
+      changes.add(uri);
+    }
+  }
+
+  private static String buildInsertStatement(String table, String[] columns) {
+    StringBuilder sql = new StringBuilder("INSERT INTO ").append(table).append(" (");
+    StringBuilder args = new StringBuilder();
+    for (int i = 0; i < columns.length; i++) {
+      if (i > 0) {
+        sql.append(", ");
+        args.append(", ");
+      }
+      sql.append(columns[i]);
+      args.append("?");
+    }
+    return sql.append(") VALUES (").append(args).append(")").toString();
+  }
+
+  // Binds each type as SQLiteDatabase.insert does, so a row is stored the same whichever path inserts it
+  private static void bindValues(SQLiteStatement statement, String[] columns, ContentValues values) {
+    for (int i = 0; i < columns.length; i++) {
+      Object value = values.get(columns[i]);
+      int index = i + 1;
+      if (value == null) {
+        statement.bindNull(index);
+      } else if (value instanceof Double || value instanceof Float) {
+        statement.bindDouble(index, ((Number) value).doubleValue());
+      } else if (value instanceof Number) {
+        statement.bindLong(index, ((Number) value).longValue());
+      } else if (value instanceof Boolean) {
+        statement.bindLong(index, (Boolean) value ? 1 : 0);
+      } else if (value instanceof byte[]) {
+        statement.bindBlob(index, (byte[]) value);
+      } else {
+        statement.bindString(index, value.toString());
+      }
+    }
+  }
 }
@@ -0,0 +1,43 @@
+package es.android.TurnosAndroid.database;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+
+/**
+ * Turns the rows of a cursor into models. The columns are looked up once per cursor, in {@link #bindColumns}, and every row is then read by index,
+ * instead of looking each column up by name on every row.
+ * <p/>
+ * A mapper holds the columns of the cursor it is reading, so it is meant to be created where a cursor is read and not shared between threads.
+ */
+public abstract class CursorMapper<T> {
+  /**
+   * Finds the columns read by {@link #mapRow} in a cursor.
+   */
+  protected abstract void bindColumns(Cursor cursor);
+
+  /**
+   * Reads the row the cursor is on, or returns null to leave it out.
+   */
+  protected abstract T mapRow(Cursor cursor);
+
+  /**
+   * Reads every row of a cursor, from the first one. A null cursor has no rows.
+   */
+  public ArrayList<T> mapAll(Cursor cursor) {
+    if (cursor == null || cursor.getCount() == 0) {
+      return new ArrayList<T>();
+    }
+
+    ArrayList<T> rows = new ArrayList<T>(cursor.getCount());
+    bindColumns(cursor);
+    cursor.moveToPosition(-1);
+    while (cursor.moveToNext()) {
+      T row = mapRow(cursor);
+      if (row != null) {
+        rows.add(row);
+      }
+    }
+    return rows;
+  }
+}
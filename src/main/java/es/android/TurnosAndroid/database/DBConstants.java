@@ -6,7 +6,7 @@ package es.android.TurnosAndroid.database;
  */
 public class DBConstants {
   public static final String   DATABASE_NAME         = "turnos_android";
-  public static final int      DATABASE_VERSION      = 1;
+  public static final int      DATABASE_VERSION      = 6;
   public static final String   EVENTS_TABLE          = "events";
   public static final String   ID                    = "_id";
   public static final String   NAME                  = "name";
@@ -24,24 +24,40 @@ public class DBConstants {
       LOCATION,
       COLOR
   };
+  public static final String   EVENTS_NAME_INDEX     = "events_name_id";
   public static final String   CALENDAR_EVENTS_TABLE = "calendarevents";
   public static final String   DATE                  = "date";
   public static final String   EVENT_ID              = "event_id";
+  public static final String   CALENDAR_EVENTS_INDEX = "calendarevents_date_event_id";
   public static final String[] MONTH_PROJECTION      = new String[]{
       ID,
       DATE,
-      EVENT_ID,
+      EVENT_ID
+  };
+  public static final String   PATTERNS_TABLE        = "patterns";
+  public static final String   PATTERNS_NAME_INDEX   = "patterns_name_id";
+  public static final String   ANCHOR_DAY            = "anchor_day";
+  public static final String   CYCLE                 = "cycle";
+  public static final String[] PATTERNS_PROJECTION   = new String[]{
+      ID,
+      NAME,
+      ANCHOR_DAY,
+      CYCLE
+  };
+  public static final String   OCCUPANCY_TABLE       = "occupancy";
+  public static final String   WORD                  = "word";
+  public static final String   OCCUPIED              = "occupied";
+  public static final String   OVERRIDDEN            = "overridden";
+  public static final String   EVENTS_SEARCH_TABLE   = "events_search";
+  public static final String   RANK                  = "rank";
+  public static final String[] SEARCH_PROJECTION     = new String[]{
+      ID,
       NAME,
       DESCRIPTION,
       START,
       DURATION,
       LOCATION,
-      COLOR
-  };
-  public static final String   PATTERNS_TABLE        = "patterns";
-  public static final String[] PATTERNS_PROJECTION   = new String[]{
-      // TODO fill the fields
+      COLOR,
+      RANK
   };
-  // TODO
-  public static final String   SORT_PATTERNS_BY      = "";
 }
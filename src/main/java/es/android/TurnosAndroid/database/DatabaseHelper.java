@@ -23,9 +23,26 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
   @Override
   public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    if (oldVersion >= 4) {
+      if (oldVersion < 5) {
+        // Only the search index is new, it is filled from the events already there
+        createSearchIndex(db);
+        db.execSQL("INSERT INTO " + DBConstants.EVENTS_SEARCH_TABLE + "(docid, " + DBConstants.NAME + ", " + DBConstants.DESCRIPTION + ", " +
+                   DBConstants.LOCATION + ") SELECT " + DBConstants.ID + ", " + DBConstants.NAME + ", " + DBConstants.DESCRIPTION + ", " +
+                   DBConstants.LOCATION + " FROM " + DBConstants.EVENTS_TABLE);
+      }
+      if (oldVersion < 6) {
+        createNameIndexes(db);
+      }
+      return;
+    }
+
     Log.w(TAG, "Upgrading database from version " + oldVersion + " to " + newVersion + ", which will destroy all old data");
     db.execSQL("DROP TABLE IF EXISTS " + DBConstants.EVENTS_TABLE);
     db.execSQL("DROP TABLE IF EXISTS " + DBConstants.CALENDAR_EVENTS_TABLE);
+    db.execSQL("DROP TABLE IF EXISTS " + DBConstants.PATTERNS_TABLE);
+    db.execSQL("DROP TABLE IF EXISTS " + DBConstants.OCCUPANCY_TABLE);
+    db.execSQL("DROP TABLE IF EXISTS " + DBConstants.EVENTS_SEARCH_TABLE);
     onCreate(db);
   }
 
@@ -43,7 +60,57 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                DBConstants.ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
                DBConstants.DATE + " LONG, " +
                DBConstants.EVENT_ID + " INTEGER);");
+    // Month loads always ask for a date range, so let SQLite answer them with a range scan that also covers the join column
+    db.execSQL("CREATE INDEX " + DBConstants.CALENDAR_EVENTS_INDEX + " ON " + DBConstants.CALENDAR_EVENTS_TABLE + "(" +
+               DBConstants.DATE + ", " +
+               DBConstants.EVENT_ID + ");");
+    // A pattern is stored once: the event ids of its cycle (comma separated) and the Julian day the cycle starts on
     db.execSQL("CREATE TABLE " + DBConstants.PATTERNS_TABLE + "(" +
-               DBConstants.ID + " INTEGER PRIMARY KEY AUTOINCREMENT);");
+               DBConstants.ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+               DBConstants.NAME + " TEXT, " +
+               DBConstants.ANCHOR_DAY + " INTEGER, " +
+               DBConstants.CYCLE + " TEXT);");
+    // One row per 64 days with the bit masks of the days that have calendarevents rows, see OccupancyIndex
+    db.execSQL("CREATE TABLE " + DBConstants.OCCUPANCY_TABLE + "(" +
+               DBConstants.WORD + " INTEGER PRIMARY KEY, " +
+               DBConstants.OCCUPIED + " INTEGER, " +
+               DBConstants.OVERRIDDEN + " INTEGER);");
+    createSearchIndex(db);
+    createNameIndexes(db);
+  }
+
+  /**
+   * The lists of events and patterns are read a page at a time in name order, each page starting after the last row of the previous one, see
+   * {@link PagedList}. These let SQLite find the start of a page without reading the rows before it.
+   */
+  private void createNameIndexes(SQLiteDatabase db) {
+    db.execSQL("CREATE INDEX " + DBConstants.EVENTS_NAME_INDEX + " ON " + DBConstants.EVENTS_TABLE + "(" +
+               DBConstants.NAME + ", " +
+               DBConstants.ID + ");");
+    db.execSQL("CREATE INDEX " + DBConstants.PATTERNS_NAME_INDEX + " ON " + DBConstants.PATTERNS_TABLE + "(" +
+               DBConstants.NAME + ", " +
+               DBConstants.ID + ");");
+  }
+
+  /**
+   * The full text index of the text columns of the events, see {@link EventSearchQuery}. The row of an event is the one with its id as docid, kept
+   * up to date by triggers on the events table, so every way of writing an event updates it.
+   */
+  private void createSearchIndex(SQLiteDatabase db) {
+    db.execSQL("CREATE VIRTUAL TABLE " + DBConstants.EVENTS_SEARCH_TABLE + " USING fts4(" +
+               DBConstants.NAME + ", " +
+               DBConstants.DESCRIPTION + ", " +
+               DBConstants.LOCATION + ");");
+    db.execSQL("CREATE TRIGGER " + DBConstants.EVENTS_SEARCH_TABLE + "_insert AFTER INSERT ON " + DBConstants.EVENTS_TABLE + " BEGIN " +
+               "INSERT INTO " + DBConstants.EVENTS_SEARCH_TABLE + "(docid, " + DBConstants.NAME + ", " + DBConstants.DESCRIPTION + ", " +
+               DBConstants.LOCATION + ") VALUES (new." + DBConstants.ID + ", new." + DBConstants.NAME + ", new." + DBConstants.DESCRIPTION + ", new." +
+               DBConstants.LOCATION + "); END;");
+    db.execSQL("CREATE TRIGGER " + DBConstants.EVENTS_SEARCH_TABLE + "_update AFTER UPDATE OF " + DBConstants.NAME + ", " + DBConstants.DESCRIPTION +
+               ", " + DBConstants.LOCATION + " ON " + DBConstants.EVENTS_TABLE + " BEGIN " +
+               "UPDATE " + DBConstants.EVENTS_SEARCH_TABLE + " SET " + DBConstants.NAME + " = new." + DBConstants.NAME + ", " +
+               DBConstants.DESCRIPTION + " = new." + DBConstants.DESCRIPTION + ", " + DBConstants.LOCATION + " = new." + DBConstants.LOCATION +
+               " WHERE docid = old." + DBConstants.ID + "; END;");
+    db.execSQL("CREATE TRIGGER " + DBConstants.EVENTS_SEARCH_TABLE + "_delete AFTER DELETE ON " + DBConstants.EVENTS_TABLE + " BEGIN " +
+               "DELETE FROM " + DBConstants.EVENTS_SEARCH_TABLE + " WHERE docid = old." + DBConstants.ID + "; END;");
   }
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import es.android.TurnosAndroid.model.EventDefinition;
+
+import java.util.Arrays;
+
+/**
+ * Process wide catalog of the events table, one {@link EventDefinition} per event, shared by every day the event is on. It is read whole the first
+ * time it is needed, and again after {@link CalendarProvider} has changed the events table, before the change is notified.
+ * <p/>
+ * Lookups are a binary search over the ids, they don't allocate, so it can be used once per row while reading a cursor. Safe to use from any
+ * thread.
+ */
+public class EventCatalog {
+  private static final String QUERY = "SELECT " + DBConstants.ID + ", " + DBConstants.NAME + ", " + DBConstants.DESCRIPTION + ", " + DBConstants.START +
+                                      ", " + DBConstants.DURATION + ", " + DBConstants.LOCATION + ", " + DBConstants.COLOR + " FROM " +
+                                      DBConstants.EVENTS_TABLE + " ORDER BY " + DBConstants.ID;
+  private static EventCatalog instance;
+  private final    DatabaseHelper databaseHelper;
+  // Bumped on every change, so a catalog read while the events change is not kept
+  private          int            generation;
+  private volatile Snapshot       snapshot;
+
+  private static final class Snapshot {
+    private final long[]            ids;
+    private final EventDefinition[] definitions;
+
+    private Snapshot(long[] ids, EventDefinition[] definitions) {
+      this.ids = ids;
+      this.definitions = definitions;
+    }
+  }
+
+  private EventCatalog(Context context) {
+    databaseHelper = new DatabaseHelper(context);
+  }
+
+  public static synchronized EventCatalog getInstance(Context context) {
+    if (instance == null) {
+      instance = new EventCatalog(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the definition of an event, or null if there is no such event, as for the rows marking a day off.
+   */
+  public EventDefinition get(long eventId) {
+    Snapshot current = snapshot;
+    if (current == null) {
+      current = load();
+    }
+    int index = Arrays.binarySearch(current.ids, eventId);
+    return index >= 0 ? current.definitions[index] : null;
+  }
+
+  /**
+   * Drops the catalog, the next lookup reads it again. Called once the events table has changed.
+   */
+  public void invalidate() {
+    synchronized (this) {
+      generation++;
+      snapshot = null;
+    }
+  }
+
+  private Snapshot load() {
+    int loadGeneration;
+    synchronized (this) {
+      if (snapshot != null) {
+        return snapshot;
+      }
+      loadGeneration = generation;
+    }
+
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+    Snapshot loaded;
+    Cursor cursor = db.rawQuery(QUERY, null);
+    try {
+      long[] ids = new long[cursor.getCount()];
+      EventDefinition[] definitions = new EventDefinition[ids.length];
+      for (int i = 0; cursor.moveToNext(); i++) {
+        ids[i] = cursor.getLong(0);
+        definitions[i] = new EventDefinition(ids[i], cursor.getString(1), cursor.getString(2), cursor.getInt(3), cursor.getInt(4), cursor.getString(5),
+                                             cursor.getInt(6));
+      }
+      loaded = new Snapshot(ids, definitions);
+    } finally {
+      cursor.close();
+    }
+
+    synchronized (this) {
+      if (generation == loadGeneration) {
+        snapshot = loaded;
+      }
+    }
+    // If the events changed meanwhile this read is only good for this lookup, the change will be notified and read again
+    return loaded;
+  }
+}
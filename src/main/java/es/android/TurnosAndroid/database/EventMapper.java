@@ -0,0 +1,41 @@
+package es.android.TurnosAndroid.database;
+
+import android.database.Cursor;
+import es.android.TurnosAndroid.model.Event;
+
+/**
+ * Reads {@link Event}s from a cursor with the {@link DBConstants#EVENTS_PROJECTION} columns.
+ */
+public class EventMapper extends CursorMapper<Event> {
+  private int idColumn;
+  private int nameColumn;
+  private int descriptionColumn;
+  private int startColumn;
+  private int durationColumn;
+  private int locationColumn;
+  private int colorColumn;
+
+  @Override
+  protected void bindColumns(Cursor cursor) {
+    idColumn = cursor.getColumnIndexOrThrow(DBConstants.ID);
+    nameColumn = cursor.getColumnIndexOrThrow(DBConstants.NAME);
+    descriptionColumn = cursor.getColumnIndexOrThrow(DBConstants.DESCRIPTION);
+    startColumn = cursor.getColumnIndexOrThrow(DBConstants.START);
+    durationColumn = cursor.getColumnIndexOrThrow(DBConstants.DURATION);
+    locationColumn = cursor.getColumnIndexOrThrow(DBConstants.LOCATION);
+    colorColumn = cursor.getColumnIndexOrThrow(DBConstants.COLOR);
+  }
+
+  @Override
+  protected Event mapRow(Cursor cursor) {
+    Event event = new Event();
+    event.setId(cursor.getLong(idColumn));
+    event.setName(cursor.getString(nameColumn));
+    event.setDescription(cursor.getString(descriptionColumn));
+    event.setStartTime(cursor.getLong(startColumn));
+    event.setDuration(cursor.getLong(durationColumn));
+    event.setLocation(cursor.getString(locationColumn));
+    event.setColor(cursor.getInt(colorColumn));
+    return event;
+  }
+}
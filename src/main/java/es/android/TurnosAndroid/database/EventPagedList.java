@@ -0,0 +1,42 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.Context;
+import android.text.TextUtils;
+import es.android.TurnosAndroid.model.Event;
+
+import java.util.ArrayList;
+
+/**
+ * The events table in name order, a window of pages at a time, with the writes the {@link EventWriter} hasn't committed yet laid over it. Events
+ * inserted there are shown at the end of the window until they are committed and read in their place.
+ */
+public class EventPagedList extends PagedList<Event> {
+  private final EventWriter eventWriter;
+
+  public EventPagedList(Context context) {
+    super(context, DBConstants.EVENTS_TABLE, DBConstants.EVENTS_PROJECTION, CalendarProvider.EVENTS_URI, new EventMapper());
+    eventWriter = EventWriter.getInstance(context);
+  }
+
+  @Override
+  protected long getId(Event event) {
+    return event.getId();
+  }
+
+  @Override
+  protected String getName(Event event) {
+    return event.getName();
+  }
+
+  @Override
+  protected boolean isSameContent(Event event, Event other) {
+    return TextUtils.equals(event.getName(), other.getName()) && TextUtils.equals(event.getDescription(), other.getDescription()) &&
+           event.getStartTime() == other.getStartTime() && event.getDuration() == other.getDuration() &&
+           TextUtils.equals(event.getLocation(), other.getLocation()) && event.getColor() == other.getColor();
+  }
+
+  @Override
+  protected ArrayList<Event> overlay(ArrayList<Event> loadedRows) {
+    return eventWriter.applyPending(loadedRows);
+  }
+}
@@ -0,0 +1,88 @@
+package es.android.TurnosAndroid.database;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Finds the events whose name, description or location contain the words of a search, with the full text index kept in
+ * {@link DBConstants#EVENTS_SEARCH_TABLE}. Every word must be there, as a word or the start of one, so the results narrow while typing.
+ * <p/>
+ * Results are ranked by where the words are: a word in the name counts more than in the location, and that more than in the description. Each
+ * weight is found with another lookup in the index restricted to that column, so ranking never reads the events that don't match.
+ * <p/>
+ * The returned cursor has the {@link DBConstants#SEARCH_PROJECTION} columns, best ranked first.
+ */
+public class EventSearchQuery {
+  private static final String[] RANKED_COLUMNS = new String[]{DBConstants.NAME, DBConstants.LOCATION, DBConstants.DESCRIPTION};
+  private static final int[]    WEIGHTS        = new int[]{4, 2, 1};
+  // Characters with a meaning in the match syntax, a search is only made of words
+  private static final String   NOT_WORD       = "[\\s\"*:()^\\-]+";
+
+  private EventSearchQuery() {
+  }
+
+  /**
+   * @param db     the database to read from
+   * @param search the words to look for, as typed
+   * @param limit  how many results to return at most
+   * @param offset how many of the best results to skip, for the pages after the first
+   * @return a cursor with a page of the events matching every word
+   */
+  public static Cursor query(SQLiteDatabase db, String search, int limit, int offset) {
+    ArrayList<String> terms = getTerms(search);
+    if (terms.isEmpty()) {
+      return new MatrixCursor(DBConstants.SEARCH_PROJECTION, 0);
+    }
+
+    StringBuilder match = new StringBuilder();
+    for (String term : terms) {
+      if (match.length() > 0) {
+        match.append(' ');
+      }
+      match.append(term);
+    }
+
+    ArrayList<String> args = new ArrayList<String>();
+    StringBuilder rank = new StringBuilder();
+    for (String term : terms) {
+      for (int i = 0; i < RANKED_COLUMNS.length; i++) {
+        if (rank.length() > 0) {
+          rank.append(" + ");
+        }
+        // Uncorrelated, SQLite looks each one up once for the whole query
+        rank.append("(e.").append(DBConstants.ID).append(" IN (SELECT docid FROM ").append(DBConstants.EVENTS_SEARCH_TABLE).append(" WHERE ")
+            .append(RANKED_COLUMNS[i]).append(" MATCH ?)) * ").append(WEIGHTS[i]);
+        args.add(term);
+      }
+    }
+    args.add(match.toString());
+    args.add(String.valueOf(limit));
+    args.add(String.valueOf(offset));
+
+    String sql = "SELECT e." + DBConstants.ID + ", e." + DBConstants.NAME + ", e." + DBConstants.DESCRIPTION + ", e." + DBConstants.START + ", e." +
+                 DBConstants.DURATION + ", e." + DBConstants.LOCATION + ", e." + DBConstants.COLOR + ", " + rank + " AS " + DBConstants.RANK +
+                 " FROM " + DBConstants.EVENTS_TABLE + " AS e JOIN (SELECT docid FROM " + DBConstants.EVENTS_SEARCH_TABLE + " WHERE " +
+                 DBConstants.EVENTS_SEARCH_TABLE + " MATCH ?) AS s ON e." + DBConstants.ID + " = s.docid" +
+                 " ORDER BY " + DBConstants.RANK + " DESC, e." + DBConstants.NAME + " ASC, e." + DBConstants.ID + " ASC LIMIT ? OFFSET ?";
+    return db.rawQuery(sql, args.toArray(new String[args.size()]));
+  }
+
+  // The words of a search as prefix queries
+  private static ArrayList<String> getTerms(String search) {
+    ArrayList<String> terms = new ArrayList<String>();
+    if (search == null) {
+      return terms;
+    }
+    for (String word : search.toLowerCase(Locale.getDefault()).split(NOT_WORD)) {
+      // Quoted, so no word is read as an operator
+      if (word.length() > 0) {
+        terms.add("\"" + word + "*\"");
+      }
+    }
+    return terms;
+  }
+}
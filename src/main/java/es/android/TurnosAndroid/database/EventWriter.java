@@ -0,0 +1,414 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+import es.android.TurnosAndroid.model.Event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Writes the events table in a background thread, so saving or deleting an event never waits for the disk in the UI thread.
+ * <p/>
+ * Writes are queued by row and a single thread applies them. A write to a row that is still queued is merged into it: several edits of a row become
+ * one update, and deleting a row that hasn't been inserted yet writes nothing. Whatever is queued when the thread gets to it is applied as one
+ * {@link CalendarProvider#applyBatch batch}, in a single transaction.
+ * <p/>
+ * Until they are committed the writes are shown with {@link #applyPending}, which lays them over the events read from the database. A row inserted
+ * here has a negative local id until then, which can be used to update or delete it meanwhile.
+ * <p/>
+ * Everything but the writing itself happens in the UI thread.
+ */
+public class EventWriter {
+  private static final String TAG    = EventWriter.class.getSimpleName();
+  private static final int    INSERT = 0;
+  private static final int    UPDATE = 1;
+  private static final int    DELETE = 2;
+  private static EventWriter instance;
+  private final Context                           context;
+  private final Handler                           workerHandler;
+  private final Handler                           mainHandler;
+  // Writes waiting for the writer thread by row, in the order they were first queued. Guarded by itself.
+  private final LinkedHashMap<Long, PendingWrite> queue;
+  // Writes the writer thread is applying, still shown by applyPending. Guarded by queue.
+  private final ArrayList<PendingWrite>           inFlight;
+  // The row id of the rows inserted here by their local id. Guarded by queue.
+  private final HashMap<Long, Long>               insertedIds;
+  private final ArrayList<OnPendingChangedListener> listeners;
+  private       long                              nextLocalId;
+  private       boolean                           drainScheduled;
+
+  /**
+   * Called in the UI thread once a write has been committed or has failed.
+   */
+  public interface OnWriteListener {
+    /**
+     * @param id    the id of the row, the one given by the database for an insert
+     * @param count how many rows the write changed, 0 if it was dropped by a later delete of the row, or -1 if it failed
+     */
+    public void onWriteComplete(long id, int count);
+  }
+
+  /**
+   * Called in the UI thread when the writes shown by {@link #applyPending} change without the table changing: a write has been queued, or has
+   * failed and is no longer shown.
+   */
+  public interface OnPendingChangedListener {
+    public void onPendingChanged();
+  }
+
+  private EventWriter(Context context) {
+    this.context = context;
+    HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+    thread.start();
+    workerHandler = new Handler(thread.getLooper());
+    mainHandler = new Handler(Looper.getMainLooper());
+    queue = new LinkedHashMap<Long, PendingWrite>();
+    inFlight = new ArrayList<PendingWrite>();
+    insertedIds = new HashMap<Long, Long>();
+    listeners = new ArrayList<OnPendingChangedListener>();
+    nextLocalId = -1;
+  }
+
+  public static synchronized EventWriter getInstance(Context context) {
+    if (instance == null) {
+      instance = new EventWriter(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * Queues the insert of an event and returns the local id it has until it is committed.
+   */
+  public long insertEvent(ContentValues values, OnWriteListener listener) {
+    long localId;
+    synchronized (queue) {
+      localId = nextLocalId--;
+      queue.put(localId, new PendingWrite(INSERT, localId, new ContentValues(values), listener));
+    }
+    scheduleDrain();
+    return localId;
+  }
+
+  /**
+   * Queues the update of an event, merged into the write already queued for it if there is one.
+   */
+  public void updateEvent(long id, ContentValues values, OnWriteListener listener) {
+    synchronized (queue) {
+      PendingWrite write = queue.get(id);
+      if (write == null) {
+        queue.put(id, new PendingWrite(UPDATE, id, new ContentValues(values), listener));
+      } else if (write.kind != DELETE) {
+        // The insert or update still to come writes the new values too
+        write.values.putAll(values);
+        write.addListener(listener);
+      } else {
+        // The row will be gone, there is nothing to update
+        write.addListener(listener);
+      }
+    }
+    scheduleDrain();
+  }
+
+  /**
+   * Queues the delete of an event, in place of the write already queued for it if there is one.
+   */
+  public void deleteEvent(long id, OnWriteListener listener) {
+    final PendingWrite dropped;
+    synchronized (queue) {
+      PendingWrite write = queue.get(id);
+      if (write != null && write.kind == INSERT) {
+        // Never written, so there is nothing to delete either
+        queue.remove(id);
+        write.addListener(listener);
+        dropped = write;
+      } else {
+        PendingWrite delete = new PendingWrite(DELETE, id, null, listener);
+        if (write != null) {
+          delete.listeners.addAll(write.listeners);
+        }
+        queue.put(id, delete);
+        dropped = null;
+      }
+    }
+
+    if (dropped != null) {
+      mainHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          dropped.deliver(dropped.id, 0);
+          notifyPendingChanged();
+        }
+      });
+    } else {
+      scheduleDrain();
+    }
+  }
+
+  /**
+   * Returns the events read from the database as they will be once the pending writes are committed: deleted ones are left out, updated ones are
+   * copied with the new values, and inserted ones are added at the end with their local id. The list given is not changed.
+   */
+  public ArrayList<Event> applyPending(ArrayList<Event> events) {
+    ArrayList<PendingWrite> writes;
+    long[] ids;
+    synchronized (queue) {
+      if (queue.isEmpty() && inFlight.isEmpty()) {
+        return events;
+      }
+      // The ones being applied came first
+      writes = new ArrayList<PendingWrite>(inFlight);
+      for (PendingWrite write : queue.values()) {
+        writes.add(write.copy());
+      }
+      // Rows inserted here are read under the id the database gave them once committed
+      ids = new long[writes.size()];
+      for (int i = 0; i < ids.length; i++) {
+        Long insertedId = insertedIds.get(writes.get(i).id);
+        ids[i] = insertedId == null ? writes.get(i).id : insertedId;
+      }
+    }
+
+    HashMap<Long, Event> rows = new LinkedHashMap<Long, Event>();
+    for (Event event : events) {
+      rows.put(event.getId(), event);
+    }
+    for (int i = 0; i < ids.length; i++) {
+      PendingWrite write = writes.get(i);
+      long id = ids[i];
+      Event event = rows.get(id);
+      if (write.kind == DELETE) {
+        rows.remove(id);
+      } else if (write.kind == UPDATE && event != null) {
+        Event updated = new Event(event);
+        setValues(updated, write.values);
+        rows.put(id, updated);
+      } else if (write.kind == INSERT && event == null) {
+        Event inserted = new Event();
+        inserted.setId(id);
+        setValues(inserted, write.values);
+        rows.put(id, inserted);
+      }
+    }
+    return new ArrayList<Event>(rows.values());
+  }
+
+  /**
+   * Must be called from the UI thread, as well as {@link #removeListener}.
+   */
+  public void addListener(OnPendingChangedListener listener) {
+    if (!listeners.contains(listener)) {
+      listeners.add(listener);
+    }
+  }
+
+  public void removeListener(OnPendingChangedListener listener) {
+    listeners.remove(listener);
+  }
+
+  // Called from the UI thread after queueing a write
+  private void scheduleDrain() {
+    notifyPendingChanged();
+    synchronized (queue) {
+      if (drainScheduled) {
+        return;
+      }
+      drainScheduled = true;
+    }
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        drain();
+      }
+    });
+  }
+
+  // Applies everything queued in one batch, in the writer thread
+  private void drain() {
+    final ArrayList<PendingWrite> writes;
+    synchronized (queue) {
+      drainScheduled = false;
+      writes = new ArrayList<PendingWrite>(queue.values());
+      queue.clear();
+      inFlight.addAll(writes);
+    }
+    if (writes.isEmpty()) {
+      return;
+    }
+
+    ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(writes.size());
+    ArrayList<PendingWrite> applied = new ArrayList<PendingWrite>(writes.size());
+    final ArrayList<PendingWrite> failed = new ArrayList<PendingWrite>();
+    for (PendingWrite write : writes) {
+      long rowId = write.id;
+      if (write.kind != INSERT && rowId < 0) {
+        // A row inserted here, which must have been committed by an earlier batch
+        Long insertedId;
+        synchronized (queue) {
+          insertedId = insertedIds.get(rowId);
+        }
+        if (insertedId == null) {
+          failed.add(write);
+          continue;
+        }
+        rowId = insertedId;
+      }
+      write.rowId = rowId;
+      operations.add(toOperation(write));
+      applied.add(write);
+    }
+
+    ContentProviderResult[] results = null;
+    if (!operations.isEmpty()) {
+      try {
+        results = context.getContentResolver().applyBatch(CalendarProvider.AUTHORITY, operations);
+      } catch (Exception e) {
+        // The transaction has been rolled back, none of the writes has been committed
+        Log.e(TAG, "Failed to write " + operations.size() + " events", e);
+        failed.addAll(applied);
+        applied.clear();
+      }
+    }
+
+    final int[] counts = new int[applied.size()];
+    synchronized (queue) {
+      for (int i = 0; i < applied.size(); i++) {
+        PendingWrite write = applied.get(i);
+        ContentProviderResult result = results[i];
+        if (write.kind == INSERT) {
+          write.rowId = ContentUris.parseId(result.uri);
+          insertedIds.put(write.id, write.rowId);
+          counts[i] = 1;
+        } else {
+          counts[i] = result.count == null ? 0 : result.count;
+        }
+      }
+      inFlight.removeAll(writes);
+    }
+
+    final ArrayList<PendingWrite> committed = applied;
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < committed.size(); i++) {
+          committed.get(i).deliver(committed.get(i).rowId, counts[i]);
+        }
+        for (PendingWrite write : failed) {
+          write.deliver(write.id, -1);
+        }
+        forgetInsertedIds(writes);
+        // The committed writes are read from the table now, which notifies its own change
+        if (!failed.isEmpty()) {
+          notifyPendingChanged();
+        }
+      }
+    });
+  }
+
+  // In the UI thread, once the callers have been told the row ids. A local id is only looked up while a write to it is queued or being applied.
+  private void forgetInsertedIds(ArrayList<PendingWrite> writes) {
+    synchronized (queue) {
+      for (PendingWrite write : writes) {
+        if (write.id < 0 && !queue.containsKey(write.id) && !isInFlight(write.id)) {
+          insertedIds.remove(write.id);
+        }
+      }
+    }
+  }
+
+  // Guarded by queue
+  private boolean isInFlight(long id) {
+    for (PendingWrite write : inFlight) {
+      if (write.id == id) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static ContentProviderOperation toOperation(PendingWrite write) {
+    String selection = DBConstants.ID + "=?";
+    String[] selectionArgs = new String[]{String.valueOf(write.rowId)};
+    switch (write.kind) {
+      case INSERT:
+        return ContentProviderOperation.newInsert(CalendarProvider.EVENTS_URI).withValues(write.values).build();
+      case UPDATE:
+        return ContentProviderOperation.newUpdate(CalendarProvider.EVENTS_URI).withValues(write.values).withSelection(selection, selectionArgs).build();
+      default:
+        return ContentProviderOperation.newDelete(CalendarProvider.EVENTS_URI).withSelection(selection, selectionArgs).build();
+    }
+  }
+
+  private static void setValues(Event event, ContentValues values) {
+    if (values.containsKey(DBConstants.NAME)) {
+      event.setName(values.getAsString(DBConstants.NAME));
+    }
+    if (values.containsKey(DBConstants.DESCRIPTION)) {
+      event.setDescription(values.getAsString(DBConstants.DESCRIPTION));
+    }
+    if (values.containsKey(DBConstants.START)) {
+      event.setStartTime(values.getAsLong(DBConstants.START));
+    }
+    if (values.containsKey(DBConstants.DURATION)) {
+      event.setDuration(values.getAsLong(DBConstants.DURATION));
+    }
+    if (values.containsKey(DBConstants.LOCATION)) {
+      event.setLocation(values.getAsString(DBConstants.LOCATION));
+    }
+    if (values.containsKey(DBConstants.COLOR)) {
+      event.setColor(values.getAsInteger(DBConstants.COLOR));
+    }
+  }
+
+  private void notifyPendingChanged() {
+    for (OnPendingChangedListener listener : new ArrayList<OnPendingChangedListener>(listeners)) {
+      listener.onPendingChanged();
+    }
+  }
+
+  /**
+   * A write of one row. Id is the row id, or the local id of a row inserted here; rowId is the id it is written with, only used in the writer
+   * thread and once delivered.
+   */
+  private static final class PendingWrite {
+    final int                        kind;
+    final long                       id;
+    final ContentValues              values;
+    final ArrayList<OnWriteListener> listeners;
+    long                             rowId;
+
+    PendingWrite(int kind, long id, ContentValues values, OnWriteListener listener) {
+      this.kind = kind;
+      this.id = id;
+      this.values = values;
+      listeners = new ArrayList<OnWriteListener>(1);
+      addListener(listener);
+    }
+
+    void addListener(OnWriteListener listener) {
+      if (listener != null) {
+        listeners.add(listener);
+      }
+    }
+
+    // The queued writes may still be merged into, they are read from a copy
+    PendingWrite copy() {
+      return new PendingWrite(kind, id, values == null ? null : new ContentValues(values), null);
+    }
+
+    void deliver(long rowId, int count) {
+      for (OnWriteListener listener : listeners) {
+        listener.onWriteComplete(rowId, count);
+      }
+    }
+  }
+}
@@ -0,0 +1,269 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.text.format.Time;
+import android.util.LruCache;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.model.EventBuffer;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process wide copy of the calendar days the screens have loaded, so a change to one row doesn't make every screen query its whole range again.
+ * <p/>
+ * The provider appends the id of the inserted, updated or deleted row to the uri it notifies. When a calendarevents or events row changes, only the
+ * loaded days that row was or is now on are read again, and the listeners are told which days changed. A change without an id, or to the patterns,
+ * which can touch any day, drops every cached day.
+ */
+public class EventsRepository {
+  private static final String TAG      = EventsRepository.class.getSimpleName();
+  // About a year, a few times the range the month view keeps loaded
+  private static final int    MAX_DAYS = 366;
+  private static EventsRepository instance;
+  private final Context                          context;
+  private final DatabaseHelper                   databaseHelper;
+  private final Handler                          mainHandler;
+  private final LruCache<Integer, EventBuffer>   days;
+  // The change count each day was last changed at. Guarded by days, as well as the counts below.
+  private final LruCache<Integer, Integer>       dayChanges;
+  private final ArrayList<OnDaysChangedListener> listeners;
+  // Counts the changes applied, so a load started before one doesn't put back the days it changed
+  private       int                              changeCount;
+  // The count of the last change that may have touched any day, or of the last day forgotten by dayChanges
+  private       int                              allDaysChangedAt;
+
+  /**
+   * Called in the UI thread after the events of some days have changed, once the loaded ones have been read again. Both days are included; a
+   * change that may touch any day goes from {@link Integer#MIN_VALUE} to {@link Integer#MAX_VALUE}.
+   */
+  public interface OnDaysChangedListener {
+    public void onDaysChanged(int firstJulianDay, int lastJulianDay);
+  }
+
+  private EventsRepository(Context context) {
+    this.context = context;
+    databaseHelper = new DatabaseHelper(context);
+    mainHandler = new Handler(Looper.getMainLooper());
+    days = new LruCache<Integer, EventBuffer>(MAX_DAYS);
+    dayChanges = new LruCache<Integer, Integer>(MAX_DAYS) {
+      @Override
+      protected void entryRemoved(boolean evicted, Integer day, Integer oldChange, Integer newChange) {
+        if (evicted) {
+          // The day may have changed after any load that started before it
+          allDaysChangedAt = Math.max(allDaysChangedAt, oldChange);
+        }
+      }
+    };
+    listeners = new ArrayList<OnDaysChangedListener>();
+
+    // Changes are applied in a thread of their own, they read from the database
+    HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+    thread.start();
+    ContentObserver observer = new ContentObserver(new Handler(thread.getLooper())) {
+      @Override
+      public void onChange(boolean selfChange) {
+        // Before Jelly Bean the uri is not passed
+        applyChange(null);
+      }
+
+      @Override
+      public void onChange(boolean selfChange, Uri uri) {
+        applyChange(uri);
+      }
+    };
+    ContentResolver contentResolver = context.getContentResolver();
+    contentResolver.registerContentObserver(CalendarProvider.EVENTS_URI, true, observer);
+    contentResolver.registerContentObserver(CalendarProvider.CALENDAR_EVENTS_URI, true, observer);
+    contentResolver.registerContentObserver(CalendarProvider.PATTERNS_URI, true, observer);
+  }
+
+  public static synchronized EventsRepository getInstance(Context context) {
+    if (instance == null) {
+      instance = new EventsRepository(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the number of changes applied so far, to be read before loading a range and given back to {@link #putDays}.
+   */
+  public int getChangeCount() {
+    synchronized (days) {
+      return changeCount;
+    }
+  }
+
+  /**
+   * Keeps the events of a range that has just been loaded, but the days that have changed since the load started, which would be put back as they
+   * were. Returns whether every day was kept, otherwise the range has to be loaded again or taken from {@link #getDays}.
+   *
+   * @param changeCount the {@link #getChangeCount change count} read before the load started
+   */
+  public boolean putDays(int firstJulianDay, int numDays, EventBuffer events, int changeCount) {
+    EventBuffer[] dayBuffers = new EventBuffer[numDays];
+    for (int i = 0; i < numDays; i++) {
+      dayBuffers[i] = new EventBuffer(1);
+    }
+    for (int i = 0; i < events.size(); i++) {
+      int day = events.getJulianDay(i) - firstJulianDay;
+      if (day >= 0 && day < numDays) {
+        dayBuffers[day].add(events, i);
+      }
+    }
+    synchronized (days) {
+      if (allDaysChangedAt > changeCount) {
+        return false;
+      }
+      boolean kept = true;
+      for (int i = 0; i < numDays; i++) {
+        Integer dayChange = dayChanges.get(firstJulianDay + i);
+        if (dayChange != null && dayChange > changeCount) {
+          kept = false;
+        } else {
+          days.put(firstJulianDay + i, dayBuffers[i]);
+        }
+      }
+      return kept;
+    }
+  }
+
+  /**
+   * Returns the events of a range sorted by day and indexed by day, or null if any of its days is not loaded.
+   */
+  public EventBuffer getDays(int firstJulianDay, int numDays) {
+    EventBuffer events = new EventBuffer();
+    for (int day = firstJulianDay; day < firstJulianDay + numDays; day++) {
+      EventBuffer dayEvents = days.get(day);
+      if (dayEvents == null) {
+        return null;
+      }
+      for (int i = 0; i < dayEvents.size(); i++) {
+        events.add(dayEvents, i);
+      }
+    }
+    events.indexDays(firstJulianDay, numDays);
+    return events;
+  }
+
+  /**
+   * Must be called from the UI thread, as well as {@link #removeListener}.
+   */
+  public void addListener(OnDaysChangedListener listener) {
+    if (!listeners.contains(listener)) {
+      listeners.add(listener);
+    }
+  }
+
+  public void removeListener(OnDaysChangedListener listener) {
+    listeners.remove(listener);
+  }
+
+  private void applyChange(Uri uri) {
+    List<String> segments = uri == null ? null : uri.getPathSegments();
+    if (segments == null || segments.size() < 2 || DBConstants.PATTERNS_TABLE.equals(segments.get(0))) {
+      synchronized (days) {
+        allDaysChangedAt = ++changeCount;
+        days.evictAll();
+      }
+      notifyDaysChanged(Integer.MIN_VALUE, Integer.MAX_VALUE);
+      return;
+    }
+
+    String table = segments.get(0);
+    long id = Long.parseLong(segments.get(1));
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+    String timezone = Time.getCurrentTimezone();
+    HashSet<Integer> changedDays = new HashSet<Integer>();
+
+    boolean calendarEventsTable = DBConstants.CALENDAR_EVENTS_TABLE.equals(table);
+    for (Map.Entry<Integer, EventBuffer> entry : days.snapshot().entrySet()) {
+      EventBuffer dayEvents = entry.getValue();
+      for (int i = 0; i < dayEvents.size(); i++) {
+        // Rows generated from a pattern have negative ids, they never match a calendarevents row
+        if (calendarEventsTable ? dayEvents.getId(i) == id : dayEvents.getEventId(i) == id) {
+          changedDays.add(entry.getKey());
+          break;
+        }
+      }
+    }
+
+    if (calendarEventsTable) {
+      // The day the row is on now, unless it has been deleted
+      Cursor cursor = db.query(DBConstants.CALENDAR_EVENTS_TABLE, new String[]{DBConstants.DATE}, DBConstants.ID + "=?", new String[]{String.valueOf(id)}, null,
+                               null, null);
+      try {
+        if (cursor.moveToFirst()) {
+          changedDays.add(JulianDay.fromMillis(cursor.getLong(0), timezone));
+        }
+      } finally {
+        cursor.close();
+      }
+    }
+
+    synchronized (days) {
+      changeCount++;
+      if (calendarEventsTable) {
+        for (int day : changedDays) {
+          dayChanges.put(day, changeCount);
+        }
+      } else {
+        // The event may be on days that aren't loaded here
+        allDaysChangedAt = changeCount;
+      }
+    }
+
+    int firstChangedDay = Integer.MAX_VALUE;
+    int lastChangedDay = Integer.MIN_VALUE;
+    for (int day : changedDays) {
+      // Days nobody has loaded here will be read when they are needed
+      if (days.get(day) != null) {
+        days.put(day, loadDay(db, timezone, day));
+      }
+      firstChangedDay = Math.min(firstChangedDay, day);
+      lastChangedDay = Math.max(lastChangedDay, day);
+    }
+
+    // A deleted row that wasn't loaded, or an event that may also be on days that aren't loaded here, can be anywhere. The loaded days are
+    // already right, but the listeners may have other days.
+    if (changedDays.isEmpty() || DBConstants.EVENTS_TABLE.equals(table)) {
+      notifyDaysChanged(Integer.MIN_VALUE, Integer.MAX_VALUE);
+    } else {
+      notifyDaysChanged(firstChangedDay, lastChangedDay);
+    }
+  }
+
+  private EventBuffer loadDay(SQLiteDatabase db, String timezone, int julianDay) {
+    long start = JulianDay.toMillis(julianDay, timezone);
+    long end = JulianDay.toMillis(julianDay + 1, timezone) - 1;
+
+    Cursor cursor = CalendarEventsQuery.query(db, start, end);
+    try {
+      return EventBuffer.fromCursor(cursor, timezone, EventCatalog.getInstance(context));
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private void notifyDaysChanged(final int firstJulianDay, final int lastJulianDay) {
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        for (OnDaysChangedListener listener : new ArrayList<OnDaysChangedListener>(listeners)) {
+          listener.onDaysChanged(firstJulianDay, lastJulianDay);
+        }
+      }
+    });
+  }
+}
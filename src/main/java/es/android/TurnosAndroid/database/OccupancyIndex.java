@@ -0,0 +1,213 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.format.Time;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.model.Pattern;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * Keeps one bit per Julian day telling whether calendarevents has something on that day, so asking which days of a month or a year have events
+ * is a few word operations instead of a scan of calendarevents. Days are grouped in words of 64 days, word n holding the days 64n to 64n + 63.
+ * <p/>
+ * Each word stores two masks: the days with a row pointing to an event and the days with any row at all. The second one tells which days
+ * override the patterns, so the pattern days can be added at query time without storing them.
+ */
+public class OccupancyIndex {
+  private static final int    DAYS_PER_WORD = 64;
+  private static final String WORD_QUERY    = "SELECT " + DBConstants.WORD + ", " + DBConstants.OCCUPIED + ", " + DBConstants.OVERRIDDEN +
+                                              " FROM " + DBConstants.OCCUPANCY_TABLE + " WHERE " + DBConstants.WORD + " BETWEEN ? AND ?";
+  // The event of a row is null when it has been deleted, the row still overrides the patterns but its day has no event
+  private static final String DAYS_QUERY    = "SELECT c." + DBConstants.DATE + ", e." + DBConstants.ID + " FROM " + DBConstants.CALENDAR_EVENTS_TABLE +
+                                              " c LEFT JOIN " + DBConstants.EVENTS_TABLE + " e ON c." + DBConstants.EVENT_ID + " = e." + DBConstants.ID +
+                                              " WHERE c." + DBConstants.DATE + " BETWEEN ? AND ?";
+
+  private OccupancyIndex() {
+  }
+
+  /**
+   * Marks the day of a new calendarevents row.
+   */
+  public static void addDay(SQLiteDatabase db, long date, long eventId) {
+    Batch batch = new Batch();
+    batch.addDay(date, eventId);
+    batch.apply(db);
+  }
+
+  /**
+   * Recomputes the words holding the given days from the rows that are currently in calendarevents. Used after rows have been removed, since a
+   * bit can only be cleared once no other row is left on its day.
+   */
+  public static void refreshDays(SQLiteDatabase db, HashSet<Integer> julianDays) {
+    HashSet<Integer> words = new HashSet<Integer>();
+    for (int julianDay : julianDays) {
+      words.add(julianDay / DAYS_PER_WORD);
+    }
+
+    String timezone = Time.getCurrentTimezone();
+    for (int word : words) {
+      int firstDay = word * DAYS_PER_WORD;
+      long start = JulianDay.toMillis(firstDay, timezone);
+      long end = JulianDay.toMillis(firstDay + DAYS_PER_WORD, timezone) - 1;
+
+      long occupied = 0;
+      long overridden = 0;
+      Cursor cursor = db.rawQuery(DAYS_QUERY, new String[]{String.valueOf(start), String.valueOf(end)});
+      try {
+        while (cursor.moveToNext()) {
+          int bit = JulianDay.fromMillis(cursor.getLong(0), timezone) - firstDay;
+          if (bit >= 0 && bit < DAYS_PER_WORD) {
+            overridden |= 1L << bit;
+            if (!cursor.isNull(1)) {
+              occupied |= 1L << bit;
+            }
+          }
+        }
+      } finally {
+        cursor.close();
+      }
+      writeWord(db, word, occupied, overridden);
+    }
+  }
+
+  /**
+   * Returns which days from startDay to startDay + numDays - 1 have events, including the days generated by the patterns. Bit i of the result
+   * (word i / 64, bit i % 64) is set when day startDay + i has events.
+   */
+  public static long[] getEventDays(SQLiteDatabase db, int startDay, int numDays) {
+    int firstWord = startDay / DAYS_PER_WORD;
+    int lastWord = (startDay + numDays - 1) / DAYS_PER_WORD;
+    int numWords = lastWord - firstWord + 1;
+    long[] occupied = new long[numWords];
+    long[] overridden = new long[numWords];
+
+    Cursor cursor = db.rawQuery(WORD_QUERY, new String[]{String.valueOf(firstWord), String.valueOf(lastWord)});
+    try {
+      while (cursor.moveToNext()) {
+        int index = cursor.getInt(0) - firstWord;
+        occupied[index] = cursor.getLong(1);
+        overridden[index] = cursor.getLong(2);
+      }
+    } finally {
+      cursor.close();
+    }
+
+    addPatternDays(db, firstWord, occupied, overridden);
+    return alignToDay(occupied, startDay - firstWord * DAYS_PER_WORD, numDays);
+  }
+
+  /**
+   * Copies the days of a bit set returned by {@link #getEventDays} into a boolean array, as many as fit in it.
+   */
+  public static void fillEventDays(long[] days, boolean[] eventDays) {
+    int numDays = Math.min(eventDays.length, days.length * DAYS_PER_WORD);
+    for (int i = 0; i < numDays; i++) {
+      eventDays[i] = (days[i / DAYS_PER_WORD] & (1L << (i % DAYS_PER_WORD))) != 0;
+    }
+  }
+
+  // Adds the pattern days, except the ones overridden by a calendarevents row
+  private static void addPatternDays(SQLiteDatabase db, int firstWord, long[] occupied, long[] overridden) {
+    Cursor cursor = db.query(DBConstants.PATTERNS_TABLE, DBConstants.PATTERNS_PROJECTION, null, null, null, null, null);
+    ArrayList<Pattern> patterns;
+    try {
+      patterns = new PatternMapper().mapAll(cursor);
+    } finally {
+      cursor.close();
+    }
+    if (patterns.isEmpty()) {
+      return;
+    }
+
+    int[] eventIds = new int[occupied.length * DAYS_PER_WORD];
+    for (Pattern pattern : patterns) {
+      pattern.expand(firstWord * DAYS_PER_WORD, eventIds);
+      for (int word = 0; word < occupied.length; word++) {
+        long patternDays = 0;
+        int offset = word * DAYS_PER_WORD;
+        for (int bit = 0; bit < DAYS_PER_WORD; bit++) {
+          if (eventIds[offset + bit] != Pattern.NO_EVENT) {
+            patternDays |= 1L << bit;
+          }
+        }
+        occupied[word] |= patternDays & ~overridden[word];
+      }
+    }
+  }
+
+  // Shifts the words so bit 0 is the day at the given offset of the first word
+  private static long[] alignToDay(long[] words, int offset, int numDays) {
+    long[] days = new long[(numDays + DAYS_PER_WORD - 1) / DAYS_PER_WORD];
+    for (int i = 0; i < days.length; i++) {
+      long word = words[i] >>> offset;
+      if (offset != 0 && i + 1 < words.length) {
+        word |= words[i + 1] << (DAYS_PER_WORD - offset);
+      }
+      days[i] = word;
+    }
+    int lastBits = numDays % DAYS_PER_WORD;
+    if (lastBits != 0) {
+      days[days.length - 1] &= (1L << lastBits) - 1;
+    }
+    return days;
+  }
+
+  private static void writeWord(SQLiteDatabase db, int word, long occupied, long overridden) {
+    if (overridden == 0) {
+      db.delete(DBConstants.OCCUPANCY_TABLE, DBConstants.WORD + "=?", new String[]{String.valueOf(word)});
+      return;
+    }
+    ContentValues values = new ContentValues();
+    values.put(DBConstants.WORD, word);
+    values.put(DBConstants.OCCUPIED, occupied);
+    values.put(DBConstants.OVERRIDDEN, overridden);
+    db.replace(DBConstants.OCCUPANCY_TABLE, null, values);
+  }
+
+  /**
+   * Collects the days of several new rows and writes each touched word only once.
+   */
+  public static class Batch {
+    private final HashMap<Integer, long[]> words;
+    private final String                   timezone;
+
+    public Batch() {
+      words = new HashMap<Integer, long[]>();
+      timezone = Time.getCurrentTimezone();
+    }
+
+    public void addDay(long date, long eventId) {
+      int julianDay = JulianDay.fromMillis(date, timezone);
+      int word = julianDay / DAYS_PER_WORD;
+      long bit = 1L << (julianDay % DAYS_PER_WORD);
+      long[] masks = words.get(word);
+      if (masks == null) {
+        masks = new long[2];
+        words.put(word, masks);
+      }
+      masks[1] |= bit;
+      if (eventId != Pattern.NO_EVENT) {
+        masks[0] |= bit;
+      }
+    }
+
+    public void apply(SQLiteDatabase db) {
+      for (Map.Entry<Integer, long[]> entry : words.entrySet()) {
+        String word = String.valueOf(entry.getKey());
+        long[] masks = entry.getValue();
+        db.execSQL("INSERT OR IGNORE INTO " + DBConstants.OCCUPANCY_TABLE + " (" + DBConstants.WORD + ", " + DBConstants.OCCUPIED + ", " +
+                   DBConstants.OVERRIDDEN + ") VALUES (?, 0, 0)", new Object[]{word});
+        db.execSQL("UPDATE " + DBConstants.OCCUPANCY_TABLE + " SET " + DBConstants.OCCUPIED + " = " + DBConstants.OCCUPIED + " | ?, " +
+                   DBConstants.OVERRIDDEN + " = " + DBConstants.OVERRIDDEN + " | ? WHERE " + DBConstants.WORD + " = ?",
+                   new Object[]{masks[0], masks[1], word});
+      }
+      words.clear();
+    }
+  }
+}
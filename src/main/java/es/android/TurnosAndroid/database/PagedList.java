@@ -0,0 +1,442 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * A table read in name order a page at a time, as a list scrolls, keeping only a window of {@link #MAX_PAGES} pages around the rows in use. Pages
+ * are found by key, the name and id of the last row of the previous page, so reading a page never reads the rows before it. The size of the list
+ * is the size of the table, positions out of the window have no row until their page is read.
+ * <p/>
+ * When the table changes, the window is read again from its first key. What changed is compared with what was there, so the listener is told
+ * which positions to bind again, and only has to redo the whole list when rows have been added, removed or moved.
+ * <p/>
+ * Must be used from the UI thread; pages are read in a background thread shared by every list.
+ */
+public abstract class PagedList<T> {
+  public static final  int     PAGE_SIZE         = 50;
+  public static final  int     MAX_PAGES         = 3;
+  // Reading the next page starts this many rows before the end of the window
+  private static final int     PREFETCH_DISTANCE = PAGE_SIZE / 4;
+  private static final int     AFTER             = 0;
+  private static final int     BEFORE            = 1;
+  private static final int     FROM              = 2;
+  private static Handler        workerHandler;
+  // One connection for every list, read in the worker thread
+  private static DatabaseHelper databaseHelper;
+  private final Context                context;
+  private final String                 table;
+  private final String                 columns;
+  // Used in the worker thread only
+  private final CursorMapper<T>        mapper;
+  private final Handler                mainHandler;
+  private final ContentObserver        observer;
+  private final Uri                    uri;
+  private       OnPagesChangedListener listener;
+  // The rows of the window as read, and as shown, which may differ with overlay
+  private       ArrayList<T>           loaded;
+  private       ArrayList<T>           shown;
+  // Position of the first row of the window, and rows in the table
+  private       int                    offset;
+  private       int                    count;
+  // Bumped on every reload, so a page read before it is dropped
+  private       int                    version;
+  private       boolean                loading;
+  private       boolean                reloading;
+  private       boolean                reloadAgain;
+  // The last position asked for out of the window, read once the window is loaded if it's still out, or -1
+  private       int                    missedPosition;
+
+  /**
+   * Called in the UI thread when the list has changed.
+   */
+  public interface OnPagesChangedListener {
+    /**
+     * @param changedPositions the positions whose row has changed, in no particular order, or null if rows have been added, removed or moved
+     */
+    public void onPagesChanged(int[] changedPositions);
+  }
+
+  /**
+   * @param table   the table to read, it must have the {@link DBConstants#NAME} and {@link DBConstants#ID} columns
+   * @param columns the columns to read, the ones the mapper reads
+   * @param uri     the uri the changes to the table are notified with
+   * @param mapper  turns each row into an item, used in the background thread only
+   */
+  protected PagedList(Context context, String table, String[] columns, Uri uri, CursorMapper<T> mapper) {
+    this.context = context.getApplicationContext();
+    this.table = table;
+    this.uri = uri;
+    this.mapper = mapper;
+    StringBuilder columnList = new StringBuilder();
+    for (String column : columns) {
+      if (columnList.length() > 0) {
+        columnList.append(", ");
+      }
+      columnList.append(column);
+    }
+    this.columns = columnList.toString();
+    mainHandler = new Handler(Looper.getMainLooper());
+    observer = new ContentObserver(mainHandler) {
+      @Override
+      public void onChange(boolean selfChange) {
+        reload();
+      }
+    };
+    loaded = new ArrayList<T>();
+    shown = loaded;
+    missedPosition = -1;
+    synchronized (PagedList.class) {
+      if (workerHandler == null) {
+        HandlerThread thread = new HandlerThread(PagedList.class.getSimpleName(), Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        workerHandler = new Handler(thread.getLooper());
+        databaseHelper = new DatabaseHelper(this.context);
+      }
+    }
+  }
+
+  protected abstract long getId(T item);
+
+  protected abstract String getName(T item);
+
+  /**
+   * Returns whether two versions of the same row look the same, so the position doesn't need to be bound again.
+   */
+  protected abstract boolean isSameContent(T item, T other);
+
+  /**
+   * Returns the rows of the window as they must be shown, given the ones read. Rows may be changed, removed or added; the positions after the
+   * window move by as many as were added or removed.
+   */
+  protected ArrayList<T> overlay(ArrayList<T> loadedRows) {
+    return loadedRows;
+  }
+
+  public void setOnPagesChangedListener(OnPagesChangedListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Starts following the changes to the table, and reads the window again in case something changed while stopped.
+   */
+  public void start() {
+    context.getContentResolver().registerContentObserver(uri, true, observer);
+    reload();
+  }
+
+  public void stop() {
+    context.getContentResolver().unregisterContentObserver(observer);
+  }
+
+  public int size() {
+    return count + shown.size() - loaded.size();
+  }
+
+  /**
+   * Returns the row at a position, or null if its page hasn't been read yet, in which case it is read and the listener told when it is. Reading
+   * near the end of the window reads the page after it in advance.
+   */
+  public T get(int position) {
+    int index = position - offset;
+    if (index < 0 || index >= shown.size()) {
+      // The page read may not have it, or be dropped, or there may be one being read already
+      missedPosition = position;
+    }
+    if (!loading && !reloading) {
+      if (loaded.isEmpty() || index < -PAGE_SIZE || index >= shown.size() + PAGE_SIZE) {
+        loadWindowAt(position);
+      } else if (index < 0 || (index < PREFETCH_DISTANCE && offset > 0)) {
+        loadPage(BEFORE);
+      } else if (index >= shown.size() || (index >= shown.size() - PREFETCH_DISTANCE && offset + loaded.size() < count)) {
+        loadPage(AFTER);
+      }
+    }
+    return index >= 0 && index < shown.size() ? shown.get(index) : null;
+  }
+
+  /**
+   * Applies {@link #overlay} again to the rows read, for when what it adds has changed.
+   */
+  public void refreshOverlay() {
+    publish(offset, count, loaded);
+  }
+
+  /**
+   * Reads the window again from its first key, as many rows as it has, or the first page if it has none.
+   */
+  public void reload() {
+    version++;
+    if (reloading) {
+      reloadAgain = true;
+      return;
+    }
+    reloading = true;
+    final int requestVersion = version;
+    final T first = loaded.isEmpty() ? null : loaded.get(0);
+    final String firstName = first == null ? null : getName(first);
+    final long firstId = first == null ? 0 : getId(first);
+    final int numRows = Math.max(loaded.size(), PAGE_SIZE);
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        SQLiteDatabase db = databaseHelper.getReadableDatabase();
+        final int newCount = queryCount(db);
+        final int newOffset = first == null ? 0 : queryCountBefore(db, firstName, firstId);
+        final ArrayList<T> rows = first == null ? queryAt(db, 0, numRows) : queryPage(db, FROM, firstName, firstId, numRows);
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            reloading = false;
+            if (reloadAgain) {
+              reloadAgain = false;
+              reload();
+            } else if (requestVersion == version) {
+              publish(newOffset, newCount, rows);
+            }
+            loadMissed();
+          }
+        });
+      }
+    });
+  }
+
+  // Reads the page before or after the window
+  private void loadPage(final int direction) {
+    loading = true;
+    final int requestVersion = version;
+    T key = direction == AFTER ? loaded.get(loaded.size() - 1) : loaded.get(0);
+    final String keyName = getName(key);
+    final long keyId = getId(key);
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        final ArrayList<T> page = queryPage(databaseHelper.getReadableDatabase(), direction, keyName, keyId, PAGE_SIZE);
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            loading = false;
+            if (requestVersion == version) {
+              addPage(direction, page);
+            }
+            loadMissed();
+          }
+        });
+      }
+    });
+  }
+
+  // Reads the page holding a position far from the window, by offset, and makes it the window
+  private void loadWindowAt(int position) {
+    loading = true;
+    final int requestVersion = version;
+    final int pageOffset = Math.max(Math.min(position, count - 1), 0) / PAGE_SIZE * PAGE_SIZE;
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        final ArrayList<T> page = queryAt(databaseHelper.getReadableDatabase(), pageOffset, PAGE_SIZE);
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            loading = false;
+            if (requestVersion == version) {
+              publish(pageOffset, count, page);
+            }
+            loadMissed();
+          }
+        });
+      }
+    });
+  }
+
+  // The listener is only told about the positions of the windows, a position asked for out of them would stay with no row
+  private void loadMissed() {
+    int position = missedPosition;
+    if (position < 0 || loading || reloading) {
+      return;
+    }
+    missedPosition = -1;
+    if (position < size()) {
+      get(position);
+    }
+  }
+
+  private void addPage(int direction, ArrayList<T> page) {
+    ArrayList<T> rows = new ArrayList<T>(loaded.size() + page.size());
+    int newOffset = offset;
+    int newCount = count;
+    if (direction == AFTER) {
+      rows.addAll(loaded);
+      rows.addAll(page);
+      if (page.size() < PAGE_SIZE) {
+        // The end of the table, rows were removed since it was counted
+        newCount = offset + rows.size();
+      }
+      while (rows.size() > MAX_PAGES * PAGE_SIZE) {
+        rows.subList(0, PAGE_SIZE).clear();
+        newOffset += PAGE_SIZE;
+      }
+    } else {
+      if (page.size() != Math.min(PAGE_SIZE, offset)) {
+        // Rows were added or removed before the window, it doesn't start where it did
+        reload();
+        return;
+      }
+      rows.addAll(page);
+      rows.addAll(loaded);
+      newOffset -= page.size();
+      while (rows.size() > MAX_PAGES * PAGE_SIZE) {
+        rows.subList(rows.size() - PAGE_SIZE, rows.size()).clear();
+      }
+    }
+    publish(newOffset, newCount, rows);
+  }
+
+  // Replaces the window, telling the listener what changed
+  private void publish(int newOffset, int newCount, ArrayList<T> newLoaded) {
+    ArrayList<T> newShown = overlay(newLoaded);
+    int[] changedPositions = diff(newOffset, newCount + newShown.size() - newLoaded.size(), newShown);
+    offset = newOffset;
+    count = newCount;
+    loaded = newLoaded;
+    shown = newShown;
+    if (listener != null && (changedPositions == null || changedPositions.length > 0)) {
+      listener.onPagesChanged(changedPositions);
+    }
+  }
+
+  // The positions whose row is not the same in the new window, or null if the rows don't keep their positions
+  private int[] diff(int newOffset, int newSize, ArrayList<T> newShown) {
+    if (newSize != size()) {
+      return null;
+    }
+
+    int[] changed = new int[shown.size() + newShown.size()];
+    int numChanged = 0;
+    for (int i = 0; i < newShown.size(); i++) {
+      int oldIndex = newOffset + i - offset;
+      T row = newShown.get(i);
+      T oldRow = oldIndex >= 0 && oldIndex < shown.size() ? shown.get(oldIndex) : null;
+      if (oldRow != null && getId(oldRow) != getId(row)) {
+        return null;
+      }
+      if (oldRow == null || !isSameContent(oldRow, row)) {
+        changed[numChanged++] = newOffset + i;
+      }
+    }
+    // The rows that are out of the new window, they have no row now
+    for (int i = 0; i < shown.size(); i++) {
+      int newIndex = offset + i - newOffset;
+      if (newIndex < 0 || newIndex >= newShown.size()) {
+        changed[numChanged++] = offset + i;
+      }
+    }
+
+    int[] result = new int[numChanged];
+    System.arraycopy(changed, 0, result, 0, numChanged);
+    return result;
+  }
+
+  // In the worker thread
+  private int queryCount(SQLiteDatabase db) {
+    return readCount(db.rawQuery("SELECT COUNT(*) FROM " + table, null));
+  }
+
+  // In the worker thread. Counts the rows before a key, the position of the key in the list.
+  private int queryCountBefore(SQLiteDatabase db, String name, long id) {
+    int rows = 0;
+    for (KeyRange range : getKeyRanges(BEFORE, name, id)) {
+      rows += readCount(db.rawQuery("SELECT COUNT(*) FROM " + table + " WHERE " + range.selection, range.args));
+    }
+    return rows;
+  }
+
+  // In the worker thread. Reads the rows after, before or from a key, in list order.
+  private ArrayList<T> queryPage(SQLiteDatabase db, int direction, String name, long id, int numRows) {
+    ArrayList<KeyRange> ranges = getKeyRanges(direction, name, id);
+    String order = direction == BEFORE ? " DESC" : " ASC";
+    if (direction == BEFORE) {
+      // Read from the key backwards
+      Collections.reverse(ranges);
+    }
+    ArrayList<T> rows = new ArrayList<T>(numRows);
+    for (KeyRange range : ranges) {
+      if (rows.size() >= numRows) {
+        break;
+      }
+      String sql = "SELECT " + columns + " FROM " + table + " WHERE " + range.selection + " ORDER BY " + DBConstants.NAME + order + ", " +
+                   DBConstants.ID + order + " LIMIT " + (numRows - rows.size());
+      rows.addAll(read(db.rawQuery(sql, range.args)));
+    }
+    if (direction == BEFORE) {
+      Collections.reverse(rows);
+    }
+    return rows;
+  }
+
+  // In the worker thread. Reads the rows from a position, for the pages that are not next to any key.
+  private ArrayList<T> queryAt(SQLiteDatabase db, int position, int numRows) {
+    String sql = "SELECT " + columns + " FROM " + table + " ORDER BY " + DBConstants.NAME + ", " + DBConstants.ID + " LIMIT " + numRows + " OFFSET " +
+                 position;
+    return read(db.rawQuery(sql, null));
+  }
+
+  private static int readCount(Cursor cursor) {
+    try {
+      return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+    } finally {
+      cursor.close();
+    }
+  }
+
+  private ArrayList<T> read(Cursor cursor) {
+    try {
+      return mapper.mapAll(cursor);
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * The rows after, before or from (name, id), as ranges of the (name, _id) index in list order, so SQLite seeks to the key instead of reading
+   * every row before it. Each range starts with a bound on the name alone, the one the index can seek on. SQLite sorts null names first and never
+   * matches them with a comparison, so the rows with no name are a range of their own.
+   */
+  private static ArrayList<KeyRange> getKeyRanges(int direction, String name, long id) {
+    String idOperator = direction == AFTER ? " > ?" : (direction == BEFORE ? " < ?" : " >= ?");
+    String idArg = String.valueOf(id);
+    ArrayList<KeyRange> ranges = new ArrayList<KeyRange>(2);
+    if (name == null) {
+      ranges.add(new KeyRange(DBConstants.NAME + " IS NULL AND " + DBConstants.ID + idOperator, idArg));
+      if (direction != BEFORE) {
+        ranges.add(new KeyRange(DBConstants.NAME + " IS NOT NULL"));
+      }
+    } else if (direction == BEFORE) {
+      ranges.add(new KeyRange(DBConstants.NAME + " IS NULL"));
+      ranges.add(new KeyRange(DBConstants.NAME + " <= ? AND (" + DBConstants.NAME + " < ? OR " + DBConstants.ID + idOperator + ")", name, name, idArg));
+    } else {
+      ranges.add(new KeyRange(DBConstants.NAME + " >= ? AND (" + DBConstants.NAME + " > ? OR " + DBConstants.ID + idOperator + ")", name, name, idArg));
+    }
+    return ranges;
+  }
+
+  private static final class KeyRange {
+    private final String   selection;
+    private final String[] args;
+
+    private KeyRange(String selection, String... args) {
+      this.selection = selection;
+      this.args = args;
+    }
+  }
+}
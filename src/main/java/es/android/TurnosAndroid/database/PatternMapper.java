@@ -0,0 +1,32 @@
+package es.android.TurnosAndroid.database;
+
+import android.database.Cursor;
+import es.android.TurnosAndroid.model.Pattern;
+
+/**
+ * Reads {@link Pattern}s from a cursor with the {@link DBConstants#PATTERNS_PROJECTION} columns.
+ */
+public class PatternMapper extends CursorMapper<Pattern> {
+  private int idColumn;
+  private int nameColumn;
+  private int anchorDayColumn;
+  private int cycleColumn;
+
+  @Override
+  protected void bindColumns(Cursor cursor) {
+    idColumn = cursor.getColumnIndexOrThrow(DBConstants.ID);
+    nameColumn = cursor.getColumnIndexOrThrow(DBConstants.NAME);
+    anchorDayColumn = cursor.getColumnIndexOrThrow(DBConstants.ANCHOR_DAY);
+    cycleColumn = cursor.getColumnIndexOrThrow(DBConstants.CYCLE);
+  }
+
+  @Override
+  protected Pattern mapRow(Cursor cursor) {
+    Pattern pattern = new Pattern();
+    pattern.setId(cursor.getLong(idColumn));
+    pattern.setName(cursor.getString(nameColumn));
+    pattern.setAnchorDay(cursor.getInt(anchorDayColumn));
+    pattern.setCycle(Pattern.parseCycle(cursor.getString(cycleColumn)));
+    return pattern;
+  }
+}
@@ -0,0 +1,32 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.Context;
+import android.text.TextUtils;
+import es.android.TurnosAndroid.model.Pattern;
+
+import java.util.Arrays;
+
+/**
+ * The patterns table in name order, a window of pages at a time.
+ */
+public class PatternPagedList extends PagedList<Pattern> {
+  public PatternPagedList(Context context) {
+    super(context, DBConstants.PATTERNS_TABLE, DBConstants.PATTERNS_PROJECTION, CalendarProvider.PATTERNS_URI, new PatternMapper());
+  }
+
+  @Override
+  protected long getId(Pattern pattern) {
+    return pattern.getId();
+  }
+
+  @Override
+  protected String getName(Pattern pattern) {
+    return pattern.getName();
+  }
+
+  @Override
+  protected boolean isSameContent(Pattern pattern, Pattern other) {
+    return TextUtils.equals(pattern.getName(), other.getName()) && pattern.getAnchorDay() == other.getAnchorDay() &&
+           Arrays.equals(pattern.getCycle(), other.getCycle());
+  }
+}
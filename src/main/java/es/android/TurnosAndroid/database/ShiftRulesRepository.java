@@ -0,0 +1,179 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.text.format.Time;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.model.EventBuffer;
+import es.android.TurnosAndroid.model.ShiftRules;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the shifts of the range of days last asked for checked against the {@link ShiftRules}, in a background thread. When some days change only
+ * their shifts are taken out and put back, and only the shifts next to them are checked again; a change that may touch any day, as a roster
+ * imported at once, checks the whole range again.
+ */
+public class ShiftRulesRepository implements EventsRepository.OnDaysChangedListener {
+  private static final String TAG = ShiftRulesRepository.class.getSimpleName();
+  private static ShiftRulesRepository instance;
+  private final    Context                                context;
+  private final    DatabaseHelper                         databaseHelper;
+  private final    Handler                                workerHandler;
+  private final    Handler                                mainHandler;
+  private final    ArrayList<OnViolationsChangedListener> listeners;
+  // Used in the worker thread only
+  private final    ShiftRules                             rules;
+  private          int                                    firstJulianDay;
+  private          int                                    numDays;
+  // The last published result, null until the range asked for has been checked
+  private volatile Result                                 result;
+
+  /**
+   * Called in the UI thread when the shifts of a range have been checked, or have changed.
+   */
+  public interface OnViolationsChangedListener {
+    public void onViolationsChanged(int firstJulianDay, int numDays, ArrayList<ShiftRules.Violation> violations);
+  }
+
+  private static final class Result {
+    private final int                             firstJulianDay;
+    private final int                             numDays;
+    private final ArrayList<ShiftRules.Violation> violations;
+
+    private Result(int firstJulianDay, int numDays, ArrayList<ShiftRules.Violation> violations) {
+      this.firstJulianDay = firstJulianDay;
+      this.numDays = numDays;
+      this.violations = violations;
+    }
+  }
+
+  private ShiftRulesRepository(Context context) {
+    this.context = context;
+    databaseHelper = new DatabaseHelper(context);
+    HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+    thread.start();
+    workerHandler = new Handler(thread.getLooper());
+    mainHandler = new Handler(Looper.getMainLooper());
+    listeners = new ArrayList<OnViolationsChangedListener>();
+    rules = new ShiftRules();
+    EventsRepository.getInstance(context).addListener(this);
+  }
+
+  /**
+   * Must be called from the UI thread the first time, it registers with the {@link EventsRepository}.
+   */
+  public static synchronized ShiftRulesRepository getInstance(Context context) {
+    if (instance == null) {
+      instance = new ShiftRulesRepository(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the violations of the rules in a range if it is checked, or null after asking for it; the listeners get them once it is. A violation is
+   * in the range when its second shift is, the first one can be on the day before.
+   */
+  public ArrayList<ShiftRules.Violation> getViolations(final int firstJulianDay, final int numDays) {
+    Result current = result;
+    if (current != null && current.firstJulianDay == firstJulianDay && current.numDays == numDays) {
+      return current.violations;
+    }
+
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        Result current = result;
+        if (current != null && current.firstJulianDay == firstJulianDay && current.numDays == numDays) {
+          return;
+        }
+        ShiftRulesRepository.this.firstJulianDay = firstJulianDay;
+        ShiftRulesRepository.this.numDays = numDays;
+        checkAll();
+      }
+    });
+    return null;
+  }
+
+  /**
+   * Must be called from the UI thread, as well as {@link #removeListener}.
+   */
+  public void addListener(OnViolationsChangedListener listener) {
+    if (!listeners.contains(listener)) {
+      listeners.add(listener);
+    }
+  }
+
+  public void removeListener(OnViolationsChangedListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void onDaysChanged(final int firstChangedDay, final int lastChangedDay) {
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        if (numDays == 0) {
+          return;
+        }
+        // The day before the range is kept too, for the pairs starting on it
+        int firstDay = Math.max(firstChangedDay, firstJulianDay - 1);
+        int lastDay = Math.min(lastChangedDay, firstJulianDay + numDays - 1);
+        if (firstDay > lastDay) {
+          return;
+        }
+        if (firstDay == firstJulianDay - 1 && lastDay == firstJulianDay + numDays - 1) {
+          checkAll();
+          return;
+        }
+        rules.removeDays(firstDay, lastDay);
+        rules.addAll(loadDays(firstDay, lastDay), firstDay, lastDay - firstDay + 1);
+        publish();
+      }
+    });
+  }
+
+  // In the worker thread
+  private void checkAll() {
+    rules.clear();
+    rules.addAll(loadDays(firstJulianDay - 1, firstJulianDay + numDays - 1), firstJulianDay - 1, numDays + 1);
+    publish();
+  }
+
+  // In the worker thread
+  private EventBuffer loadDays(int firstDay, int lastDay) {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+    String timezone = Time.getCurrentTimezone();
+    long start = JulianDay.toMillis(firstDay, timezone);
+    long end = JulianDay.toMillis(lastDay + 1, timezone) - 1;
+
+    EventBuffer events;
+    Cursor cursor = CalendarEventsQuery.query(db, start, end);
+    try {
+      events = EventBuffer.fromCursor(cursor, timezone, EventCatalog.getInstance(context));
+    } finally {
+      cursor.close();
+    }
+    events.indexDays(firstDay, lastDay - firstDay + 1);
+    return events;
+  }
+
+  // In the worker thread
+  private void publish() {
+    final Result newResult = new Result(firstJulianDay, numDays, rules.getViolations(firstJulianDay, firstJulianDay + numDays - 1));
+    result = newResult;
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        for (OnViolationsChangedListener listener : new ArrayList<OnViolationsChangedListener>(listeners)) {
+          listener.onViolationsChanged(newResult.firstJulianDay, newResult.numDays, newResult.violations);
+        }
+      }
+    });
+  }
+}
@@ -0,0 +1,146 @@
+package es.android.TurnosAndroid.database;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.text.format.Time;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.model.EventBuffer;
+import es.android.TurnosAndroid.model.ShiftStatistics;
+
+import java.util.ArrayList;
+
+/**
+ * Keeps the {@link ShiftStatistics} of the range of days last asked for, built in a background thread from the same days the calendar shows,
+ * patterns included. When some days change only those are read again, and the sums after them moved, instead of reading the whole range.
+ */
+public class StatisticsRepository implements EventsRepository.OnDaysChangedListener {
+  private static final String TAG = StatisticsRepository.class.getSimpleName();
+  private static StatisticsRepository instance;
+  private final    Context                                context;
+  private final    DatabaseHelper                         databaseHelper;
+  private final    Handler                                workerHandler;
+  private final    Handler                                mainHandler;
+  private final    ArrayList<OnStatisticsChangedListener> listeners;
+  // Written in the worker thread only
+  private volatile ShiftStatistics                        statistics;
+
+  /**
+   * Called in the UI thread when the statistics of a range have been built, or have changed.
+   */
+  public interface OnStatisticsChangedListener {
+    public void onStatisticsChanged(ShiftStatistics statistics);
+  }
+
+  private StatisticsRepository(Context context) {
+    this.context = context;
+    databaseHelper = new DatabaseHelper(context);
+    HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+    thread.start();
+    workerHandler = new Handler(thread.getLooper());
+    mainHandler = new Handler(Looper.getMainLooper());
+    listeners = new ArrayList<OnStatisticsChangedListener>();
+    EventsRepository.getInstance(context).addListener(this);
+  }
+
+  /**
+   * Must be called from the UI thread the first time, it registers with the {@link EventsRepository}.
+   */
+  public static synchronized StatisticsRepository getInstance(Context context) {
+    if (instance == null) {
+      instance = new StatisticsRepository(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the statistics of a range if they are built, or null after asking for them; the listeners get them once they are.
+   */
+  public ShiftStatistics getStatistics(final int firstJulianDay, final int numDays) {
+    ShiftStatistics current = statistics;
+    if (current != null && current.getFirstJulianDay() == firstJulianDay && current.getNumDays() == numDays) {
+      return current;
+    }
+
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        ShiftStatistics current = statistics;
+        if (current != null && current.getFirstJulianDay() == firstJulianDay && current.getNumDays() == numDays) {
+          return;
+        }
+        EventBuffer events = loadDays(firstJulianDay, firstJulianDay + numDays - 1);
+        publish(ShiftStatistics.build(firstJulianDay, numDays, events));
+      }
+    });
+    return null;
+  }
+
+  /**
+   * Must be called from the UI thread, as well as {@link #removeListener}.
+   */
+  public void addListener(OnStatisticsChangedListener listener) {
+    if (!listeners.contains(listener)) {
+      listeners.add(listener);
+    }
+  }
+
+  public void removeListener(OnStatisticsChangedListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void onDaysChanged(final int firstJulianDay, final int lastJulianDay) {
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        ShiftStatistics current = statistics;
+        if (current == null) {
+          return;
+        }
+        // Only the changed days that are summed here, all of them for a change that may touch any day
+        int firstDay = Math.max(firstJulianDay, current.getFirstJulianDay());
+        int lastDay = Math.min(lastJulianDay, current.getFirstJulianDay() + current.getNumDays() - 1);
+        if (firstDay > lastDay) {
+          return;
+        }
+        publish(current.withDays(firstDay, lastDay, loadDays(firstDay, lastDay)));
+      }
+    });
+  }
+
+  // In the worker thread
+  private EventBuffer loadDays(int firstJulianDay, int lastJulianDay) {
+    SQLiteDatabase db = databaseHelper.getReadableDatabase();
+    String timezone = Time.getCurrentTimezone();
+    long start = JulianDay.toMillis(firstJulianDay, timezone);
+    long end = JulianDay.toMillis(lastJulianDay + 1, timezone) - 1;
+
+    EventBuffer events;
+    Cursor cursor = CalendarEventsQuery.query(db, start, end);
+    try {
+      events = EventBuffer.fromCursor(cursor, timezone, EventCatalog.getInstance(context));
+    } finally {
+      cursor.close();
+    }
+    events.indexDays(firstJulianDay, lastJulianDay - firstJulianDay + 1);
+    return events;
+  }
+
+  // In the worker thread
+  private void publish(final ShiftStatistics newStatistics) {
+    statistics = newStatistics;
+    mainHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        for (OnStatisticsChangedListener listener : new ArrayList<OnStatisticsChangedListener>(listeners)) {
+          listener.onStatisticsChanged(newStatistics);
+        }
+      }
+    });
+  }
+}
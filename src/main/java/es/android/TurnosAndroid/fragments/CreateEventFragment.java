@@ -1,9 +1,9 @@
 package es.android.TurnosAndroid.fragments;
 
-import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.graphics.Color;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentTransaction;
@@ -20,6 +20,7 @@ import es.android.TurnosAndroid.R;
 import es.android.TurnosAndroid.colorpicker.ColorPickerDialog;
 import es.android.TurnosAndroid.database.CalendarProvider;
 import es.android.TurnosAndroid.database.DBConstants;
+import es.android.TurnosAndroid.database.EventWriter;
 
 /**
  * Date: 19.12.13
@@ -75,9 +76,10 @@ public class CreateEventFragment extends Fragment implements ColorPickerDialog.O
     deleteEvent();
   }
 
+  // The events are written in the background, the lists show them right away and the toasts come once they are committed
   private void saveEvent() {
     if (getActivity() != null) {
-      ContentResolver contentResolver = getActivity().getApplicationContext().getContentResolver();
+      final Context context = getActivity().getApplicationContext();
       ContentValues contentValues = new ContentValues();
       contentValues.put(DBConstants.NAME, name.getText().toString());
       contentValues.put(DBConstants.DESCRIPTION, description.getText().toString());
@@ -85,19 +87,26 @@ public class CreateEventFragment extends Fragment implements ColorPickerDialog.O
       contentValues.put(DBConstants.DURATION, Long.valueOf(duration.getText().toString()));
       contentValues.put(DBConstants.LOCATION, location.getText().toString());
       contentValues.put(DBConstants.COLOR, colorValue);
-      Uri eventUri = contentResolver.insert(CalendarProvider.EVENTS_URI, contentValues);
+      EventWriter.getInstance(context).insertEvent(contentValues, new EventWriter.OnWriteListener() {
+        @Override
+        public void onWriteComplete(long id, int count) {
+          String message = count > 0 ? ContentUris.withAppendedId(CalendarProvider.EVENTS_URI, id).toString() : "Failed to save the event";
+          Toast.makeText(context, message, Toast.LENGTH_SHORT).show();
+        }
+      });
       ((MainActivity) getActivity()).addMyEventsFragment();
-      Toast.makeText(getActivity().getApplicationContext(), eventUri.toString(), Toast.LENGTH_SHORT).show();
     }
   }
 
   private void deleteEvent() {
     if (getActivity() != null) {
-      ContentResolver contentResolver = getActivity().getApplicationContext().getContentResolver();
-      String where = DBConstants.ID + "=?";
-      String[] selectionArgs = new String[]{"2"};
-      int rowsDeleted = contentResolver.delete(CalendarProvider.EVENTS_URI, where, selectionArgs);
-      Toast.makeText(getActivity().getApplicationContext(), "Rows deleted: " + rowsDeleted, Toast.LENGTH_SHORT).show();
+      final Context context = getActivity().getApplicationContext();
+      EventWriter.getInstance(context).deleteEvent(2, new EventWriter.OnWriteListener() {
+        @Override
+        public void onWriteComplete(long id, int count) {
+          Toast.makeText(context, "Rows deleted: " + Math.max(count, 0), Toast.LENGTH_SHORT).show();
+        }
+      });
     }
   }
 
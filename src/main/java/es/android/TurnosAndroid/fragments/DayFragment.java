@@ -30,6 +30,7 @@ import android.widget.ViewSwitcher;
 import es.android.TurnosAndroid.CustomApplication;
 import es.android.TurnosAndroid.EventHandler;
 import es.android.TurnosAndroid.R;
+import es.android.TurnosAndroid.database.EventsRepository;
 import es.android.TurnosAndroid.helpers.TimeZoneUtils;
 import es.android.TurnosAndroid.model.Event;
 import es.android.TurnosAndroid.model.EventInfo;
@@ -40,7 +41,7 @@ import es.android.TurnosAndroid.views.day.DayView;
 /**
  * This is the base class for Day and Week Activities.
  */
-public class DayFragment extends Fragment implements EventHandler, ViewSwitcher.ViewFactory {
+public class DayFragment extends Fragment implements EventHandler, ViewSwitcher.ViewFactory, EventsRepository.OnDaysChangedListener {
   public static final    String   TAG                     = DayFragment.class.getSimpleName();
   public static final    String   TIME_MILLIS             = "time_millis";
   public static final    String   NUM_OF_DAYS             = "num_of_days";
@@ -127,7 +128,8 @@ public class DayFragment extends Fragment implements EventHandler, ViewSwitcher.
   @Override
   public void onResume() {
     super.onResume();
-//    eventLoader.startBackgroundThread();
+    eventLoader.startBackgroundThread();
+    EventsRepository.getInstance(getActivity()).addListener(this);
     timeZoneUpdater.run();
     eventsChanged();
     DayView view = (DayView) viewSwitcher.getCurrentView();
@@ -156,7 +158,8 @@ public class DayFragment extends Fragment implements EventHandler, ViewSwitcher.
     view.cleanup();
     view = (DayView) viewSwitcher.getNextView();
     view.cleanup();
-//    eventLoader.stopBackgroundThread();
+    eventLoader.stopBackgroundThread();
+    EventsRepository.getInstance(getActivity()).removeListener(this);
 
     // Stop events cross-fade animation
     view.stopEventsAnimation();
@@ -220,6 +223,22 @@ public class DayFragment extends Fragment implements EventHandler, ViewSwitcher.
 
   @Override
   public void eventsChanged() {
+    if (eventLoader != null) {
+      eventLoader.clearCache();
+    }
+    reloadViews();
+  }
+
+  /**
+   * Drops only the changed days from the loader cache, the rest of the range is still valid.
+   */
+  @Override
+  public void onDaysChanged(int firstJulianDay, int lastJulianDay) {
+    eventLoader.evictDays(firstJulianDay, lastJulianDay);
+    reloadViews();
+  }
+
+  private void reloadViews() {
     if (viewSwitcher != null) {
       DayView view = (DayView) viewSwitcher.getCurrentView();
       view.clearCachedEvents();
@@ -3,7 +3,6 @@ package es.android.TurnosAndroid.fragments;
 import android.content.ContentUris;
 import android.content.Context;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.database.DataSetObserver;
 import android.net.Uri;
 import android.os.Bundle;
@@ -24,10 +23,10 @@ import android.widget.TextView;
 import es.android.TurnosAndroid.*;
 import es.android.TurnosAndroid.controllers.CalendarController;
 import es.android.TurnosAndroid.database.CalendarProvider;
+import es.android.TurnosAndroid.database.EventsRepository;
 import es.android.TurnosAndroid.helpers.TimeZoneUtils;
 import es.android.TurnosAndroid.helpers.Utils;
-import es.android.TurnosAndroid.model.CalendarEvent;
-import es.android.TurnosAndroid.model.Event;
+import es.android.TurnosAndroid.model.EventBuffer;
 import es.android.TurnosAndroid.model.EventInfo;
 import es.android.TurnosAndroid.model.EventType;
 import es.android.TurnosAndroid.requests.CalendarEventsLoader;
@@ -43,7 +42,8 @@ import java.util.*;
  * This displays a titled list of weeks with selectable days. It can be configured to display the week number, start the week on a given day, show a reduced number of days, or display an
  * arbitrary number of weeks at a time. By overriding methods and changing variables this fragment can be customized to easily display a month selection component in a given style.
  */
-public class MonthFragment extends ListFragment implements EventHandler, LoaderManager.LoaderCallbacks, OnScrollListener, OnTouchListener, MonthActionBarInterface {
+public class MonthFragment extends ListFragment implements EventHandler, LoaderManager.LoaderCallbacks, OnScrollListener, OnTouchListener, MonthActionBarInterface,
+                                                           EventsRepository.OnDaysChangedListener {
   public static final  String          TAG                                 = MonthFragment.class.getSimpleName();
   public static final  int             DAYS_PER_WEEK                       = 7;
   public static final  String          KEY_INITIAL_TIME                    = "initial_time";
@@ -53,10 +53,10 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
   // The minimum time between requeries of the data if the db is changing
   private static final int             LOADER_THROTTLE_DELAY               = 500;
   private static final int             NUM_WEEKS                           = 6;
+  // Days loaded before and after the visible weeks, so short flings don't need a new load
+  private static final int             PREFETCH_DAYS                       = NUM_WEEKS * 7;
   public static        int             LIST_TOP_OFFSET                     = -1;  // so that the top line will be under the separator
   private static       int             MIN_WEEK_HEIGHT_TO_CONSIDER_VISIBLE = 12;
-  private static       StringBuilder   mSB                                 = new StringBuilder(50);
-  private static       Formatter       mF                                  = new Formatter(mSB, Locale.getDefault());
   private final        Runnable        timeZoneUpdater                     = new Runnable() {
     @Override
     public void run() {
@@ -77,12 +77,17 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
     @Override
     public void run() {
       if (shouldLoad && cursorLoader != null) {
+        // The weeks on screen came with the last load
+        if (isVisibleRangeLoaded()) {
+          return;
+        }
+
         // Stop any previous loads while we update the uri
         stopLoader();
 
         // Start the loader again
         eventUri = updateUri();
-//        cursorLoader.setUri(eventUri);
+        cursorLoader.setDayRange(firstLoadedMillis, lastLoadedMillis);
         cursorLoader.startLoading();
         cursorLoader.onContentChanged();
       }
@@ -127,6 +132,10 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
   private boolean              userScrolled;
   private int                  firstLoadedJulianDay;
   private int                  lastLoadedJulianDay;
+  private long                 firstLoadedMillis;
+  private long                 lastLoadedMillis;
+  private int                  deliveredFirstJulianDay;
+  private int                  deliveredLastJulianDay = -1;
   private Time                 selectedDay;
   private MonthAdapter         adapter;
   private MonthListView        listView;
@@ -258,12 +267,14 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
     super.onResume();
 //    setUpAdapter();
     doResumeUpdates();
+    EventsRepository.getInstance(context).addListener(this);
   }
 
   @Override
   public void onPause() {
     super.onPause();
     handler.removeCallbacks(updateAtMidnight);
+    EventsRepository.getInstance(context).removeListener(this);
   }
 
   private void setUpHeader() {
@@ -339,14 +350,10 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
 
   @Override
   public Loader onCreateLoader(int id, Bundle args) {
-//    firstLoadedJulianDay = Time.getJulianDay(selectedDay.toMillis(true), selectedDay.gmtoff) - (NUM_WEEKS * 7 / 2);
-//    eventUri = updateUri();
-
-    GregorianCalendar initialDay = new GregorianCalendar();
-    GregorianCalendar finalDay = new GregorianCalendar();
-    initialDay.set(2013, Calendar.JANUARY, 1);
-    finalDay.set(2013, Calendar.DECEMBER, 31);
-    CalendarEventsLoader calendarEventsLoader = new CalendarEventsLoader(getActivity().getApplicationContext(), initialDay.getTimeInMillis(), finalDay.getTimeInMillis());
+    firstLoadedJulianDay = Time.getJulianDay(selectedDay.toMillis(true), selectedDay.gmtoff) - (NUM_WEEKS * 7 / 2) - PREFETCH_DAYS;
+    eventUri = updateUri();
+
+    CalendarEventsLoader calendarEventsLoader = new CalendarEventsLoader(getActivity().getApplicationContext(), firstLoadedMillis, lastLoadedMillis);
     calendarEventsLoader.setUpdateThrottle(LOADER_THROTTLE_DELAY);
     return calendarEventsLoader;
   }
@@ -362,9 +369,21 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
 //      // We've started a new query since this loader ran so ignore the result
 //      return;
 //    }
-    ArrayList<CalendarEvent> calendarEvents = Event.getCalendarEvents((Cursor) data);
+    EventBuffer events = (EventBuffer) data;
 //    ArrayList<Event> events = Event.buildEventsFromCursor(data, context, firstLoadedJulianDay, lastLoadedJulianDay);
-    adapter.setEvents(firstLoadedJulianDay, lastLoadedJulianDay - firstLoadedJulianDay + 1, calendarEvents);
+    int numDays = lastLoadedJulianDay - firstLoadedJulianDay + 1;
+    EventsRepository repository = EventsRepository.getInstance(context);
+    if (!repository.putDays(firstLoadedJulianDay, numDays, events, ((CalendarEventsLoader) loader).getChangeCount())) {
+      // Some days changed while loading, the repository has them as they are now
+      events = repository.getDays(firstLoadedJulianDay, numDays);
+      if (events == null) {
+        loader.forceLoad();
+        return;
+      }
+    }
+    adapter.setEvents(firstLoadedJulianDay, numDays, events);
+    deliveredFirstJulianDay = firstLoadedJulianDay;
+    deliveredLastJulianDay = lastLoadedJulianDay;
   }
 
   @Override
@@ -419,8 +438,22 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
 
   @Override
   public void eventsChanged() {
-    // TODO remove this after b/3387924 is resolved
-    if (cursorLoader != null) {
+    onDaysChanged(deliveredFirstJulianDay, deliveredLastJulianDay);
+  }
+
+  /**
+   * Takes the changed days from the repository, which has already read them again. Only if it has dropped them the whole range is queried.
+   */
+  @Override
+  public void onDaysChanged(int firstJulianDay, int lastJulianDay) {
+    if (lastJulianDay < deliveredFirstJulianDay || firstJulianDay > deliveredLastJulianDay) {
+      return;
+    }
+    int numDays = deliveredLastJulianDay - deliveredFirstJulianDay + 1;
+    EventBuffer events = EventsRepository.getInstance(context).getDays(deliveredFirstJulianDay, numDays);
+    if (events != null) {
+      adapter.setEvents(deliveredFirstJulianDay, numDays, events);
+    } else if (cursorLoader != null) {
       cursorLoader.forceLoad();
     }
   }
@@ -620,6 +653,18 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
     lastLoadedJulianDay = Time.getJulianDay(last, tempTime.gmtoff);
   }
 
+  /**
+   * Whether the events of the weeks on screen were delivered by the last load.
+   */
+  private boolean isVisibleRangeLoaded() {
+    WeekView child = (WeekView) listView.getChildAt(0);
+    if (child == null) {
+      return false;
+    }
+    int firstVisibleJulianDay = child.getFirstJulianDay();
+    return firstVisibleJulianDay >= deliveredFirstJulianDay && firstVisibleJulianDay + (NUM_WEEKS + 2) * 7 <= deliveredLastJulianDay;
+  }
+
   /**
    * Updates the uri used by the loader according to the current position of the listview.
    *
@@ -627,17 +672,20 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
    */
   private Uri updateUri() {
     WeekView child = (WeekView) listView.getChildAt(0);
-    if (child != null) {
-      firstLoadedJulianDay = child.getFirstJulianDay();
-    }
+    int firstVisibleJulianDay = child != null ? child.getFirstJulianDay() : firstLoadedJulianDay + PREFETCH_DAYS;
+    // The visible weeks plus the ones around them
+    firstLoadedJulianDay = firstVisibleJulianDay - PREFETCH_DAYS;
     // -1 to ensure we get all day events from any time zone
     tempTime.setJulianDay(firstLoadedJulianDay - 1);
     long start = tempTime.toMillis(true);
-    lastLoadedJulianDay = firstLoadedJulianDay + (NUM_WEEKS + 2) * 7;
+    lastLoadedJulianDay = firstVisibleJulianDay + (NUM_WEEKS + 2) * 7 + PREFETCH_DAYS;
     // +1 to ensure we get all day events from any time zone
     tempTime.setJulianDay(lastLoadedJulianDay + 1);
     long end = tempTime.toMillis(true);
 
+    firstLoadedMillis = start;
+    lastLoadedMillis = end;
+
     // Create a new uri with the updated times
     Uri.Builder builder = CalendarProvider.EVENTS_URI.buildUpon();
     ContentUris.appendId(builder, start);
@@ -691,8 +739,7 @@ public class MonthFragment extends ListFragment implements EventHandler, LoaderM
     } else {
       tz = Time.getCurrentTimezone();
     }
-    mSB.setLength(0);
-    return DateUtils.formatDateRange(context, mF, startMillis, endMillis, flags, tz).toString();
+    return TimeZoneUtils.formatDateRange(context, startMillis, endMillis, flags, tz);
   }
 
   private class ScrollStateRunnable implements Runnable {
@@ -1,34 +1,26 @@
 package es.android.TurnosAndroid.fragments;
 
-import android.database.Cursor;
 import android.os.Bundle;
 import android.support.v4.app.ListFragment;
-import android.support.v4.app.LoaderManager.LoaderCallbacks;
-import android.support.v4.content.CursorLoader;
-import android.support.v4.content.Loader;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import es.android.TurnosAndroid.MainActivity;
 import es.android.TurnosAndroid.MyEventsActionBarInterface;
 import es.android.TurnosAndroid.R;
-import es.android.TurnosAndroid.database.CalendarProvider;
-import es.android.TurnosAndroid.database.DBConstants;
-import es.android.TurnosAndroid.helpers.Utils;
-import es.android.TurnosAndroid.model.Event;
+import es.android.TurnosAndroid.database.EventPagedList;
+import es.android.TurnosAndroid.database.EventWriter;
 import es.android.TurnosAndroid.views.myevents.MyEventsAdapter;
 
-import java.util.ArrayList;
-
 /**
  * Date: 18.12.13
  *
  * @author jjnunogarcia@gmail.com
  */
-public class MyEventsFragment extends ListFragment implements LoaderCallbacks<Cursor>, MyEventsActionBarInterface {
-  public static final String TAG       = MyEventsFragment.class.getSimpleName();
-  public static final int    LOADER_ID = 1;
-  private MyEventsAdapter adapter;
+public class MyEventsFragment extends ListFragment implements MyEventsActionBarInterface, EventWriter.OnPendingChangedListener {
+  public static final String TAG = MyEventsFragment.class.getSimpleName();
+  // The events as read from the database, with the writes still pending
+  private EventPagedList events;
 
   public MyEventsFragment() {
   }
@@ -42,34 +34,31 @@ public class MyEventsFragment extends ListFragment implements LoaderCallbacks<Cu
   @Override
   public void onActivityCreated(Bundle savedInstanceState) {
     super.onActivityCreated(savedInstanceState);
-    adapter = new MyEventsAdapter(getActivity().getApplicationContext(), new ArrayList<Event>());
-    setListAdapter(adapter);
-    getActivity().getSupportLoaderManager().initLoader(LOADER_ID, null, this);
+    events = new EventPagedList(getActivity());
+    setListAdapter(new MyEventsAdapter(getActivity().getApplicationContext(), events, getListView()));
     ((MainActivity) getActivity()).getActionBarManager().setMyEventsActionBarInterface(this);
   }
 
   @Override
   public void onResume() {
     super.onResume();
-    if (getActivity() != null && getActivity().getSupportLoaderManager().getLoader(LOADER_ID) != null) {
-      getActivity().getSupportLoaderManager().restartLoader(LOADER_ID, null, this);
-    }
+    EventWriter.getInstance(getActivity()).addListener(this);
+    events.start();
+    events.refreshOverlay();
   }
 
   @Override
-  public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-    return new CursorLoader(getActivity().getApplicationContext(), CalendarProvider.EVENTS_URI, DBConstants.EVENTS_PROJECTION, null, null, Event.SORT_EVENTS_BY);
+  public void onPause() {
+    super.onPause();
+    EventWriter.getInstance(getActivity()).removeListener(this);
+    events.stop();
   }
 
   @Override
-  public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-    // TODO maybe getMyEvents shouldn't be en Event class
-    adapter.setMyEvents(Utils.getMyEvents(data));
+  public void onPendingChanged() {
+    events.refreshOverlay();
   }
 
-  @Override
-  public void onLoaderReset(Loader<Cursor> loader) {}
-
   @Override
   public void onNewEventClicked() {
     ((MainActivity) getActivity()).addCreateEventFragment();
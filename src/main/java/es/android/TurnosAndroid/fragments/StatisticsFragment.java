@@ -2,17 +2,45 @@ package es.android.TurnosAndroid.fragments;
 
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.format.DateUtils;
+import android.text.format.Time;
+import android.text.style.ForegroundColorSpan;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.TextView;
 import es.android.TurnosAndroid.R;
+import es.android.TurnosAndroid.database.ShiftRulesRepository;
+import es.android.TurnosAndroid.database.StatisticsRepository;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.helpers.TimeZoneUtils;
+import es.android.TurnosAndroid.model.ShiftRules;
+import es.android.TurnosAndroid.model.ShiftStatistics;
+import es.android.TurnosAndroid.views.statistics.StatisticsChartView;
+
+import java.text.DateFormatSymbols;
+import java.util.ArrayList;
+import java.util.Locale;
 
 /**
  * User: Jesús
  * Date: 2/01/14
  */
-public class StatisticsFragment extends Fragment {
-  public static final String TAG = StatisticsFragment.class.getSimpleName();
+public class StatisticsFragment extends Fragment implements StatisticsRepository.OnStatisticsChangedListener,
+                                                            ShiftRulesRepository.OnViolationsChangedListener {
+  public static final  String TAG          = StatisticsFragment.class.getSimpleName();
+  private static final int    NUM_MONTHS   = 12;
+  private static final String COLOR_SQUARE = "■ ";
+  private TextView            title;
+  private TextView            dayNight;
+  private TextView            breakdown;
+  private TextView            violationsText;
+  private StatisticsChartView chart;
+  private int                 year;
+  // The first day of each month of the year, and the first of the next year at the end
+  private int[]               monthStarts;
 
   public StatisticsFragment() {
   }
@@ -20,6 +48,125 @@ public class StatisticsFragment extends Fragment {
   @Override
   public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
     View view = inflater.inflate(R.layout.statistics_fragment, container, false);
+    title = (TextView) view.findViewById(R.id.statistics_title);
+    dayNight = (TextView) view.findViewById(R.id.statistics_day_night);
+    breakdown = (TextView) view.findViewById(R.id.statistics_breakdown);
+    chart = (StatisticsChartView) view.findViewById(R.id.statistics_chart);
+    violationsText = (TextView) view.findViewById(R.id.statistics_violations);
     return view;
   }
+
+  @Override
+  public void onResume() {
+    super.onResume();
+    String timezone = Time.getCurrentTimezone();
+    Time time = new Time(timezone);
+    time.setToNow();
+    year = time.year;
+    monthStarts = new int[NUM_MONTHS + 1];
+    for (int month = 0; month <= NUM_MONTHS; month++) {
+      time.set(1, month, year);
+      time.normalize(true);
+      monthStarts[month] = JulianDay.fromMillis(time.toMillis(true), timezone);
+    }
+
+    StatisticsRepository repository = StatisticsRepository.getInstance(getActivity());
+    repository.addListener(this);
+    ShiftStatistics statistics = repository.getStatistics(monthStarts[0], monthStarts[NUM_MONTHS] - monthStarts[0]);
+    if (statistics != null) {
+      onStatisticsChanged(statistics);
+    }
+
+    ShiftRulesRepository rulesRepository = ShiftRulesRepository.getInstance(getActivity());
+    rulesRepository.addListener(this);
+    ArrayList<ShiftRules.Violation> violations = rulesRepository.getViolations(monthStarts[0], monthStarts[NUM_MONTHS] - monthStarts[0]);
+    if (violations != null) {
+      onViolationsChanged(monthStarts[0], monthStarts[NUM_MONTHS] - monthStarts[0], violations);
+    }
+  }
+
+  @Override
+  public void onPause() {
+    StatisticsRepository.getInstance(getActivity()).removeListener(this);
+    ShiftRulesRepository.getInstance(getActivity()).removeListener(this);
+    super.onPause();
+  }
+
+  @Override
+  public void onStatisticsChanged(ShiftStatistics statistics) {
+    int firstDay = monthStarts[0];
+    int lastDay = monthStarts[NUM_MONTHS] - 1;
+    if (!statistics.covers(firstDay, lastDay) || statistics.getNumDays() != lastDay - firstDay + 1) {
+      return;
+    }
+
+    long minutes = statistics.getMinutes(firstDay, lastDay);
+    long nightMinutes = statistics.getNightMinutes(firstDay, lastDay);
+    title.setText(getString(R.string.statistics_year_total, year, formatHours(minutes), statistics.getShifts(firstDay, lastDay)));
+    dayNight.setText(getString(R.string.statistics_day_night, formatHours(minutes - nightMinutes), formatHours(nightMinutes)));
+
+    // Every bar is a subtraction of two sums, there is no reading the days of each month
+    long[] monthDayMinutes = new long[NUM_MONTHS];
+    long[] monthNightMinutes = new long[NUM_MONTHS];
+    String[] months = new DateFormatSymbols(Locale.getDefault()).getShortMonths();
+    String[] labels = new String[NUM_MONTHS];
+    for (int month = 0; month < NUM_MONTHS; month++) {
+      long night = statistics.getNightMinutes(monthStarts[month], monthStarts[month + 1] - 1);
+      monthNightMinutes[month] = night;
+      monthDayMinutes[month] = statistics.getMinutes(monthStarts[month], monthStarts[month + 1] - 1) - night;
+      labels[month] = months[month];
+    }
+    chart.setBars(monthDayMinutes, monthNightMinutes, labels);
+
+    SpannableStringBuilder text = new SpannableStringBuilder();
+    text.append(getString(R.string.statistics_by_type)).append('\n');
+    for (int type = 0; type < statistics.getNumTypes(); type++) {
+      long typeMinutes = statistics.getTypeMinutes(type, firstDay, lastDay);
+      if (typeMinutes > 0) {
+        text.append(statistics.getTypeName(type)).append(": ").append(formatHours(typeMinutes)).append(" h\n");
+      }
+    }
+    text.append('\n').append(getString(R.string.statistics_by_color)).append('\n');
+    for (int color = 0; color < statistics.getNumColors(); color++) {
+      long colorMinutes = statistics.getColorMinutes(color, firstDay, lastDay);
+      if (colorMinutes > 0) {
+        int start = text.length();
+        text.append(COLOR_SQUARE);
+        text.setSpan(new ForegroundColorSpan(statistics.getColor(color)), start, start + 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.append(formatHours(colorMinutes)).append(" h\n");
+      }
+    }
+    breakdown.setText(text);
+  }
+
+  @Override
+  public void onViolationsChanged(int firstJulianDay, int numDays, ArrayList<ShiftRules.Violation> violations) {
+    if (firstJulianDay != monthStarts[0] || numDays != monthStarts[NUM_MONTHS] - monthStarts[0]) {
+      return;
+    }
+    if (violations.isEmpty()) {
+      violationsText.setText(R.string.statistics_no_violations);
+      return;
+    }
+
+    String timezone = Time.getCurrentTimezone();
+    StringBuilder text = new StringBuilder(getString(R.string.statistics_violations)).append('\n');
+    for (ShiftRules.Violation violation : violations) {
+      long day = JulianDay.toMillis(violation.getSecond().getJulianDay(), timezone);
+      String date = TimeZoneUtils.formatDateRange(getActivity(), day, day, DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_ABBREV_MONTH, timezone);
+      String first = violation.getFirst().getName();
+      String second = violation.getSecond().getName();
+      if (violation.getType() == ShiftRules.OVERLAP) {
+        text.append(getString(R.string.statistics_overlap, date, first, second));
+      } else {
+        text.append(getString(R.string.statistics_short_rest, date, formatHours(violation.getRestMinutes()), first, second));
+      }
+      text.append('\n');
+    }
+    violationsText.setText(text);
+  }
+
+  private static String formatHours(long minutes) {
+    return String.format(Locale.getDefault(), "%.1f", minutes / 60f);
+  }
 }
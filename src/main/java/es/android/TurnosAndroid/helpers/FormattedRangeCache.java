@@ -0,0 +1,119 @@
+package es.android.TurnosAndroid.helpers;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The last date ranges formatted by {@link TimeZoneUtils#formatDateRange}, so the titles redrawn while scrolling are only formatted once. A range is
+ * identified by its start, end, flags and time zone, and the locale it was formatted in. The flags of a range with times always say whether they are
+ * in 12 or 24 hour format, so changing the setting doesn't show the ranges cached before.
+ * <p/>
+ * Read and written from any thread without locking. The entries are split in small sets by the hash of their key, and a new entry takes the place
+ * of the least recently used one of its set, swapped in with a compare and set. Entries never change once published but for their last use.
+ */
+final class FormattedRangeCache {
+  // Four ways of sixteen sets, a few months of titles
+  private static final int                          WAYS = 4;
+  private static final int                          SETS = 16;
+  private final        AtomicReferenceArray<Entry> entries;
+  // Stamps the uses of the entries, larger is more recent
+  private final        AtomicLong                  clock;
+  private final        AtomicLong                  hits;
+  private final        AtomicLong                  misses;
+
+  FormattedRangeCache() {
+    entries = new AtomicReferenceArray<Entry>(SETS * WAYS);
+    clock = new AtomicLong();
+    hits = new AtomicLong();
+    misses = new AtomicLong();
+  }
+
+  /**
+   * Returns the cached text of a range, or null if it has to be formatted.
+   */
+  String get(long startMillis, long endMillis, int flags, String timeZone, Locale locale) {
+    int set = getSet(startMillis, endMillis, flags, timeZone);
+    for (int way = 0; way < WAYS; way++) {
+      Entry entry = entries.get(set + way);
+      if (entry != null && entry.matches(startMillis, endMillis, flags, timeZone, locale)) {
+        entry.lastUse = clock.incrementAndGet();
+        hits.incrementAndGet();
+        return entry.text;
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  void put(long startMillis, long endMillis, int flags, String timeZone, Locale locale, String text) {
+    Entry newEntry = new Entry(startMillis, endMillis, flags, timeZone, locale, text, clock.incrementAndGet());
+    int set = getSet(startMillis, endMillis, flags, timeZone);
+    // Another thread may have replaced the entry chosen in between, then the least recently used one is looked for again. Giving up after a few
+    // tries only loses this entry.
+    for (int attempt = 0; attempt < WAYS; attempt++) {
+      int victim = set;
+      Entry victimEntry = entries.get(set);
+      for (int way = 0; way < WAYS; way++) {
+        Entry entry = entries.get(set + way);
+        if (entry != null && entry.matches(startMillis, endMillis, flags, timeZone, locale)) {
+          // Formatted by another thread meanwhile
+          return;
+        }
+        if (entry == null || (victimEntry != null && entry.lastUse < victimEntry.lastUse)) {
+          victim = set + way;
+          victimEntry = entry;
+          if (entry == null) {
+            break;
+          }
+        }
+      }
+      if (entries.compareAndSet(victim, victimEntry, newEntry)) {
+        return;
+      }
+    }
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  // Index of the first way of the set of a key
+  private static int getSet(long startMillis, long endMillis, int flags, String timeZone) {
+    int hash = (int) (startMillis ^ (startMillis >>> 32));
+    hash = 31 * hash + (int) (endMillis ^ (endMillis >>> 32));
+    hash = 31 * hash + flags;
+    hash = 31 * hash + timeZone.hashCode();
+    hash ^= hash >>> 16;
+    return (hash & (SETS - 1)) * WAYS;
+  }
+
+  private static final class Entry {
+    final long    startMillis;
+    final long    endMillis;
+    final int     flags;
+    final String  timeZone;
+    final Locale  locale;
+    final String  text;
+    volatile long lastUse;
+
+    Entry(long startMillis, long endMillis, int flags, String timeZone, Locale locale, String text, long lastUse) {
+      this.startMillis = startMillis;
+      this.endMillis = endMillis;
+      this.flags = flags;
+      this.timeZone = timeZone;
+      this.locale = locale;
+      this.text = text;
+      this.lastUse = lastUse;
+    }
+
+    boolean matches(long startMillis, long endMillis, int flags, String timeZone, Locale locale) {
+      return this.startMillis == startMillis && this.endMillis == endMillis && this.flags == flags && this.timeZone.equals(timeZone) &&
+             this.locale.equals(locale);
+    }
+  }
+}
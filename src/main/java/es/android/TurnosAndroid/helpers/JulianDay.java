@@ -0,0 +1,254 @@
+package es.android.TurnosAndroid.helpers;
+
+import android.text.format.Time;
+
+import java.util.HashMap;
+import java.util.TimeZone;
+
+/**
+ * Date arithmetic on Julian days and UTC milliseconds with plain integers, for the code that runs once per event. Nothing here allocates once the
+ * time zone has been seen: the offsets of each zone are kept in a table of its transitions, built the first time a range of dates is used.
+ * <p/>
+ * Results match {@link Time#getJulianDay(long, long)} and {@link Time#setJulianDay(int)}. Time zones are passed by id, as in
+ * {@link Time#timezone}; callers should read {@link Time#getCurrentTimezone()} once per batch rather than once per event.
+ */
+public final class JulianDay {
+  public static final  long                      MINUTE_IN_MILLIS = 60 * 1000L;
+  public static final  long                      DAY_IN_MILLIS    = 24 * 60 * MINUTE_IN_MILLIS;
+  // No time zone moves its clocks by more than this at once
+  private static final long                      MAX_TRANSITION_MILLIS = 6 * 60 * MINUTE_IN_MILLIS;
+  // The transitions of a zone are found a block of days at a time
+  private static final int                       DAYS_PER_BLOCK   = 512;
+  private static final HashMap<String, ZoneTable> zoneTables       = new HashMap<String, ZoneTable>();
+  // Almost every call asks for the same zone as the previous one
+  private static volatile ZoneTable lastZoneTable;
+
+  private JulianDay() {
+  }
+
+  /**
+   * Returns the Julian day the given instant falls on in the given time zone.
+   */
+  public static int fromMillis(long millis, String timezone) {
+    return fromLocalMillis(millis + getZoneTable(timezone).getOffset(millis));
+  }
+
+  /**
+   * Returns the instant the given Julian day starts in the given time zone. That is local midnight, or the end of the gap on the days when
+   * daylight saving time skips midnight.
+   */
+  public static long toMillis(int julianDay, String timezone) {
+    ZoneTable table = getZoneTable(timezone);
+    long local = (long) (julianDay - Time.EPOCH_JULIAN_DAY) * DAY_IN_MILLIS;
+    int offset = table.getOffset(local);
+    long millis = local - offset;
+    int actualOffset = table.getOffset(millis);
+    if (actualOffset != offset) {
+      millis = local - actualOffset;
+      if (table.getOffset(millis) != actualOffset) {
+        // Local midnight doesn't exist, the day starts when the clocks go forward
+        millis = table.getNextTransition(millis);
+      }
+    }
+    // When the clocks go back around midnight it happens twice, the day starts at the first one
+    int earlierOffset = table.getOffset(millis - MAX_TRANSITION_MILLIS);
+    long earlierMillis = local - earlierOffset;
+    if (earlierMillis < millis && table.getOffset(earlierMillis) == earlierOffset) {
+      millis = earlierMillis;
+    }
+    return millis;
+  }
+
+  /**
+   * Returns the minutes since local midnight of the given instant.
+   */
+  public static int getMinuteOfDay(long millis, String timezone) {
+    long local = millis + getZoneTable(timezone).getOffset(millis);
+    return (int) ((local - floorDays(local) * DAY_IN_MILLIS) / MINUTE_IN_MILLIS);
+  }
+
+  /**
+   * Returns the day of the week of a Julian day, from {@link Time#SUNDAY} to {@link Time#SATURDAY}.
+   */
+  public static int getDayOfWeek(int julianDay) {
+    // Julian day 0 was a Monday
+    int dayOfWeek = (julianDay + 1) % 7;
+    return dayOfWeek < 0 ? dayOfWeek + 7 : dayOfWeek;
+  }
+
+  /**
+   * Returns the week since {@link Time#EPOCH_JULIAN_DAY} a Julian day falls in, with weeks starting on firstDayOfWeek. See
+   * {@link Utils#getWeeksSinceEpochFromJulianDay(int, int)}.
+   */
+  public static int getWeeksSinceEpoch(int julianDay, int firstDayOfWeek) {
+    int diff = Time.THURSDAY - firstDayOfWeek;
+    if (diff < 0) {
+      diff += 7;
+    }
+    int refDay = Time.EPOCH_JULIAN_DAY - diff;
+    return (julianDay - refDay) / 7;
+  }
+
+  /**
+   * Returns the offset from UTC, in milliseconds, of the given time zone at the given instant.
+   */
+  public static int getOffset(long millis, String timezone) {
+    return getZoneTable(timezone).getOffset(millis);
+  }
+
+  private static int fromLocalMillis(long localMillis) {
+    return (int) floorDays(localMillis) + Time.EPOCH_JULIAN_DAY;
+  }
+
+  private static long floorDays(long millis) {
+    long days = millis / DAY_IN_MILLIS;
+    return millis < 0 && days * DAY_IN_MILLIS != millis ? days - 1 : days;
+  }
+
+  private static ZoneTable getZoneTable(String timezone) {
+    ZoneTable table = lastZoneTable;
+    if (table != null && table.id.equals(timezone)) {
+      return table;
+    }
+    synchronized (zoneTables) {
+      table = zoneTables.get(timezone);
+      if (table == null) {
+        table = new ZoneTable(timezone);
+        zoneTables.put(timezone, table);
+      }
+    }
+    lastZoneTable = table;
+    return table;
+  }
+
+  /**
+   * The offsets of one time zone over a range of blocks of days, as the list of instants where the offset changes. The range grows when an
+   * instant outside of it is asked for.
+   */
+  private static final class ZoneTable {
+    private final    String      id;
+    private final    TimeZone    zone;
+    // What the lookups read, replaced as a whole when the range grows
+    private volatile Transitions transitions;
+
+    ZoneTable(String id) {
+      this.id = id;
+      zone = TimeZone.getTimeZone(id);
+    }
+
+    int getOffset(long millis) {
+      Transitions current = transitions;
+      if (current == null || millis < current.start || millis >= current.end) {
+        current = cover(millis);
+      }
+      return current.offsets[current.indexOf(millis)];
+    }
+
+    // The first transition at or after millis, or millis if there is none in the range
+    long getNextTransition(long millis) {
+      Transitions current = transitions;
+      if (current == null || millis < current.start || millis >= current.end) {
+        current = cover(millis);
+      }
+      int index = current.indexOf(millis - 1) + 1;
+      return index < current.instants.length ? current.instants[index] : millis;
+    }
+
+    private synchronized Transitions cover(long millis) {
+      Transitions current = transitions;
+      long days = floorDays(millis);
+      long block = days >= 0 ? days / DAYS_PER_BLOCK : (days - DAYS_PER_BLOCK + 1) / DAYS_PER_BLOCK;
+      long start = block * DAYS_PER_BLOCK * DAY_IN_MILLIS;
+      long end = start + DAYS_PER_BLOCK * DAY_IN_MILLIS;
+      if (current != null) {
+        if (millis >= current.start && millis < current.end) {
+          return current;
+        }
+        start = Math.min(start, current.start);
+        end = Math.max(end, current.end);
+      }
+      current = Transitions.find(zone, start, end);
+      transitions = current;
+      return current;
+    }
+  }
+
+  private static final class Transitions {
+    final long   start;
+    final long   end;
+    // instants[i] is when offsets[i] starts to apply; instants[0] is start
+    final long[] instants;
+    final int[]  offsets;
+
+    private Transitions(long start, long end, long[] instants, int[] offsets) {
+      this.start = start;
+      this.end = end;
+      this.instants = instants;
+      this.offsets = offsets;
+    }
+
+    // Checks the offset once a day and looks for the exact instant on the days it changes. Zones don't change their offset twice in a day.
+    static Transitions find(TimeZone zone, long start, long end) {
+      int numDays = (int) ((end - start) / DAY_IN_MILLIS);
+      long[] instants = new long[8];
+      int[] offsets = new int[8];
+      int count = 0;
+      int offset = zone.getOffset(start);
+      instants[count] = start;
+      offsets[count++] = offset;
+
+      long previous = start;
+      for (int day = 1; day <= numDays; day++) {
+        long check = Math.min(start + day * DAY_IN_MILLIS, end - 1);
+        int nextOffset = zone.getOffset(check);
+        long low = previous;
+        previous = check;
+        if (nextOffset == offset) {
+          continue;
+        }
+        // Binary search for the first instant with the new offset
+        long high = check;
+        while (high - low > 1) {
+          long middle = low + (high - low) / 2;
+          if (zone.getOffset(middle) == offset) {
+            low = middle;
+          } else {
+            high = middle;
+          }
+        }
+        if (count == instants.length) {
+          long[] newInstants = new long[count * 2];
+          int[] newOffsets = new int[count * 2];
+          System.arraycopy(instants, 0, newInstants, 0, count);
+          System.arraycopy(offsets, 0, newOffsets, 0, count);
+          instants = newInstants;
+          offsets = newOffsets;
+        }
+        instants[count] = high;
+        offsets[count++] = nextOffset;
+        offset = nextOffset;
+      }
+
+      long[] trimmedInstants = new long[count];
+      int[] trimmedOffsets = new int[count];
+      System.arraycopy(instants, 0, trimmedInstants, 0, count);
+      System.arraycopy(offsets, 0, trimmedOffsets, 0, count);
+      return new Transitions(start, end, trimmedInstants, trimmedOffsets);
+    }
+
+    // Index of the last transition at or before millis
+    int indexOf(long millis) {
+      int low = 0;
+      int high = instants.length - 1;
+      while (low < high) {
+        int middle = (low + high + 1) >>> 1;
+        if (instants[middle] <= millis) {
+          low = middle;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return low;
+    }
+  }
+}
@@ -7,6 +7,7 @@ import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.provider.CalendarContract;
 import android.text.TextUtils;
+import android.text.format.DateFormat;
 import android.text.format.DateUtils;
 import android.text.format.Time;
 
@@ -21,24 +22,25 @@ import java.util.Locale;
  * @author jjnunogarcia@gmail.com
  */
 public class TimeZoneUtils {
-  private static final    String            TAG                      = TimeZoneUtils.class.getSimpleName();
-  public static final     String[]          CALENDAR_CACHE_POJECTION = {"key", "value"};
+  private static final    String                 TAG                      = TimeZoneUtils.class.getSimpleName();
+  public static final     String[]               CALENDAR_CACHE_POJECTION = {"key", "value"};
   /**
    * This is the key used for writing whether or not a home time zone should be used in the Calendar app to the Calendar Preferences.
    */
-  public static final     String            KEY_HOME_TZ_ENABLED      = "preferences_home_tz_enabled";
+  public static final     String                 KEY_HOME_TZ_ENABLED      = "preferences_home_tz_enabled";
   /**
    * This is the key used for writing the time zone that should be used if home time zones are enabled for the Calendar app.
    */
-  public static final     String            KEY_HOME_TZ              = "preferences_home_tz";
-  static final            String            SHARED_PREFS_NAME        = "calendar_preferences";
-  private static          StringBuilder     stringBuilder            = new StringBuilder(50);
-  private static          Formatter         formatter                = new Formatter(stringBuilder, Locale.getDefault());
-  private volatile static boolean           firstTimeZoneRequest     = true;
-  private volatile static boolean           timeZoneQueryInProgress  = false;
-  private volatile static boolean           useHomeTimeZone          = false;
-  private volatile static String            homeTimeZone             = Time.getCurrentTimezone();
-  private static          HashSet<Runnable> timeZoneCallbacks        = new HashSet<Runnable>();
+  public static final     String                 KEY_HOME_TZ              = "preferences_home_tz";
+  static final            String                 SHARED_PREFS_NAME        = "calendar_preferences";
+  private static final    FormattedRangeCache    formattedRanges          = new FormattedRangeCache();
+  // Each thread formats the ranges missing from the cache with its own formatter, no thread waits for another
+  private static final    ThreadLocal<Formatter> formatters               = new ThreadLocal<Formatter>();
+  private volatile static boolean                firstTimeZoneRequest     = true;
+  private volatile static boolean                timeZoneQueryInProgress  = false;
+  private volatile static boolean                useHomeTimeZone          = false;
+  private volatile static String                 homeTimeZone             = Time.getCurrentTimezone();
+  private static          HashSet<Runnable>      timeZoneCallbacks        = new HashSet<Runnable>();
   private static AsyncTimeZoneHandler asyncTimeZoneHandler;
 
 
@@ -60,20 +62,53 @@ public class TimeZoneUtils {
    * @return a string containing the formatted date/time range.
    */
   public static String formatDateRange(Context context, long startMillis, long endMillis, int flags) {
-    String date;
     String tz;
     if ((flags & DateUtils.FORMAT_UTC) != 0) {
       tz = Time.TIMEZONE_UTC;
     } else {
       tz = getTimeZone(context, null);
     }
-    synchronized (stringBuilder) {
-      stringBuilder.setLength(0);
-      date = DateUtils.formatDateRange(context, formatter, startMillis, endMillis, flags, tz).toString();
+    return formatDateRange(context, startMillis, endMillis, flags, tz);
+  }
+
+  /**
+   * Formats a date or a time range in the given time zone, see {@link #formatDateRange(android.content.Context, long, long, int)}. The last ranges
+   * formatted are cached.
+   */
+  public static String formatDateRange(Context context, long startMillis, long endMillis, int flags, String timeZone) {
+    if ((flags & DateUtils.FORMAT_SHOW_TIME) != 0 && (flags & (DateUtils.FORMAT_12HOUR | DateUtils.FORMAT_24HOUR)) == 0) {
+      // Otherwise formatDateRange reads the setting itself, and the ranges cached before it changed would keep the old format
+      flags |= DateFormat.is24HourFormat(context) ? DateUtils.FORMAT_24HOUR : DateUtils.FORMAT_12HOUR;
+    }
+    Locale locale = Locale.getDefault();
+    String date = formattedRanges.get(startMillis, endMillis, flags, timeZone, locale);
+    if (date == null) {
+      Formatter formatter = formatters.get();
+      if (formatter == null || !formatter.locale().equals(locale)) {
+        formatter = new Formatter(new StringBuilder(50), locale);
+        formatters.set(formatter);
+      }
+      ((StringBuilder) formatter.out()).setLength(0);
+      date = DateUtils.formatDateRange(context, formatter, startMillis, endMillis, flags, timeZone).toString();
+      formattedRanges.put(startMillis, endMillis, flags, timeZone, locale, date);
     }
     return date;
   }
 
+  /**
+   * Returns how many date ranges were found in the cache since the app started.
+   */
+  public static long getFormatCacheHits() {
+    return formattedRanges.getHits();
+  }
+
+  /**
+   * Returns how many date ranges had to be formatted since the app started.
+   */
+  public static long getFormatCacheMisses() {
+    return formattedRanges.getMisses();
+  }
+
   /**
    * Gets the time zone that Calendar should be displayed in
    * <p/>
@@ -86,6 +121,11 @@ public class TimeZoneUtils {
    * @return The string value representing the time zone Calendar should display
    */
   public static String getTimeZone(Context context, Runnable callback) {
+    // Once the query is done there is nothing to wait for, the fields are volatile
+    if (!firstTimeZoneRequest && !timeZoneQueryInProgress) {
+      return useHomeTimeZone ? homeTimeZone : Time.getCurrentTimezone();
+    }
+
     synchronized (timeZoneCallbacks) {
       if (firstTimeZoneRequest) {
         timeZoneQueryInProgress = true;
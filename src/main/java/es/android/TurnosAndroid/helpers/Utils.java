@@ -18,17 +18,13 @@ package es.android.TurnosAndroid.helpers;
 
 import android.content.Context;
 import android.content.res.Resources;
-import android.database.Cursor;
 import android.graphics.Color;
 import android.os.Build;
 import android.text.format.Time;
 import es.android.TurnosAndroid.R;
-import es.android.TurnosAndroid.database.DBConstants;
-import es.android.TurnosAndroid.model.CalendarEvent;
-import es.android.TurnosAndroid.model.Event;
+import es.android.TurnosAndroid.model.EventBuffer;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 
 public class Utils {
   // Defines used by the DNA generation code
@@ -60,12 +56,7 @@ public class Utils {
    * @return Weeks since the epoch
    */
   public static int getWeeksSinceEpochFromJulianDay(int julianDay, int firstDayOfWeek) {
-    int diff = Time.THURSDAY - firstDayOfWeek;
-    if (diff < 0) {
-      diff += 7;
-    }
-    int refDay = Time.EPOCH_JULIAN_DAY - diff;
-    return (julianDay - refDay) / 7;
+    return JulianDay.getWeeksSinceEpoch(julianDay, firstDayOfWeek);
   }
 
   /**
@@ -129,378 +120,246 @@ public class Utils {
   }
 
   /**
-   * Converts a list of calendarEvents to a list of segments to draw. Assumes list is ordered by start time of the calendarEvents. The function processes calendarEvents for a
-   * range of days from firstJulianDay to firstJulianDay + dayXs.length - 1. The algorithm goes over all the calendarEvents and creates a set of segments
-   * ordered by start time. This list of segments is then converted into a HashMap of strands which contain the draw points and are organized by color. The strands can
-   * then be drawn by setting the paint color to each strand's color and calling drawLines on its set of points. The points are set up using the following parameters.
+   * Converts the events of a week to strands to draw. The function processes the events for a range of days from firstJulianDay to
+   * firstJulianDay + dayXs.length - 1. The events are cut into segments of a single day, and on each day the times where events of different colors
+   * overlap become conflict segments. Segments next to each other with the same color are merged. The segments are then grouped by color into
+   * strands, each one holding the points of all its segments, so a strand is drawn by setting the paint color to its color and calling drawLines on
+   * its points. The conflict strand, if any, is the last one so it is drawn on top. The points are set up using the following parameters.
    * <ul>
    * <li>Events between midnight and WORK_DAY_START_MINUTES are compressed into the first 1/8th of the space between top and bottom.</li>
    * <li>Events between WORK_DAY_END_MINUTES and the following midnight are compressed into the last 1/8th of the space between top and bottom</li>
    * <li>Events between WORK_DAY_START_MINUTES and WORK_DAY_END_MINUTES use the remaining 3/4ths of the space</li>
    * <li>All segments drawn will maintain at least minPixels height, except for conflicts in the first or last 1/8th, which may be smaller</li>
    * </ul>
+   * This doesn't touch any view and can run in any thread.
    *
-   * @param firstJulianDay The julian day of the first day of calendarEvents
-   * @param calendarEvents A list of calendarEvents sorted by start time
+   * @param firstJulianDay The julian day of the first day of the week
+   * @param events         The events to draw, indexed by day
    * @param top            The lowest y value the dna should be drawn at
    * @param bottom         The highest y value the dna should be drawn at
    * @param dayXs          An array of x values to draw the dna at, one for each day
-   * @return
+   * @return the strands to draw, or null if there is nothing to draw
    */
-  public static HashMap<Integer, EventStrand> createDNAStrands(int firstJulianDay, ArrayList<CalendarEvent> calendarEvents, int top, int bottom, int minPixels, int[] dayXs,
-                                                               Context context) {
-
+  public static EventStrand[] createDNAStrands(int firstJulianDay, EventBuffer events, int top, int bottom, int minPixels, int[] dayXs, Context context) {
     if (!minutesLoaded) {
       if (context == null) {
         return null;
       }
-      Resources res = context.getResources();
-      CONFLICT_COLOR = res.getColor(R.color.month_dna_conflict_time_color);
-      WORK_DAY_START_MINUTES = res.getInteger(R.integer.work_start_minutes);
-      WORK_DAY_END_MINUTES = res.getInteger(R.integer.work_end_minutes);
-      WORK_DAY_END_LENGTH = DAY_IN_MINUTES - WORK_DAY_END_MINUTES;
-      WORK_DAY_MINUTES = WORK_DAY_END_MINUTES - WORK_DAY_START_MINUTES;
-      minutesLoaded = true;
+      loadDNAResources(context);
     }
 
-    if (calendarEvents == null || calendarEvents.isEmpty() || dayXs == null || dayXs.length < 1 || bottom - top < 8 || minPixels < 0) {
+    if (events == null || events.size() == 0 || dayXs == null || dayXs.length < 1 || bottom - top < 8 || minPixels < 0) {
       return null;
     }
 
-    LinkedList<EventSegment> segments = new LinkedList<EventSegment>();
-    HashMap<Integer, EventStrand> strands = new HashMap<Integer, EventStrand>();
-    // add a black strand by default, other colors will get added in the loop
-    EventStrand blackStrand = new EventStrand();
-    blackStrand.color = CONFLICT_COLOR;
-    strands.put(CONFLICT_COLOR, blackStrand);
-
+    int numDays = dayXs.length;
     // the min length is the number of minutes that will occupy MIN_SEGMENT_PIXELS in the 'work day' time slot. This computes the
     // minutes/pixel * minpx where the number of pixels are 3/4 the total dna height: 4*(mins/(px * 3/4))
-//    int minMinutes = minPixels * 4 * WORK_DAY_MINUTES / (3 * (bottom - top));
-
-    // There are slightly fewer than half as many pixels in 1/6 the space, so round to 2.5x for the min minutes in the non-work area
-//    int minOtherMinutes = minMinutes * 5 / 2;
-//    int lastJulianDay = firstJulianDay + dayXs.length - 1;
-
-//    Event event;
-    // Go through all the calendarEvents for the week
-    for (CalendarEvent currEvent : calendarEvents) {
-      // if this event is outside the weeks range skip it
-//      if (currEvent.getEndDay() < firstJulianDay || currEvent.getStartDay() > lastJulianDay) {
-//        continue;
-//      }
-//      if (currEvent.drawAsAllday()) {
-//        addAllDayToStrands(currEvent, strands, firstJulianDay, dayXs.length);
-//        continue;
-//      }
-      // Copy the event over so we can clip its start and end to our range
-//      event = new Event(currEvent.getEvent());
-//      if (event.getStartDay() < firstJulianDay) {
-//        event.setStartDay(firstJulianDay);
-//        event.setStartTime(0);
-//      }
-      // If it starts after the work day make sure the start is at least minPixels from midnight
-//      if (event.getStartTime() > DAY_IN_MINUTES - minOtherMinutes) {
-//        event.setStartTime(DAY_IN_MINUTES - minOtherMinutes);
-//      }
-//      if (event.getEndDay() > lastJulianDay) {
-//        event.setEndDay(lastJulianDay);
-//        event.endTime = DAY_IN_MINUTES - 1;
-//      }
-      // If the end time is before the work day make sure it ends at least minPixels after midnight
-//      if (event.endTime < minOtherMinutes) {
-//        event.endTime = minOtherMinutes;
-//      }
-      // If the start and end are on the same day make sure they are at least minPixels apart. This only needs to be done for times
-      // outside the work day as the min distance for within the work day is enforced in the segment code.
-//      if (event.startDay == event.endDay && event.endTime - event.startTime < minOtherMinutes) {
-      // If it's less than minPixels in an area before the work day
-//        if (event.startTime < WORK_DAY_START_MINUTES) {
-      // extend the end to the first easy guarantee that it's
-      // minPixels
-//          event.endTime = Math.min(event.startTime + minOtherMinutes, WORK_DAY_START_MINUTES + minMinutes);
-      // if it's in the area after the work day
-//        } else if (event.endTime > WORK_DAY_END_MINUTES) {
-      // First try shifting the end but not past midnight
-//          event.endTime = Math.min(event.endTime + minOtherMinutes, DAY_IN_MINUTES - 1);
-      // if it's still too small move the start back
-//          if (event.endTime - event.startTime < minOtherMinutes) {
-//            event.startTime = event.endTime - minOtherMinutes;
-//          }
-//        }
-//      }
-
-      // This handles adding the first segment
-//      if (segments.size() == 0) {
-      addNewSegment(segments, currEvent, strands);
-//        continue;
-//      }
-      // Now compare our current start time to the end time of the last segment in the list
-//      EventSegment lastSegment = segments.getLast();
-//      long startMinute = (currEvent.getDay() - firstJulianDay) * DAY_IN_MINUTES + event.getStartTime();
-//      int endMinute = Math.max((event.endDay - firstJulianDay) * DAY_IN_MINUTES + event.endTime, startMinute + minMinutes);
-
-//      if (startMinute < 0) {
-//        startMinute = 0;
-//      }
-//      if (endMinute >= WEEK_IN_MINUTES) {
-//        endMinute = WEEK_IN_MINUTES - 1;
-//      }
-      // If we start before the last segment in the list ends we need to start going through the list as this may conflict with other calendarEvents
-//      if (startMinute < lastSegment.endMinute) {
-//        int i = segments.size();
-//        // find the last segment this event intersects with
-////        while (--i >= 0 && endMinute < segments.get(i).startMinute) {
-////        }
-//
-//        EventSegment currSegment;
-//        // for each segment this event intersects with
-//        for (; i >= 0 && startMinute <= (currSegment = segments.get(i)).endMinute; i--) {
-//          // if the segment is already a conflict ignore it
-//          if (currSegment.color == CONFLICT_COLOR) {
-//            continue;
-//          }
-//          // if the event ends before the segment and wouldn't create a segment that is too small split off the right side
-////          if (endMinute < currSegment.endMinute - minMinutes) {
-////            EventSegment rhs = new EventSegment();
-////            rhs.endMinute = currSegment.endMinute;
-////            rhs.color = currSegment.color;
-////            rhs.startMinute = endMinute + 1;
-////            rhs.day = currSegment.day;
-////            currSegment.endMinute = endMinute;
-////            segments.add(i + 1, rhs);
-////            strands.get(rhs.color).count++;
-////          }
-//          // if the event starts after the segment and wouldn't create a segment that is too small split off the left side
-//          if (startMinute > currSegment.startMinute + minMinutes) {
-//            EventSegment lhs = new EventSegment();
-//            lhs.startMinute = currSegment.startMinute;
-//            lhs.color = currSegment.color;
-////            lhs.endMinute = startMinute - 1;
-//            lhs.day = currSegment.day;
-////            currSegment.startMinute = startMinute;
-//            // increment i so that we are at the right position when
-//            // referencing the segments to the right and left of the
-//            // current segment.
-//            segments.add(i++, lhs);
-//            strands.get(lhs.color).count++;
-//          }
-//          // if the right side is black merge this with the segment to
-//          // the right if they're on the same day and overlap
-//          if (i + 1 < segments.size()) {
-//            EventSegment rhs = segments.get(i + 1);
-//            if (rhs.color == CONFLICT_COLOR && currSegment.day == rhs.day && rhs.startMinute <= currSegment.endMinute + 1) {
-//              rhs.startMinute = Math.min(currSegment.startMinute, rhs.startMinute);
-//              segments.remove(currSegment);
-//              strands.get(currSegment.color).count--;
-//              // point at the new current segment
-//              currSegment = rhs;
-//            }
-//          }
-//          // if the left side is black merge this with the segment to the left if they're on the same day and overlap
-//          if (i - 1 >= 0) {
-//            EventSegment lhs = segments.get(i - 1);
-//            if (lhs.color == CONFLICT_COLOR && currSegment.day == lhs.day && lhs.endMinute >= currSegment.startMinute - 1) {
-//              lhs.endMinute = Math.max(currSegment.endMinute, lhs.endMinute);
-//              segments.remove(currSegment);
-//              strands.get(currSegment.color).count--;
-//              // point at the new current segment
-//              currSegment = lhs;
-//              // point i at the new current segment in case new code is added
-//              i--;
-//            }
-//          }
-//          // if we're still not black, decrement the count for the color being removed, change this to black, and increment the black count
-//          if (currSegment.color != CONFLICT_COLOR) {
-//            strands.get(currSegment.color).count--;
-//            currSegment.color = CONFLICT_COLOR;
-//            strands.get(CONFLICT_COLOR).count++;
-//          }
-//        }
-//      }
-
-      // If this event extends beyond the last segment add a new segment
-//      if (endMinute > lastSegment.endMinute) {
-//        addNewSegment(segments, event, strands, firstJulianDay, lastSegment.endMinute, minMinutes);
-//      }
+    int minMinutes = minPixels * 4 * WORK_DAY_MINUTES / (3 * (bottom - top));
+
+    // Go through all the events for the week, whose days are next to each other in the day index. Shifts are shorter than a day, so only the ones
+    // of the day before can spill into the week.
+    int firstPosition = events.getDayStart(firstJulianDay - 1);
+    int lastPosition = events.getDayEnd(firstJulianDay + numDays - 1);
+    Segments segments = new Segments(2 * (lastPosition - firstPosition) + 1);
+    for (int position = firstPosition; position < lastPosition; position++) {
+      addEventSegments(segments, events, events.getDayRow(position), firstJulianDay, numDays, minMinutes);
     }
-    weaveDNAStrands(segments, firstJulianDay, strands, top, bottom, dayXs);
-    return strands;
-  }
-
-  // This figures out allDay colors as allDay events are found
-//  private static void addAllDayToStrands(Event event, HashMap<Integer, EventStrand> strands, int firstJulianDay, int numDays) {
-//    EventStrand strand = getOrCreateStrand(strands, CONFLICT_COLOR);
-//    // if we haven't initialized the allDay portion create it now
-//    if (strand.allDays == null) {
-//      strand.allDays = new int[numDays];
-//    }
-//
-//    // For each day this event is on update the color
-//    long end = Math.min(event.getEndDay() - firstJulianDay, numDays - 1);
-//    for (long i = Math.max(event.getStartDay() - firstJulianDay, 0); i <= end; i++) {
-//      if (strand.allDays[((int) i)] != 0) {
-//        // if this day already had a color, it is now a conflict
-//        strand.allDays[((int) i)] = CONFLICT_COLOR;
-//      } else {
-//        // else it's just the color of the event
-//        strand.allDays[((int) i)] = event.getColor();
-//      }
-//    }
-//  }
-
-  // This processes all the segments, sorts them by color, and generates a list of points to draw
-  private static void weaveDNAStrands(LinkedList<EventSegment> segments, int firstJulianDay, HashMap<Integer, EventStrand> strands, int top, int bottom, int[] dayXs) {
-    // First, get rid of any colors that ended up with no segments
-    Iterator<EventStrand> strandIterator = strands.values().iterator();
-    while (strandIterator.hasNext()) {
-      EventStrand strand = strandIterator.next();
-//      if (strand.count < 1 && strand.allDays == null) {
-//        strandIterator.remove();
-//        continue;
-//      }
-//      strand.points = new float[strand.count * 4];
-      strand.points = new float[4];
-      strand.position = 0;
-    }
-    // Go through each segment and compute its points
-    for (EventSegment segment : segments) {
-      // Add the points to the strand of that color
-      EventStrand strand = strands.get(segment.color);
-//      long dayIndex = segment.day - firstJulianDay;
-      long dayIndex = segment.day;
-      long dayStartMinute = segment.startMinute % DAY_IN_MINUTES;
-      long dayEndMinute = segment.endMinute % DAY_IN_MINUTES;
-      int height = bottom - top;
-      int workDayHeight = height * 3 / 4;
-      int remainderHeight = (height - workDayHeight) / 2;
-
-      int x = dayXs[((int) dayIndex)];
-      long y0 = top + getPixelOffsetFromMinutes(dayStartMinute, workDayHeight, remainderHeight);
-      long y1 = top + getPixelOffsetFromMinutes(dayEndMinute, workDayHeight, remainderHeight);
-      strand.points[strand.position++] = x;
-      strand.points[strand.position++] = y0;
-      strand.points[strand.position++] = x;
-      strand.points[strand.position++] = y1;
+    if (segments.size == 0) {
+      return null;
     }
+
+    Segments resolved = resolveConflicts(segments, numDays);
+    return weaveDNAStrands(resolved, top, bottom, dayXs);
   }
 
-  /**
-   * Compute a pixel offset from the top for a given minute from the work day height and the height of the top area.
-   */
-  private static long getPixelOffsetFromMinutes(long minute, int workDayHeight, int remainderHeight) {
-    long y;
-    if (minute < WORK_DAY_START_MINUTES) {
-      y = minute * remainderHeight / WORK_DAY_START_MINUTES;
-    } else if (minute < WORK_DAY_END_MINUTES) {
-      y = remainderHeight + (minute - WORK_DAY_START_MINUTES) * workDayHeight / WORK_DAY_MINUTES;
-    } else {
-      y = remainderHeight + workDayHeight + (minute - WORK_DAY_END_MINUTES) * remainderHeight / WORK_DAY_END_LENGTH;
+  private static synchronized void loadDNAResources(Context context) {
+    if (minutesLoaded) {
+      return;
     }
-    return y;
+    Resources res = context.getResources();
+    CONFLICT_COLOR = res.getColor(R.color.month_dna_conflict_time_color);
+    WORK_DAY_START_MINUTES = res.getInteger(R.integer.work_start_minutes);
+    WORK_DAY_END_MINUTES = res.getInteger(R.integer.work_end_minutes);
+    WORK_DAY_END_LENGTH = DAY_IN_MINUTES - WORK_DAY_END_MINUTES;
+    WORK_DAY_MINUTES = WORK_DAY_END_MINUTES - WORK_DAY_START_MINUTES;
+    minutesLoaded = true;
   }
 
   /**
-   * Add a new segment based on the event provided. This will handle splitting segments across day boundaries and ensures a minimum size for segments.
+   * Adds the segments of an event, one per day it is on. The first day starts at the actual start time, the last one ends at the actual end time and
+   * the days in between take the whole day. Days outside of the range drawn, from 0 to numDays - 1, are skipped.
    */
-  private static void addNewSegment(LinkedList<EventSegment> segments, CalendarEvent calendarEvent, HashMap<Integer, EventStrand> strands) {
+  private static void addEventSegments(Segments segments, EventBuffer events, int row, int firstJulianDay, int numDays, int minMinutes) {
+    int day = events.getJulianDay(row) - firstJulianDay;
+    int color = events.getColor(row);
+    // Start time and duration are in minutes
+    long startMinute = events.getStartTime(row);
+    long endMinute = startMinute + Math.max(events.getDuration(row), 0);
+    day += startMinute / DAY_IN_MINUTES;
+    endMinute -= startMinute / DAY_IN_MINUTES * DAY_IN_MINUTES;
+    startMinute %= DAY_IN_MINUTES;
+
     // If this is a multiday event, split it up by day
-    Event event = calendarEvent.getEvent();
-
-    if (eventEndsInOtherDay(calendarEvent)) {
-      CalendarEvent _calendarEvent = new CalendarEvent();
-      Event _event = new Event();
-      _event.setColor(event.getColor());
-      _calendarEvent.setDay(event.getStartDay() + TimeUnit.MILLISECONDS.convert(24, TimeUnit.HOURS));
-      // the first day we want the start time to be the actual start time
-      _event.setStartTime(_calendarEvent.getDay());
-      long millisecondsFromStartToEndOfDay = TimeUnit.MILLISECONDS.convert(24, TimeUnit.HOURS) - event.getStartTime();
-      _event.setDuration(event.getDuration() - millisecondsFromStartToEndOfDay);
-      _calendarEvent.setEvent(_event);
-//      _event.endTime = DAY_IN_MINUTES - 1;
-//      while (_event.getStartDay() != event.getEndDay()) {
-      addNewSegment(segments, _calendarEvent, strands);
-      // The days in between are all day, even though that shouldn't actually happen due to the allday filtering
-//      }
-      // The last day we want the end time to be the actual end time
-//      _event.endTime = event.endTime;
-//      event = _event;
-    } else {
-      EventSegment segment = new EventSegment();
-//      long dayOffset = (event.getStartDay() - firstJulianDay) * DAY_IN_MINUTES;
-//      long endOfDay = dayOffset + DAY_IN_MINUTES - 1;
-      // clip the start if needed
-//      segment.startMinute = Math.max(dayOffset + event.getStartTime(), minStart);
-      segment.startMinute = TimeUnit.MINUTES.convert(event.getStartTime(), TimeUnit.MILLISECONDS);
-      // and extend the end if it's too small, but not beyond the end of the day
-//      long minEnd = Math.min(segment.startMinute + minMinutes, endOfDay);
-//    segment.endMinute = Math.max(dayOffset + event.endTime, minEnd);
-//      if (segment.endMinute > endOfDay) {
-//        segment.endMinute = endOfDay;
-//      }
-      segment.endMinute = segment.startMinute + TimeUnit.MINUTES.convert(event.getDuration(), TimeUnit.HOURS);
-      segment.color = event.getColor();
-      segment.day = getDayOfWeek(calendarEvent.getDay());
-      segments.add(segment);
-      // increment the count for the correct color or add a new strand if we don't have that color yet
-//      EventStrand strand = getOrCreateStrand(strands, segment.color);
-      getOrCreateStrand(strands, segment.color);
-//      strand.count++;
+    while (endMinute > DAY_IN_MINUTES && day < numDays) {
+      addDaySegment(segments, color, day, (int) startMinute, DAY_IN_MINUTES, numDays, minMinutes);
+      startMinute = 0;
+      endMinute -= DAY_IN_MINUTES;
+      day++;
     }
+    addDaySegment(segments, color, day, (int) startMinute, (int) endMinute, numDays, minMinutes);
   }
 
-  private static int getDayOfWeek(long dateInMilliseconds) {
-    Calendar c = Calendar.getInstance();
-    c.setTime(new Date(dateInMilliseconds));
-    return c.get(Calendar.DAY_OF_WEEK);
-  }
-
-  private static boolean eventEndsInOtherDay(CalendarEvent calendarEvent) {
-    long initDay = calendarEvent.getDay();
-    long endDay = initDay + TimeUnit.MILLISECONDS.convert(24, TimeUnit.HOURS);
-    Event event = calendarEvent.getEvent();
-    long duration = TimeUnit.MILLISECONDS.convert(event.getDuration(), TimeUnit.HOURS);
-
-    return initDay + duration >= endDay;
+  // Adds a segment from startMinute to endMinute, excluded, making it at least minMinutes long without leaving its day
+  private static void addDaySegment(Segments segments, int color, int day, int startMinute, int endMinute, int numDays, int minMinutes) {
+    if (day < 0 || day >= numDays) {
+      return;
+    }
+    if (endMinute - startMinute < minMinutes) {
+      // First try extending the end but not past midnight, if it's still too small move the start back
+      endMinute = Math.min(startMinute + minMinutes, DAY_IN_MINUTES);
+      startMinute = Math.max(endMinute - minMinutes, 0);
+    }
+    segments.add(day, startMinute, endMinute, color);
   }
 
   /**
-   * Try to get a strand of the given color. Create it if it doesn't exist.
+   * Splits the segments of each day at every start and end, so the pieces don't overlap. A piece covered by segments of a single color keeps that
+   * color, a piece covered by more than one color becomes a conflict. Pieces next to each other with the same color are merged back. The result is
+   * sorted by day and start.
    */
-  private static EventStrand getOrCreateStrand(HashMap<Integer, EventStrand> strands, int color) {
-    EventStrand strand = strands.get(color);
-    if (strand == null) {
-      strand = new EventStrand();
-      strand.color = color;
-      strand.count = 0;
-      strands.put(strand.color, strand);
+  private static Segments resolveConflicts(Segments segments, int numDays) {
+    // Group the segments by day in the same counting pass used for the day index of the events
+    int[] dayOffsets = new int[numDays + 1];
+    for (int i = 0; i < segments.size; i++) {
+      dayOffsets[segments.days[i] + 1]++;
+    }
+    for (int day = 0; day < numDays; day++) {
+      dayOffsets[day + 1] += dayOffsets[day];
+    }
+    int[] byDay = new int[segments.size];
+    int[] next = new int[numDays];
+    System.arraycopy(dayOffsets, 0, next, 0, numDays);
+    for (int i = 0; i < segments.size; i++) {
+      byDay[next[segments.days[i]]++] = i;
     }
-    return strand;
+
+    Segments resolved = new Segments(segments.size * 2);
+    int[] boundaries = new int[segments.size * 2];
+    for (int day = 0; day < numDays; day++) {
+      int from = dayOffsets[day];
+      int to = dayOffsets[day + 1];
+      int numBoundaries = 0;
+      for (int k = from; k < to; k++) {
+        boundaries[numBoundaries++] = segments.starts[byDay[k]];
+        boundaries[numBoundaries++] = segments.ends[byDay[k]];
+      }
+      Arrays.sort(boundaries, 0, numBoundaries);
+
+      // Shifts rarely overlap more than a couple at a time, so each piece just checks every segment of its day
+      for (int b = 0; b + 1 < numBoundaries; b++) {
+        int start = boundaries[b];
+        int end = boundaries[b + 1];
+        if (start == end) {
+          continue;
+        }
+        boolean covered = false;
+        int color = 0;
+        for (int k = from; k < to; k++) {
+          int i = byDay[k];
+          if (segments.starts[i] <= start && segments.ends[i] >= end) {
+            if (!covered) {
+              covered = true;
+              color = segments.colors[i];
+            } else if (segments.colors[i] != color) {
+              color = CONFLICT_COLOR;
+            }
+          }
+        }
+        if (!covered) {
+          continue;
+        }
+        int last = resolved.size - 1;
+        if (last >= 0 && resolved.days[last] == day && resolved.colors[last] == color && resolved.ends[last] == start) {
+          resolved.ends[last] = end;
+        } else {
+          resolved.add(day, start, end, color);
+        }
+      }
+    }
+    return resolved;
   }
 
-  public static ArrayList<Event> getMyEvents(Cursor cursor) {
-    ArrayList<Event> events = new ArrayList<Event>();
+  // This groups the segments by color and computes the points to draw each one
+  private static EventStrand[] weaveDNAStrands(Segments segments, int top, int bottom, int[] dayXs) {
+    // Count the segments of each color first, so each strand gets a buffer of the right size. There are only a few colors.
+    int[] colors = new int[segments.size];
+    int[] counts = new int[segments.size];
+    int[] strandOf = new int[segments.size];
+    int numStrands = 0;
+    int conflictStrand = -1;
+    for (int i = 0; i < segments.size; i++) {
+      int color = segments.colors[i];
+      int strand = 0;
+      while (strand < numStrands && colors[strand] != color) {
+        strand++;
+      }
+      if (strand == numStrands) {
+        colors[numStrands++] = color;
+        if (color == CONFLICT_COLOR) {
+          conflictStrand = strand;
+        }
+      }
+      counts[strand]++;
+      strandOf[i] = strand;
+    }
 
-    if (cursor != null && cursor.getCount() > 0) {
-      while (cursor.moveToNext()) {
-        events.add(createEventFromCursor(cursor));
+    // Draw black last to make sure it's on top
+    EventStrand[] strands = new EventStrand[numStrands];
+    int[] order = new int[numStrands];
+    int position = 0;
+    for (int strand = 0; strand < numStrands; strand++) {
+      if (strand != conflictStrand) {
+        order[strand] = position++;
       }
     }
+    if (conflictStrand != -1) {
+      order[conflictStrand] = position;
+    }
+    for (int strand = 0; strand < numStrands; strand++) {
+      EventStrand eventStrand = new EventStrand();
+      eventStrand.color = colors[strand];
+      eventStrand.points = new float[counts[strand] * 4];
+      strands[order[strand]] = eventStrand;
+    }
 
-    return events;
+    int height = bottom - top;
+    int workDayHeight = height * 3 / 4;
+    int remainderHeight = (height - workDayHeight) / 2;
+    for (int i = 0; i < segments.size; i++) {
+      EventStrand strand = strands[order[strandOf[i]]];
+      int x = dayXs[segments.days[i]];
+      strand.points[strand.position++] = x;
+      strand.points[strand.position++] = top + getPixelOffsetFromMinutes(segments.starts[i], workDayHeight, remainderHeight);
+      strand.points[strand.position++] = x;
+      strand.points[strand.position++] = top + getPixelOffsetFromMinutes(segments.ends[i], workDayHeight, remainderHeight);
+    }
+    return strands;
   }
 
-  public static Event createEventFromCursor(Cursor cursor) {
-    Event event = new Event();
-    event.setId(cursor.getInt(cursor.getColumnIndex(DBConstants.ID)));
-    event.setName(cursor.getString(cursor.getColumnIndex(DBConstants.NAME)));
-    event.setDescription(cursor.getString(cursor.getColumnIndex(DBConstants.DESCRIPTION)));
-    event.setStartTime(cursor.getLong(cursor.getColumnIndex(DBConstants.START)));
-    event.setDuration(cursor.getLong(cursor.getColumnIndex(DBConstants.DURATION)));
-    event.setLocation(cursor.getString(cursor.getColumnIndex(DBConstants.LOCATION)));
-    event.setColor(cursor.getInt(cursor.getColumnIndex(DBConstants.COLOR)));
-
-    return event;
+  /**
+   * Compute a pixel offset from the top for a given minute from the work day height and the height of the top area.
+   */
+  private static long getPixelOffsetFromMinutes(long minute, int workDayHeight, int remainderHeight) {
+    long y;
+    if (minute < WORK_DAY_START_MINUTES) {
+      y = minute * remainderHeight / WORK_DAY_START_MINUTES;
+    } else if (minute < WORK_DAY_END_MINUTES) {
+      y = remainderHeight + (minute - WORK_DAY_START_MINUTES) * workDayHeight / WORK_DAY_MINUTES;
+    } else {
+      y = remainderHeight + workDayHeight + (minute - WORK_DAY_END_MINUTES) * remainderHeight / WORK_DAY_END_LENGTH;
+    }
+    return y;
   }
 
   public static String convertToRGB(int color) {
@@ -524,20 +383,42 @@ public class Utils {
   }
 
   // A single strand represents one color of events. Events are divided up by color to make them convenient to draw. The black strand is special in
-  // that it holds conflicting events as well as color settings for allday on each day.
+  // that it holds conflicting events.
   public static class EventStrand {
     public float[] points;
-    //    public int[]   allDays; // color for the allday, 0 means no event
     public int     color;
     int position;
-    int count;
   }
 
-  // A segment is a single continuous length of time occupied by a single color. Segments should never span multiple days.
-  private static class EventSegment {
-    long startMinute; // in minutes since the start of the week
-    long endMinute;
-    int  color; // Calendar color or black for conflicts
-    long day; // quick reference to the day this segment is on
+  // The segments of a week in parallel arrays. A segment is a single continuous length of time occupied by a single color, from start to end excluded,
+  // in minutes since midnight. Segments never span multiple days.
+  private static class Segments {
+    int   size;
+    int[] days; // the day each segment is on, 0 being firstJulianDay
+    int[] starts;
+    int[] ends;
+    int[] colors; // Calendar color or black for conflicts
+
+    Segments(int capacity) {
+      capacity = Math.max(capacity, 1);
+      days = new int[capacity];
+      starts = new int[capacity];
+      ends = new int[capacity];
+      colors = new int[capacity];
+    }
+
+    void add(int day, int start, int end, int color) {
+      if (size == days.length) {
+        days = Arrays.copyOf(days, size * 2);
+        starts = Arrays.copyOf(starts, size * 2);
+        ends = Arrays.copyOf(ends, size * 2);
+        colors = Arrays.copyOf(colors, size * 2);
+      }
+      days[size] = day;
+      starts[size] = start;
+      ends[size] = end;
+      colors[size] = color;
+      size++;
+    }
   }
 }
@@ -0,0 +1,142 @@
+package es.android.TurnosAndroid.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Sweep line that puts overlapping events side by side. Events are visited by start time; the ones that have already ended are taken out of a
+ * min-heap ordered by end time and give their column back, and each new event takes the lowest free column. A group is a run of events linked by
+ * overlaps, and all its events get the number of columns the group needed.
+ * <p/>
+ * The free columns are a bitmap on a long array that grows as needed, so there is no limit on how many events can overlap. The whole layout is
+ * O(n log n) for n events. It works on arrays of start and end minutes, so {@link EventRenderModel} can run it in the loader thread without
+ * touching the events.
+ */
+final class ColumnLayout {
+  private ColumnLayout() {
+  }
+
+  /**
+   * Sets the column and max columns of every event, given their start and end in minutes. Nothing is read or written but the arrays, so it can
+   * run in any thread.
+   *
+   * @param starts     the start of each event, in any order
+   * @param ends       the end of each event, already stretched to the minimum duration it is drawn with
+   * @param count      how many events there are
+   * @param columns    where the column of each event is written
+   * @param maxColumns where the number of columns of the group of each event is written
+   */
+  static void layout(final long[] starts, final long[] ends, int count, int[] columns, int[] maxColumns) {
+    if (count == 0) {
+      return;
+    }
+
+    Integer[] sorted = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      sorted[i] = i;
+    }
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        long lhsStart = starts[lhs];
+        long rhsStart = starts[rhs];
+        if (lhsStart != rhsStart) {
+          return lhsStart < rhsStart ? -1 : 1;
+        }
+        // Longer events first, so they get the leftmost columns
+        long lhsEnd = ends[lhs];
+        long rhsEnd = ends[rhs];
+        return lhsEnd > rhsEnd ? -1 : (lhsEnd == rhsEnd ? 0 : 1);
+      }
+    });
+
+    // Indexes of the events still going on, as a binary min-heap on their end
+    int[] active = new int[count];
+    int numActive = 0;
+    long[] usedColumns = new long[1];
+    int groupStart = 0;
+    int groupColumns = 0;
+
+    for (int i = 0; i < count; i++) {
+      int event = sorted[i];
+      long start = starts[event];
+
+      // Free the columns of the events that have ended
+      while (numActive > 0 && ends[active[0]] <= start) {
+        int column = columns[active[0]];
+        usedColumns[column >>> 6] &= ~(1L << column);
+        numActive = removeFirst(active, numActive, ends);
+      }
+
+      // Nothing overlaps this event anymore, so the previous group is complete
+      if (numActive == 0) {
+        setMaxColumns(sorted, groupStart, i, groupColumns, maxColumns);
+        groupStart = i;
+        groupColumns = 0;
+      }
+
+      int column = findFirstZeroBit(usedColumns);
+      if (column >>> 6 == usedColumns.length) {
+        usedColumns = Arrays.copyOf(usedColumns, usedColumns.length * 2);
+      }
+      usedColumns[column >>> 6] |= 1L << column;
+      columns[event] = column;
+      groupColumns = Math.max(groupColumns, column + 1);
+
+      numActive = add(active, numActive, ends, event);
+    }
+    setMaxColumns(sorted, groupStart, count, groupColumns, maxColumns);
+  }
+
+  private static void setMaxColumns(Integer[] sorted, int from, int to, int groupColumns, int[] maxColumns) {
+    for (int i = from; i < to; i++) {
+      maxColumns[sorted[i]] = groupColumns;
+    }
+  }
+
+  private static int findFirstZeroBit(long[] bits) {
+    for (int word = 0; word < bits.length; word++) {
+      if (bits[word] != -1L) {
+        return (word << 6) + Long.numberOfTrailingZeros(~bits[word]);
+      }
+    }
+    return bits.length << 6;
+  }
+
+  private static int add(int[] heap, int size, long[] keys, int value) {
+    int position = size;
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      if (keys[heap[parent]] <= keys[value]) {
+        break;
+      }
+      heap[position] = heap[parent];
+      position = parent;
+    }
+    heap[position] = value;
+    return size + 1;
+  }
+
+  private static int removeFirst(int[] heap, int size, long[] keys) {
+    int last = heap[--size];
+    int position = 0;
+    while (true) {
+      int child = 2 * position + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+        child++;
+      }
+      if (keys[last] <= keys[heap[child]]) {
+        break;
+      }
+      heap[position] = heap[child];
+      position = child;
+    }
+    if (size > 0) {
+      heap[position] = last;
+    }
+    return size;
+  }
+}
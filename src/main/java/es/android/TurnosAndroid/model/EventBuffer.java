@@ -0,0 +1,194 @@
+package es.android.TurnosAndroid.model;
+
+import android.database.Cursor;
+import es.android.TurnosAndroid.database.DBConstants;
+import es.android.TurnosAndroid.database.EventCatalog;
+import es.android.TurnosAndroid.helpers.JulianDay;
+
+import java.util.Arrays;
+
+/**
+ * The calendar days of a range of dates stored by column, one primitive array per field, instead of one object per row. Row i is read with the
+ * getters taking an index. Rows keep the order they were added in, which for a cursor from {@link es.android.TurnosAndroid.database.CalendarEventsQuery}
+ * is by date.
+ * <p/>
+ * What the event of a day is, its name, hours and colour, is not copied on every day it is on: each row points to the shared
+ * {@link EventDefinition} of its event.
+ * <p/>
+ * Once filled, {@link #indexDays} builds an index of the rows by day in compressed sparse row form: the rows of the indexed day d are
+ * {@code getDayRow(getDayStart(d))} to {@code getDayRow(getDayEnd(d) - 1)}. Views read a day or a week through it without copying anything.
+ */
+public class EventBuffer {
+  private static final int INITIAL_CAPACITY = 16;
+  private int               size;
+  private long[]            ids;
+  private long[]            dates;
+  private int[]             julianDays;
+  private EventDefinition[] definitions;
+  private int               firstIndexedDay;
+  // dayOffsets[d] is where the rows of day firstIndexedDay + d start in dayRows, dayOffsets has one more entry than days indexed
+  private int[]             dayOffsets;
+  private int[]             dayRows;
+
+  public EventBuffer() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public EventBuffer(int capacity) {
+    capacity = Math.max(capacity, 1);
+    ids = new long[capacity];
+    dates = new long[capacity];
+    julianDays = new int[capacity];
+    definitions = new EventDefinition[capacity];
+  }
+
+  /**
+   * Reads every row of a cursor with the {@link DBConstants#MONTH_PROJECTION} columns, looking the event of each one up in the catalog. Rows whose
+   * event doesn't exist, as the ones marking a day off, are left out. The Julian day of each row is computed in the given time zone.
+   */
+  public static EventBuffer fromCursor(Cursor cursor, String timezone, EventCatalog catalog) {
+    EventBuffer buffer = new EventBuffer(cursor == null ? 0 : cursor.getCount());
+    if (cursor == null) {
+      return buffer;
+    }
+
+    int idColumn = cursor.getColumnIndex(DBConstants.ID);
+    int dateColumn = cursor.getColumnIndex(DBConstants.DATE);
+    int eventIdColumn = cursor.getColumnIndex(DBConstants.EVENT_ID);
+
+    cursor.moveToPosition(-1);
+    while (cursor.moveToNext()) {
+      EventDefinition definition = catalog.get(cursor.getLong(eventIdColumn));
+      if (definition != null) {
+        long date = cursor.getLong(dateColumn);
+        buffer.add(cursor.getLong(idColumn), date, JulianDay.fromMillis(date, timezone), definition);
+      }
+    }
+    return buffer;
+  }
+
+  public void add(long id, long date, int julianDay, EventDefinition definition) {
+    if (size == ids.length) {
+      grow(size * 2);
+    }
+    ids[size] = id;
+    dates[size] = date;
+    julianDays[size] = julianDay;
+    definitions[size] = definition;
+    size++;
+  }
+
+  /**
+   * Appends row index of another buffer.
+   */
+  public void add(EventBuffer other, int index) {
+    add(other.ids[index], other.dates[index], other.julianDays[index], other.definitions[index]);
+  }
+
+  /**
+   * Indexes the rows by day, from firstJulianDay to firstJulianDay + numDays - 1, in a counting pass over the rows. Rows on other days are left
+   * out of the index. Rows must not be added afterwards.
+   */
+  public void indexDays(int firstJulianDay, int numDays) {
+    int[] offsets = new int[numDays + 1];
+    for (int i = 0; i < size; i++) {
+      int day = julianDays[i] - firstJulianDay;
+      if (day >= 0 && day < numDays) {
+        offsets[day + 1]++;
+      }
+    }
+    for (int day = 0; day < numDays; day++) {
+      offsets[day + 1] += offsets[day];
+    }
+
+    int[] rows = new int[offsets[numDays]];
+    int[] next = new int[numDays];
+    System.arraycopy(offsets, 0, next, 0, numDays);
+    for (int i = 0; i < size; i++) {
+      int day = julianDays[i] - firstJulianDay;
+      if (day >= 0 && day < numDays) {
+        rows[next[day]++] = i;
+      }
+    }
+
+    firstIndexedDay = firstJulianDay;
+    dayOffsets = offsets;
+    dayRows = rows;
+  }
+
+  /**
+   * Returns whether every day from firstJulianDay to firstJulianDay + numDays - 1 is in the day index.
+   */
+  public boolean isIndexed(int firstJulianDay, int numDays) {
+    return dayOffsets != null && firstJulianDay >= firstIndexedDay && firstJulianDay + numDays <= firstIndexedDay + dayOffsets.length - 1;
+  }
+
+  /**
+   * Returns the position in the day index of the first row of a day. Days outside the index have no rows.
+   */
+  public int getDayStart(int julianDay) {
+    return dayOffsets[clampToIndex(julianDay)];
+  }
+
+  /**
+   * Returns the position in the day index after the last row of a day.
+   */
+  public int getDayEnd(int julianDay) {
+    int day = julianDay - firstIndexedDay;
+    return day >= 0 && day < dayOffsets.length - 1 ? dayOffsets[day + 1] : getDayStart(julianDay);
+  }
+
+  /**
+   * Returns the row at a position of the day index.
+   */
+  public int getDayRow(int position) {
+    return dayRows[position];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long getId(int index) {
+    return ids[index];
+  }
+
+  public long getEventId(int index) {
+    return definitions[index].getId();
+  }
+
+  public long getDate(int index) {
+    return dates[index];
+  }
+
+  public int getJulianDay(int index) {
+    return julianDays[index];
+  }
+
+  public int getStartTime(int index) {
+    return definitions[index].getStartTime();
+  }
+
+  public int getDuration(int index) {
+    return definitions[index].getDuration();
+  }
+
+  public int getColor(int index) {
+    return definitions[index].getColor();
+  }
+
+  public String getName(int index) {
+    return definitions[index].getName();
+  }
+
+  private int clampToIndex(int julianDay) {
+    return Math.min(Math.max(julianDay - firstIndexedDay, 0), dayOffsets.length - 1);
+  }
+
+  private void grow(int capacity) {
+    ids = Arrays.copyOf(ids, capacity);
+    dates = Arrays.copyOf(dates, capacity);
+    julianDays = Arrays.copyOf(julianDays, capacity);
+    definitions = Arrays.copyOf(definitions, capacity);
+  }
+}
@@ -0,0 +1,55 @@
+package es.android.TurnosAndroid.model;
+
+/**
+ * What an event is, as stored in the events table: its name, hours, place and colour. Every day an event is on points to the same definition, from
+ * {@link es.android.TurnosAndroid.database.EventCatalog}, so the days only store the date and the event id.
+ * <p/>
+ * Nothing changes after it is built; an edited event gets a new definition.
+ */
+public final class EventDefinition {
+  private final long   id;
+  private final String name;
+  private final String description;
+  private final int    startTime; // minutes since midnight
+  private final int    duration;  // minutes
+  private final String location;
+  private final int    color;
+
+  public EventDefinition(long id, String name, String description, int startTime, int duration, String location, int color) {
+    this.id = id;
+    this.name = name;
+    this.description = description;
+    this.startTime = startTime;
+    this.duration = duration;
+    this.location = location;
+    this.color = color;
+  }
+
+  public long getId() {
+    return id;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public int getStartTime() {
+    return startTime;
+  }
+
+  public int getDuration() {
+    return duration;
+  }
+
+  public String getLocation() {
+    return location;
+  }
+
+  public int getColor() {
+    return color;
+  }
+}
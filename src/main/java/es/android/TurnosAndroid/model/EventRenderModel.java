@@ -0,0 +1,227 @@
+package es.android.TurnosAndroid.model;
+
+import java.util.ArrayList;
+
+/**
+ * The events of a range of days laid out for the day and week views, built in the loader thread. Each event gets its column among the ones it
+ * overlaps and a rectangle in minutes and fractions of the day cell, so drawing only scales it to the current cell size: zooming and scrolling
+ * never lay the events out again.
+ * <p/>
+ * Nothing changes after it is built. Events are grouped by day like {@link EventBuffer}: the events of day d are
+ * {@code getDayRow(getDayStart(d))} to {@code getDayRow(getDayEnd(d) - 1)}. An {@link EventSpatialIndex} built with the layout finds them by
+ * position.
+ */
+public final class EventRenderModel {
+  private static final int MINUTES_PER_DAY = 24 * 60;
+  private final int              firstJulianDay;
+  private final ArrayList<Event> events;
+  private final int[]            columns;
+  private final int[]            maxColumns;
+  // The rectangle of each event: minutes since midnight from top to bottom, and fractions of the width of the day from left to right
+  private final float[]          tops;
+  private final float[]          bottoms;
+  private final float[]          lefts;
+  private final float[]          widths;
+  // dayOffsets[d] is where the events of day firstJulianDay + d start in dayRows
+  private final int[]            dayOffsets;
+  private final int[]            dayRows;
+  private final EventSpatialIndex index;
+
+  private EventRenderModel(int firstJulianDay, ArrayList<Event> events, int[] columns, int[] maxColumns, float[] tops, float[] bottoms, float[] lefts,
+                           float[] widths, int[] dayOffsets, int[] dayRows, EventSpatialIndex index) {
+    this.firstJulianDay = firstJulianDay;
+    this.events = events;
+    this.columns = columns;
+    this.maxColumns = maxColumns;
+    this.tops = tops;
+    this.bottoms = bottoms;
+    this.lefts = lefts;
+    this.widths = widths;
+    this.dayOffsets = dayOffsets;
+    this.dayRows = dayRows;
+    this.index = index;
+  }
+
+  /**
+   * Lays out the events of numDays days from firstJulianDay. Events on other days are kept but not laid out. The list must not change afterwards.
+   *
+   * @param minimumDuration events shorter than this, in minutes, are laid out as if they lasted this long, since they are drawn that tall. It
+   *                        should be the duration the minimum event height stands for at the smallest zoom, so no zoom makes events overlap.
+   */
+  public static EventRenderModel build(ArrayList<Event> events, int firstJulianDay, int numDays, long minimumDuration) {
+    int numEvents = events.size();
+    int[] offsets = new int[numDays + 1];
+    for (int i = 0; i < numEvents; i++) {
+      int day = (int) (events.get(i).getStartDay() - firstJulianDay);
+      if (day >= 0 && day < numDays) {
+        offsets[day + 1]++;
+      }
+    }
+    for (int day = 0; day < numDays; day++) {
+      offsets[day + 1] += offsets[day];
+    }
+
+    int[] rows = new int[offsets[numDays]];
+    int[] next = new int[numDays];
+    System.arraycopy(offsets, 0, next, 0, numDays);
+    long[] starts = new long[numEvents];
+    long[] ends = new long[numEvents];
+    float[] tops = new float[numEvents];
+    float[] bottoms = new float[numEvents];
+    // The extent each event was laid out with, in minutes since midnight
+    float[] layoutEnds = new float[numEvents];
+    for (int i = 0; i < numEvents; i++) {
+      Event event = events.get(i);
+      int day = (int) (event.getStartDay() - firstJulianDay);
+      if (day < 0 || day >= numDays) {
+        continue;
+      }
+      rows[next[day]++] = i;
+
+      // Events that go on past midnight are cut there
+      long startTime = event.getStartTime();
+      long endTime = Math.min(startTime + event.getDuration(), MINUTES_PER_DAY);
+      tops[i] = startTime;
+      bottoms[i] = endTime;
+      starts[i] = day * MINUTES_PER_DAY + startTime;
+      ends[i] = starts[i] + Math.max(endTime - startTime, minimumDuration);
+      layoutEnds[i] = ends[i] - day * MINUTES_PER_DAY;
+    }
+
+    // Only the events of the range take part in the layout
+    int numRows = rows.length;
+    long[] rowStarts = new long[numRows];
+    long[] rowEnds = new long[numRows];
+    for (int i = 0; i < numRows; i++) {
+      rowStarts[i] = starts[rows[i]];
+      rowEnds[i] = ends[rows[i]];
+    }
+    int[] rowColumns = new int[numRows];
+    int[] rowMaxColumns = new int[numRows];
+    ColumnLayout.layout(rowStarts, rowEnds, numRows, rowColumns, rowMaxColumns);
+
+    int[] columns = new int[numEvents];
+    int[] maxColumns = new int[numEvents];
+    float[] lefts = new float[numEvents];
+    float[] widths = new float[numEvents];
+    float[] rights = new float[numEvents];
+    for (int i = 0; i < numRows; i++) {
+      int event = rows[i];
+      columns[event] = rowColumns[i];
+      maxColumns[event] = rowMaxColumns[i];
+      lefts[event] = (float) rowColumns[i] / rowMaxColumns[i];
+      widths[event] = 1.0f / rowMaxColumns[i];
+      rights[event] = (float) (rowColumns[i] + 1) / rowMaxColumns[i];
+    }
+
+    EventSpatialIndex index = EventSpatialIndex.build(firstJulianDay, offsets, rows, tops, layoutEnds, lefts, rights);
+    return new EventRenderModel(firstJulianDay, events, columns, maxColumns, tops, bottoms, lefts, widths, offsets, rows, index);
+  }
+
+  /**
+   * Copies the columns into the events, for the code that still reads them from there. Must be called from the UI thread, the events may be shared
+   * with other views.
+   */
+  public void applyColumns() {
+    for (int i = 0; i < events.size(); i++) {
+      Event event = events.get(i);
+      event.setColumn(columns[i]);
+      event.setMaxColumns(maxColumns[i]);
+    }
+  }
+
+  public ArrayList<Event> getEvents() {
+    return events;
+  }
+
+  public int size() {
+    return events.size();
+  }
+
+  public Event getEvent(int index) {
+    return events.get(index);
+  }
+
+  public EventSpatialIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * Returns the index of an event in the model, or -1 if it is not laid out here. Only the events of its day are looked at.
+   */
+  public int indexOf(Event event) {
+    int julianDay = (int) event.getStartDay();
+    for (int position = getDayStart(julianDay); position < getDayEnd(julianDay); position++) {
+      if (events.get(dayRows[position]) == event) {
+        return dayRows[position];
+      }
+    }
+    return -1;
+  }
+
+  public int getFirstJulianDay() {
+    return firstJulianDay;
+  }
+
+  /**
+   * Returns the position in dayRows of the first event of a day. Days outside the range have no events.
+   */
+  public int getDayStart(int julianDay) {
+    return dayOffsets[clampToRange(julianDay)];
+  }
+
+  /**
+   * Returns the position in dayRows after the last event of a day.
+   */
+  public int getDayEnd(int julianDay) {
+    int day = julianDay - firstJulianDay;
+    return day >= 0 && day < dayOffsets.length - 1 ? dayOffsets[day + 1] : getDayStart(julianDay);
+  }
+
+  /**
+   * Returns the index of the event at a position of the day rows.
+   */
+  public int getDayRow(int position) {
+    return dayRows[position];
+  }
+
+  public int getColumn(int index) {
+    return columns[index];
+  }
+
+  public int getMaxColumns(int index) {
+    return maxColumns[index];
+  }
+
+  /**
+   * Minutes since midnight the rectangle of an event starts at.
+   */
+  public float getTop(int index) {
+    return tops[index];
+  }
+
+  /**
+   * Minutes since midnight the rectangle of an event ends at, before stretching it to the minimum height.
+   */
+  public float getBottom(int index) {
+    return bottoms[index];
+  }
+
+  /**
+   * Where the rectangle of an event starts, as a fraction of the width of its day.
+   */
+  public float getLeft(int index) {
+    return lefts[index];
+  }
+
+  /**
+   * The width of the rectangle of an event, as a fraction of the width of its day.
+   */
+  public float getWidth(int index) {
+    return widths[index];
+  }
+
+  private int clampToRange(int julianDay) {
+    return Math.min(Math.max(julianDay - firstJulianDay, 0), dayOffsets.length - 1);
+  }
+}
@@ -0,0 +1,233 @@
+package es.android.TurnosAndroid.model;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Finds the events of an {@link EventRenderModel} by position, in minutes and fractions of the day width, so nothing here depends on the zoom.
+ * Each day keeps its events sorted by start, with the latest end seen so far, and sorted by end: the events at a time are found with a binary search
+ * and a walk back that stops once nothing earlier can reach it, and the event above or below another with a binary search and a walk over the
+ * columns that don't overlap it.
+ * <p/>
+ * The extent of an event is the one it was laid out with, stretched to the minimum duration. Built in the loader thread with the model; the
+ * neighbours are looked up in the UI thread and remembered in a side table.
+ */
+public final class EventSpatialIndex {
+  public static final  int UP        = 0;
+  public static final  int DOWN      = 1;
+  public static final  int LEFT      = 2;
+  public static final  int RIGHT     = 3;
+  private static final int NONE      = -1;
+  private static final int UNKNOWN   = -2;
+  private final int     firstJulianDay;
+  // Same day offsets as the model, for both orders
+  private final int[]   dayOffsets;
+  private final int[]   byStart;
+  // maxEnds[p] is the latest end of the events from the start of the day up to position p of byStart
+  private final float[] maxEnds;
+  private final int[]   byEnd;
+  private final float[] starts;
+  private final float[] ends;
+  private final float[] lefts;
+  private final float[] rights;
+  // The day of each event from firstJulianDay, NONE for the ones outside the range
+  private final int[]   days;
+  // The neighbour of event i in direction d is neighbors[4 * i + d], NONE if there is none, UNKNOWN until it is looked for
+  private final int[]   neighbors;
+
+  private EventSpatialIndex(int firstJulianDay, int[] dayOffsets, int[] byStart, float[] maxEnds, int[] byEnd, float[] starts, float[] ends,
+                            float[] lefts, float[] rights, int[] days) {
+    this.firstJulianDay = firstJulianDay;
+    this.dayOffsets = dayOffsets;
+    this.byStart = byStart;
+    this.maxEnds = maxEnds;
+    this.byEnd = byEnd;
+    this.starts = starts;
+    this.ends = ends;
+    this.lefts = lefts;
+    this.rights = rights;
+    this.days = days;
+    neighbors = new int[4 * starts.length];
+    Arrays.fill(neighbors, UNKNOWN);
+  }
+
+  /**
+   * Indexes the events of each day. dayRows holds the events of day firstJulianDay + d from dayOffsets[d] to dayOffsets[d + 1]; the other arrays
+   * are by event.
+   */
+  static EventSpatialIndex build(int firstJulianDay, int[] dayOffsets, int[] dayRows, final float[] starts, final float[] ends, float[] lefts,
+                                 float[] rights) {
+    int numDays = dayOffsets.length - 1;
+    int[] byStart = sort(dayOffsets, dayRows, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        return Float.compare(starts[lhs], starts[rhs]);
+      }
+    });
+    int[] byEnd = sort(dayOffsets, dayRows, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer lhs, Integer rhs) {
+        return Float.compare(ends[lhs], ends[rhs]);
+      }
+    });
+
+    float[] maxEnds = new float[byStart.length];
+    for (int day = 0; day < numDays; day++) {
+      float maxEnd = Float.NEGATIVE_INFINITY;
+      for (int position = dayOffsets[day]; position < dayOffsets[day + 1]; position++) {
+        maxEnd = Math.max(maxEnd, ends[byStart[position]]);
+        maxEnds[position] = maxEnd;
+      }
+    }
+    int[] days = new int[starts.length];
+    Arrays.fill(days, NONE);
+    for (int day = 0; day < numDays; day++) {
+      for (int position = dayOffsets[day]; position < dayOffsets[day + 1]; position++) {
+        days[dayRows[position]] = day;
+      }
+    }
+    return new EventSpatialIndex(firstJulianDay, dayOffsets, byStart, maxEnds, byEnd, starts, ends, lefts, rights, days);
+  }
+
+  /**
+   * Writes into out the events of a day that reach from fromMinute to toMinute, both included, and returns how many there are. Out must have room
+   * for every event of the model.
+   */
+  public int findEvents(int julianDay, float fromMinute, float toMinute, int[] out) {
+    int day = julianDay - firstJulianDay;
+    if (day < 0 || day >= dayOffsets.length - 1) {
+      return 0;
+    }
+
+    int count = 0;
+    int dayStart = dayOffsets[day];
+    // Everything after the last event starting by toMinute starts too late, and the walk back ends when no earlier event lasts until fromMinute
+    for (int position = upperBound(byStart, starts, dayStart, dayOffsets[day + 1], toMinute) - 1;
+         position >= dayStart && maxEnds[position] >= fromMinute; position--) {
+      int event = byStart[position];
+      if (ends[event] >= fromMinute) {
+        out[count++] = event;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the event next to another one in a direction, {@link #UP}, {@link #DOWN}, {@link #LEFT} or {@link #RIGHT}, or -1 if there is none.
+   * Above and below are the closest events in time that share part of its width, left and right the closest ones beside it that overlap it in
+   * time. Must be called from the UI thread.
+   */
+  public int getNeighbor(int event, int direction) {
+    int neighbor = neighbors[4 * event + direction];
+    if (neighbor == UNKNOWN) {
+      neighbor = findNeighbor(event, direction);
+      neighbors[4 * event + direction] = neighbor;
+    }
+    return neighbor;
+  }
+
+  private int findNeighbor(int event, int direction) {
+    int day = days[event];
+    if (day == NONE) {
+      return NONE;
+    }
+    int dayStart = dayOffsets[day];
+    int dayEnd = dayOffsets[day + 1];
+
+    switch (direction) {
+      case UP:
+        // The latest end by the time this one starts
+        for (int position = upperBound(byEnd, ends, dayStart, dayEnd, starts[event]) - 1; position >= dayStart; position--) {
+          int candidate = byEnd[position];
+          if (candidate != event && overlapsHorizontally(event, candidate)) {
+            return candidate;
+          }
+        }
+        return NONE;
+      case DOWN:
+        // The earliest start once this one ends
+        for (int position = lowerBound(byStart, starts, dayStart, dayEnd, ends[event]); position < dayEnd; position++) {
+          int candidate = byStart[position];
+          if (candidate != event && overlapsHorizontally(event, candidate)) {
+            return candidate;
+          }
+        }
+        return NONE;
+      default:
+        return findBeside(event, direction == RIGHT, dayStart, dayEnd);
+    }
+  }
+
+  // The closest event to one side among the ones overlapping the event in time, the one starting closest to it if two are as close
+  private int findBeside(int event, boolean right, int dayStart, int dayEnd) {
+    int best = NONE;
+    for (int position = lowerBound(byStart, starts, dayStart, dayEnd, ends[event]) - 1;
+         position >= dayStart && maxEnds[position] > starts[event]; position--) {
+      int candidate = byStart[position];
+      if (candidate == event || ends[candidate] <= starts[event]) {
+        continue;
+      }
+      boolean beside = right ? lefts[candidate] >= rights[event] : rights[candidate] <= lefts[event];
+      if (!beside) {
+        continue;
+      }
+      if (best == NONE) {
+        best = candidate;
+        continue;
+      }
+      float distance = right ? lefts[candidate] - rights[event] : lefts[event] - rights[candidate];
+      float bestDistance = right ? lefts[best] - rights[event] : lefts[event] - rights[best];
+      if (distance < bestDistance ||
+          (distance == bestDistance && Math.abs(starts[candidate] - starts[event]) < Math.abs(starts[best] - starts[event]))) {
+        best = candidate;
+      }
+    }
+    return best;
+  }
+
+  private boolean overlapsHorizontally(int event, int other) {
+    return lefts[event] < rights[other] && lefts[other] < rights[event];
+  }
+
+  // First position from "from" whose key is at least value
+  private static int lowerBound(int[] order, float[] keys, int from, int to, float value) {
+    while (from < to) {
+      int middle = (from + to) >>> 1;
+      if (keys[order[middle]] < value) {
+        from = middle + 1;
+      } else {
+        to = middle;
+      }
+    }
+    return from;
+  }
+
+  // First position from "from" whose key is greater than value
+  private static int upperBound(int[] order, float[] keys, int from, int to, float value) {
+    while (from < to) {
+      int middle = (from + to) >>> 1;
+      if (keys[order[middle]] <= value) {
+        from = middle + 1;
+      } else {
+        to = middle;
+      }
+    }
+    return from;
+  }
+
+  // Copies the rows sorting each day on its own
+  private static int[] sort(int[] dayOffsets, int[] dayRows, Comparator<Integer> comparator) {
+    Integer[] sorted = new Integer[dayRows.length];
+    for (int i = 0; i < dayRows.length; i++) {
+      sorted[i] = dayRows[i];
+    }
+    for (int day = 0; day < dayOffsets.length - 1; day++) {
+      Arrays.sort(sorted, dayOffsets[day], dayOffsets[day + 1], comparator);
+    }
+    int[] rows = new int[dayRows.length];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = sorted[i];
+    }
+    return rows;
+  }
+}
@@ -3,16 +3,119 @@ package es.android.TurnosAndroid.model;
 /**
  * User: Jesús
  * Date: 30/12/13
+ * <p/>
+ * A repeating rotation of events. The pattern is stored once as a cycle of event ids plus the Julian day the cycle starts on, and the event of any
+ * day is computed from them instead of being written into calendarevents day by day. A cycle entry of {@link #NO_EVENT} is a day off.
  */
 public class Pattern {
-  private String id;
-  // TODO
+  public static final  int    NO_EVENT        = 0;
+  private static final String CYCLE_SEPARATOR = ",";
+  private long   id;
+  private String name;
+  // Julian day where the first entry of the cycle falls. The pattern doesn't apply before this day.
+  private int    anchorDay;
+  private int[]  cycle;
 
-  public String getId() {
+  public Pattern() {
+    id = 0;
+    name = "";
+    anchorDay = 0;
+    cycle = new int[0];
+  }
+
+  /**
+   * Returns the event id this pattern assigns to the given Julian day, or {@link #NO_EVENT} if the pattern doesn't put any event on it.
+   */
+  public int getEventId(int julianDay) {
+    int offset = julianDay - anchorDay;
+    if (offset < 0 || cycle.length == 0) {
+      return NO_EVENT;
+    }
+    return cycle[offset % cycle.length];
+  }
+
+  /**
+   * Fills eventIds with the event id of each day from startDay to startDay + eventIds.length - 1.
+   */
+  public void expand(int startDay, int[] eventIds) {
+    int numDays = eventIds.length;
+    int length = cycle.length;
+    int offset = startDay - anchorDay;
+    int i = 0;
+
+    // Days before the anchor have no event
+    while (i < numDays && offset + i < 0) {
+      eventIds[i++] = NO_EVENT;
+    }
+    if (length == 0) {
+      while (i < numDays) {
+        eventIds[i++] = NO_EVENT;
+      }
+      return;
+    }
+
+    // Walk the cycle instead of computing a modulo per day
+    int position = (offset + i) % length;
+    while (i < numDays) {
+      eventIds[i++] = cycle[position];
+      if (++position == length) {
+        position = 0;
+      }
+    }
+  }
+
+  public static int[] parseCycle(String cycle) {
+    if (cycle == null || cycle.length() == 0) {
+      return new int[0];
+    }
+    String[] values = cycle.split(CYCLE_SEPARATOR);
+    int[] result = new int[values.length];
+    for (int i = 0; i < values.length; i++) {
+      result[i] = Integer.parseInt(values[i].trim());
+    }
+    return result;
+  }
+
+  public static String formatCycle(int[] cycle) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < cycle.length; i++) {
+      if (i > 0) {
+        builder.append(CYCLE_SEPARATOR);
+      }
+      builder.append(cycle[i]);
+    }
+    return builder.toString();
+  }
+
+  public long getId() {
     return id;
   }
 
-  public void setId(String id) {
+  public void setId(long id) {
     this.id = id;
   }
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public int getAnchorDay() {
+    return anchorDay;
+  }
+
+  public void setAnchorDay(int anchorDay) {
+    this.anchorDay = anchorDay;
+  }
+
+  public int[] getCycle() {
+    return cycle;
+  }
+
+  public void setCycle(int[] cycle) {
+    this.cycle = cycle;
+  }
 }
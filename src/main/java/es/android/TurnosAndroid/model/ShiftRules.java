@@ -0,0 +1,242 @@
+package es.android.TurnosAndroid.model;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Checks the shifts of a calendar against the rules of a roster: two shifts must not overlap, and between shifts starting on different days there
+ * must be {@link #MIN_REST_MINUTES} of rest. Shifts starting on the same day are one working day, split, and only have to not overlap.
+ * <p/>
+ * Shifts are kept sorted by when they start, in minutes of the local clock from the start of Julian day 0, so every rule is checked between a shift
+ * and the next one only. Adding or removing a shift checks again the pairs around it, a couple of lookups in the tree, so a whole roster is checked
+ * with a number of checks that grows linearly with its shifts. An overlap is found on the first pair it makes: a shift that overlaps the one after
+ * the next also overlaps the next one.
+ * <p/>
+ * Not thread safe; the violations it returns are copies that can be handed to other threads.
+ */
+public final class ShiftRules {
+  public static final  int                  OVERLAP          = 1;
+  public static final  int                  SHORT_REST       = 2;
+  // Between the end of a working day and the start of the next one, as the Estatuto de los Trabajadores sets
+  public static final  int                  MIN_REST_MINUTES = 12 * 60;
+  private static final int                  MINUTES_PER_DAY  = 24 * 60;
+  private static final Comparator<Shift>    START_COMPARATOR = new Comparator<Shift>() {
+    @Override
+    public int compare(Shift lhs, Shift rhs) {
+      if (lhs.start != rhs.start) {
+        return lhs.start < rhs.start ? -1 : 1;
+      }
+      return lhs.id < rhs.id ? -1 : (lhs.id == rhs.id ? 0 : 1);
+    }
+  };
+  private final TreeSet<Shift>            shifts;
+  // By the first shift of each pair breaking a rule
+  private final TreeMap<Shift, Violation> violations;
+
+  public ShiftRules() {
+    shifts = new TreeSet<Shift>(START_COMPARATOR);
+    violations = new TreeMap<Shift, Violation>(START_COMPARATOR);
+  }
+
+  /**
+   * A shift on the calendar. Two shifts are the same one when they have the same id and start; rows generated from the same pattern share their
+   * id, but not their day.
+   */
+  public static final class Shift {
+    private final long   id;
+    private final int    julianDay;
+    // Minutes of the local clock from the start of Julian day 0
+    private final long   start;
+    private final long   end;
+    private final String name;
+    private final int    color;
+
+    public Shift(long id, int julianDay, int startTime, int duration, String name, int color) {
+      this.id = id;
+      this.julianDay = julianDay;
+      this.start = (long) julianDay * MINUTES_PER_DAY + startTime;
+      this.end = start + duration;
+      this.name = name;
+      this.color = color;
+    }
+
+    public long getId() {
+      return id;
+    }
+
+    public int getJulianDay() {
+      return julianDay;
+    }
+
+    /**
+     * Minutes from the start of its day.
+     */
+    public int getStartTime() {
+      return (int) (start - (long) julianDay * MINUTES_PER_DAY);
+    }
+
+    /**
+     * Minutes from the start of its day, more than a day for the shifts ending on the next one.
+     */
+    public int getEndTime() {
+      return (int) (end - (long) julianDay * MINUTES_PER_DAY);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getColor() {
+      return color;
+    }
+  }
+
+  /**
+   * A pair of shifts, one right after the other, breaking the rules.
+   */
+  public static final class Violation {
+    private final int   type;
+    private final Shift first;
+    private final Shift second;
+
+    private Violation(int type, Shift first, Shift second) {
+      this.type = type;
+      this.first = first;
+      this.second = second;
+    }
+
+    /**
+     * {@link #OVERLAP} or {@link #SHORT_REST}.
+     */
+    public int getType() {
+      return type;
+    }
+
+    public Shift getFirst() {
+      return first;
+    }
+
+    public Shift getSecond() {
+      return second;
+    }
+
+    /**
+     * Minutes from the end of the first shift to the start of the second one, negative when they overlap.
+     */
+    public long getRestMinutes() {
+      return second.start - first.end;
+    }
+  }
+
+  /**
+   * Adds the shifts of the indexed days of events, checking them as they are added. The ones with no duration are left out.
+   */
+  public void addAll(EventBuffer events, int firstJulianDay, int numDays) {
+    for (int julianDay = firstJulianDay; julianDay < firstJulianDay + numDays; julianDay++) {
+      for (int position = events.getDayStart(julianDay); position < events.getDayEnd(julianDay); position++) {
+        int row = events.getDayRow(position);
+        if (events.getDuration(row) > 0) {
+          add(new Shift(events.getId(row), julianDay, events.getStartTime(row), events.getDuration(row), events.getName(row), events.getColor(row)));
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds a shift, checking it against the shifts before and after it.
+   */
+  public void add(Shift shift) {
+    if (!shifts.add(shift)) {
+      return;
+    }
+    Shift previous = shifts.lower(shift);
+    if (previous != null) {
+      check(previous);
+    }
+    check(shift);
+  }
+
+  /**
+   * Removes a shift, checking the shift before it against the one after it.
+   */
+  public void remove(Shift shift) {
+    if (!shifts.remove(shift)) {
+      return;
+    }
+    violations.remove(shift);
+    Shift previous = shifts.lower(shift);
+    if (previous != null) {
+      check(previous);
+    }
+  }
+
+  /**
+   * Removes the shifts starting from firstJulianDay to lastJulianDay, both included.
+   */
+  public void removeDays(int firstJulianDay, int lastJulianDay) {
+    Shift from = new Shift(Long.MIN_VALUE, firstJulianDay, 0, 0, null, 0);
+    Shift to = new Shift(Long.MIN_VALUE, lastJulianDay + 1, 0, 0, null, 0);
+    Iterator<Shift> removed = shifts.subSet(from, to).iterator();
+    if (!removed.hasNext()) {
+      return;
+    }
+    while (removed.hasNext()) {
+      violations.remove(removed.next());
+      removed.remove();
+    }
+    Shift previous = shifts.lower(from);
+    if (previous != null) {
+      check(previous);
+    }
+  }
+
+  public void clear() {
+    shifts.clear();
+    violations.clear();
+  }
+
+  public int size() {
+    return shifts.size();
+  }
+
+  /**
+   * Returns the violations whose second shift starts from firstJulianDay to lastJulianDay, both included, in order.
+   */
+  public ArrayList<Violation> getViolations(int firstJulianDay, int lastJulianDay) {
+    // The first shift of a pair may start the day before
+    Shift from = new Shift(Long.MIN_VALUE, firstJulianDay - 1, 0, 0, null, 0);
+    Shift to = new Shift(Long.MIN_VALUE, lastJulianDay + 1, 0, 0, null, 0);
+    ArrayList<Violation> result = new ArrayList<Violation>();
+    for (Violation violation : violations.subMap(from, to).values()) {
+      int day = violation.second.julianDay;
+      if (day >= firstJulianDay && day <= lastJulianDay) {
+        result.add(violation);
+      }
+    }
+    return result;
+  }
+
+  // Checks a shift against the next one
+  private void check(Shift shift) {
+    Shift next = shifts.higher(shift);
+    int type = next == null ? 0 : getViolationType(shift, next);
+    if (type == 0) {
+      violations.remove(shift);
+    } else {
+      violations.put(shift, new Violation(type, shift, next));
+    }
+  }
+
+  private static int getViolationType(Shift first, Shift second) {
+    if (second.start < first.end) {
+      return OVERLAP;
+    }
+    if (second.julianDay != first.julianDay && second.start - first.end < MIN_REST_MINUTES) {
+      return SHORT_REST;
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,264 @@
+package es.android.TurnosAndroid.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Totals of the shifts worked over a range of days: minutes, minutes at night, number of shifts, and minutes per shift type and per colour. Each
+ * total is kept as prefix sums by day, so the total of any range of days is a subtraction of two entries, however long the range is.
+ * <p/>
+ * A shift counts for the day it starts on, all of it, as the views draw it. Night is from {@link #NIGHT_START} to {@link #NIGHT_END}; the part of a
+ * shift in it counts as night whichever day it falls on.
+ * <p/>
+ * Nothing changes after it is built: {@link #withDays} returns a copy with some days read again, adjusting only the sums after them.
+ */
+public final class ShiftStatistics {
+  public static final  int NIGHT_START     = 22 * 60;
+  public static final  int NIGHT_END       = 6 * 60;
+  private static final int MINUTES_PER_DAY = 24 * 60;
+  private final int               firstJulianDay;
+  private final int               numDays;
+  // The sums of the days before day d are at d, of all of them at numDays
+  private final long[]            minutes;
+  private final long[]            nightMinutes;
+  private final long[]            shifts;
+  // One sum per shift type and per colour, in the order they were first found
+  private final ArrayList<long[]> typeMinutes;
+  private final long[]            typeIds;
+  private final String[]          typeNames;
+  private final ArrayList<long[]> colorMinutes;
+  private final int[]             colors;
+
+  private ShiftStatistics(int firstJulianDay, int numDays, long[] minutes, long[] nightMinutes, long[] shifts, ArrayList<long[]> typeMinutes,
+                          long[] typeIds, String[] typeNames, ArrayList<long[]> colorMinutes, int[] colors) {
+    this.firstJulianDay = firstJulianDay;
+    this.numDays = numDays;
+    this.minutes = minutes;
+    this.nightMinutes = nightMinutes;
+    this.shifts = shifts;
+    this.typeMinutes = typeMinutes;
+    this.typeIds = typeIds;
+    this.typeNames = typeNames;
+    this.colorMinutes = colorMinutes;
+    this.colors = colors;
+  }
+
+  /**
+   * Sums the shifts of numDays days from firstJulianDay. Events must have their days indexed, as from
+   * {@link es.android.TurnosAndroid.database.CalendarEventsQuery}; the ones of other days are left out.
+   */
+  public static ShiftStatistics build(int firstJulianDay, int numDays, EventBuffer events) {
+    ShiftStatistics empty = new ShiftStatistics(firstJulianDay, numDays, new long[numDays + 1], new long[numDays + 1], new long[numDays + 1],
+                                                new ArrayList<long[]>(), new long[0], new String[0], new ArrayList<long[]>(), new int[0]);
+    return empty.withDays(firstJulianDay, firstJulianDay + numDays - 1, events);
+  }
+
+  /**
+   * Returns a copy with the days from firstDay to lastDay, both included, summed again from events, which must have them indexed. The sums of the
+   * other days before them are kept as they are, the ones after them are moved by the difference.
+   */
+  public ShiftStatistics withDays(int firstDay, int lastDay, EventBuffer events) {
+    int from = Math.max(firstDay - firstJulianDay, 0);
+    int to = Math.min(lastDay - firstJulianDay, numDays - 1);
+    if (from > to) {
+      return this;
+    }
+
+    long[] newMinutes = minutes.clone();
+    long[] newNightMinutes = nightMinutes.clone();
+    long[] newShifts = shifts.clone();
+    ArrayList<long[]> newTypeMinutes = cloneAll(typeMinutes);
+    ArrayList<long[]> newColorMinutes = cloneAll(colorMinutes);
+    long[] newTypeIds = typeIds;
+    String[] newTypeNames = typeNames;
+    int[] newColors = colors;
+
+    // What each day adds now, the days from "from" to "to"
+    int changedDays = to - from + 1;
+    long[] dayMinutes = new long[changedDays];
+    long[] dayNightMinutes = new long[changedDays];
+    long[] dayShifts = new long[changedDays];
+    ArrayList<long[]> dayTypeMinutes = new ArrayList<long[]>();
+    ArrayList<long[]> dayColorMinutes = new ArrayList<long[]>();
+    for (int i = 0; i < typeIds.length; i++) {
+      dayTypeMinutes.add(new long[changedDays]);
+    }
+    for (int i = 0; i < colors.length; i++) {
+      dayColorMinutes.add(new long[changedDays]);
+    }
+
+    for (int day = from; day <= to; day++) {
+      int julianDay = firstJulianDay + day;
+      for (int position = events.getDayStart(julianDay); position < events.getDayEnd(julianDay); position++) {
+        int row = events.getDayRow(position);
+        int duration = events.getDuration(row);
+        if (duration <= 0) {
+          continue;
+        }
+        int start = events.getStartTime(row);
+        dayMinutes[day - from] += duration;
+        dayNightMinutes[day - from] += getNightMinutesOf(start, duration);
+        dayShifts[day - from]++;
+
+        int type = indexOf(newTypeIds, events.getEventId(row));
+        if (type < 0) {
+          type = newTypeIds.length;
+          newTypeIds = Arrays.copyOf(newTypeIds, type + 1);
+          newTypeIds[type] = events.getEventId(row);
+          newTypeNames = Arrays.copyOf(newTypeNames, type + 1);
+          newTypeNames[type] = events.getName(row);
+          newTypeMinutes.add(new long[numDays + 1]);
+          dayTypeMinutes.add(new long[changedDays]);
+        }
+        dayTypeMinutes.get(type)[day - from] += duration;
+
+        int color = indexOf(newColors, events.getColor(row));
+        if (color < 0) {
+          color = newColors.length;
+          newColors = Arrays.copyOf(newColors, color + 1);
+          newColors[color] = events.getColor(row);
+          newColorMinutes.add(new long[numDays + 1]);
+          dayColorMinutes.add(new long[changedDays]);
+        }
+        dayColorMinutes.get(color)[day - from] += duration;
+      }
+    }
+
+    replaceDays(newMinutes, from, dayMinutes);
+    replaceDays(newNightMinutes, from, dayNightMinutes);
+    replaceDays(newShifts, from, dayShifts);
+    for (int i = 0; i < newTypeMinutes.size(); i++) {
+      replaceDays(newTypeMinutes.get(i), from, dayTypeMinutes.get(i));
+    }
+    for (int i = 0; i < newColorMinutes.size(); i++) {
+      replaceDays(newColorMinutes.get(i), from, dayColorMinutes.get(i));
+    }
+    return new ShiftStatistics(firstJulianDay, numDays, newMinutes, newNightMinutes, newShifts, newTypeMinutes, newTypeIds, newTypeNames,
+                               newColorMinutes, newColors);
+  }
+
+  public int getFirstJulianDay() {
+    return firstJulianDay;
+  }
+
+  public int getNumDays() {
+    return numDays;
+  }
+
+  /**
+   * Returns whether every day from firstDay to lastDay is summed here.
+   */
+  public boolean covers(int firstDay, int lastDay) {
+    return firstDay >= firstJulianDay && lastDay < firstJulianDay + numDays;
+  }
+
+  /**
+   * Minutes worked from firstDay to lastDay, both included. Days outside the range summed here count as nothing, as in every other total.
+   */
+  public long getMinutes(int firstDay, int lastDay) {
+    return sum(minutes, firstDay, lastDay);
+  }
+
+  public long getNightMinutes(int firstDay, int lastDay) {
+    return sum(nightMinutes, firstDay, lastDay);
+  }
+
+  public long getShifts(int firstDay, int lastDay) {
+    return sum(shifts, firstDay, lastDay);
+  }
+
+  /**
+   * How many shift types have been found, each of them has an index from 0 to this number - 1.
+   */
+  public int getNumTypes() {
+    return typeIds.length;
+  }
+
+  public long getTypeId(int type) {
+    return typeIds[type];
+  }
+
+  public String getTypeName(int type) {
+    return typeNames[type];
+  }
+
+  public long getTypeMinutes(int type, int firstDay, int lastDay) {
+    return sum(typeMinutes.get(type), firstDay, lastDay);
+  }
+
+  /**
+   * How many colours have been found, each of them has an index from 0 to this number - 1.
+   */
+  public int getNumColors() {
+    return colors.length;
+  }
+
+  public int getColor(int color) {
+    return colors[color];
+  }
+
+  public long getColorMinutes(int color, int firstDay, int lastDay) {
+    return sum(colorMinutes.get(color), firstDay, lastDay);
+  }
+
+  /**
+   * Minutes of a shift in the night, from start minutes after midnight for duration minutes.
+   */
+  public static int getNightMinutesOf(int start, int duration) {
+    int end = start + duration;
+    int night = 0;
+    // The nights that can touch a shift starting on this day: the end of the previous one, and the ones starting today and tomorrow
+    for (int nightStart = NIGHT_START - MINUTES_PER_DAY; nightStart < end; nightStart += MINUTES_PER_DAY) {
+      int nightEnd = nightStart + MINUTES_PER_DAY - NIGHT_START + NIGHT_END;
+      night += Math.max(0, Math.min(end, nightEnd) - Math.max(start, nightStart));
+    }
+    return night;
+  }
+
+  private long sum(long[] sums, int firstDay, int lastDay) {
+    int from = Math.min(Math.max(firstDay - firstJulianDay, 0), numDays);
+    int to = Math.min(Math.max(lastDay - firstJulianDay + 1, 0), numDays);
+    return from < to ? sums[to] - sums[from] : 0;
+  }
+
+  // Sets the days from "from" to what they add now in the prefix sums, moving the sums after them by the difference
+  private static void replaceDays(long[] sums, int from, long[] days) {
+    long difference = 0;
+    // The sums as they were, the ones before "from" don't change
+    long previous = sums[from];
+    for (int day = from; day < sums.length - 1; day++) {
+      long original = sums[day + 1];
+      if (day - from < days.length) {
+        difference += days[day - from] - (original - previous);
+      }
+      previous = original;
+      sums[day + 1] = original + difference;
+    }
+  }
+
+  private static ArrayList<long[]> cloneAll(ArrayList<long[]> arrays) {
+    ArrayList<long[]> clones = new ArrayList<long[]>(arrays.size());
+    for (long[] array : arrays) {
+      clones.add(array.clone());
+    }
+    return clones;
+  }
+
+  private static int indexOf(long[] values, long value) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(int[] values, int value) {
+    for (int i = 0; i < values.length; i++) {
+      if (values[i] == value) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
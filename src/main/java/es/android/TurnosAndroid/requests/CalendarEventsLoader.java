@@ -1,19 +1,27 @@
 package es.android.TurnosAndroid.requests;
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.support.v4.content.AsyncTaskLoader;
-import es.android.TurnosAndroid.database.DBConstants;
+import android.text.format.Time;
+import es.android.TurnosAndroid.database.CalendarEventsQuery;
 import es.android.TurnosAndroid.database.DatabaseHelper;
+import es.android.TurnosAndroid.database.EventCatalog;
+import es.android.TurnosAndroid.database.EventsRepository;
+import es.android.TurnosAndroid.helpers.JulianDay;
+import es.android.TurnosAndroid.model.EventBuffer;
 
 /**
  * User: Jesús
  * Date: 23/12/13
  */
 public class CalendarEventsLoader extends AsyncTaskLoader {
-  private Context context;
-  private long    initialDay;
-  private long    finalDay;
+  private          Context context;
+  private          long    initialDay;
+  private          long    finalDay;
+  // The change count of the repository before the last load read
+  private volatile int     changeCount;
 
   public CalendarEventsLoader(Context context, long initialDay, long finalDay) {
     super(context);
@@ -22,24 +30,42 @@ public class CalendarEventsLoader extends AsyncTaskLoader {
     this.finalDay = finalDay;
   }
 
+  /**
+   * Changes the range of days that will be read on the next load.
+   *
+   * @param initialDay first day to load, in milliseconds
+   * @param finalDay   last day to load, in milliseconds
+   */
+  public void setDayRange(long initialDay, long finalDay) {
+    this.initialDay = initialDay;
+    this.finalDay = finalDay;
+  }
+
+  /**
+   * Returns the {@link EventsRepository#getChangeCount change count} the last result was read after.
+   */
+  public int getChangeCount() {
+    return changeCount;
+  }
+
   @Override
   public Object loadInBackground() {
+    changeCount = EventsRepository.getInstance(context).getChangeCount();
     DatabaseHelper databaseHelper = new DatabaseHelper(context);
     SQLiteDatabase db = databaseHelper.getReadableDatabase();
 
-//    String query = "SELECT * FROM " + DBConstants.CALENDAR_EVENTS_TABLE + " AS a JOIN " +
-//                   DBConstants.EVENTS_TABLE + " AS b ON a." + DBConstants.EVENT_ID + " = b." + DBConstants.ID +
-//                   " WHERE a." + DBConstants.DATE + ">=? AND a." + DBConstants.DATE + "<=?";
-
-    String query = "SELECT * FROM " + DBConstants.CALENDAR_EVENTS_TABLE + ", " +
-                   DBConstants.EVENTS_TABLE + " WHERE " + DBConstants.CALENDAR_EVENTS_TABLE + "." + DBConstants.EVENT_ID + "=" +
-                   DBConstants.EVENTS_TABLE + "." + DBConstants.ID;
-
-//    String query = "SELECT " + DBConstants.DATE + " FROM " + DBConstants.CALENDAR_EVENTS_TABLE;
-
-    String[] selectionArgs = new String[] {String.valueOf(initialDay), String.valueOf(finalDay)};
-
-//    return db.rawQuery(query, selectionArgs);
-    return db.rawQuery(query, null);
+    // The rows are copied into an EventBuffer and indexed by day here so the UI thread doesn't read the cursor
+    String timezone = Time.getCurrentTimezone();
+    Cursor cursor = CalendarEventsQuery.query(db, initialDay, finalDay);
+    try {
+      EventBuffer events = EventBuffer.fromCursor(cursor, timezone, EventCatalog.getInstance(context));
+      int firstJulianDay = JulianDay.fromMillis(initialDay, timezone);
+      events.indexDays(firstJulianDay, JulianDay.fromMillis(finalDay, timezone) - firstJulianDay + 1);
+      return events;
+    } finally {
+      if (cursor != null) {
+        cursor.close();
+      }
+    }
   }
 }
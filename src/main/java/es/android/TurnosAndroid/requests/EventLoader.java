@@ -16,67 +16,134 @@
 
 package es.android.TurnosAndroid.requests;
 
-import android.content.ContentResolver;
 import android.content.Context;
-import android.database.Cursor;
+import android.os.CancellationSignal;
 import android.os.Handler;
 import android.os.Process;
-import android.provider.CalendarContract;
-import android.provider.CalendarContract.EventDays;
 import android.util.Log;
+import android.util.LruCache;
+import es.android.TurnosAndroid.database.DatabaseHelper;
+import es.android.TurnosAndroid.database.OccupancyIndex;
+import es.android.TurnosAndroid.helpers.Utils;
 import es.android.TurnosAndroid.model.Event;
+import es.android.TurnosAndroid.model.EventRenderModel;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Loads events in the background for the day and week views. Requests are served by a few worker threads in order of priority: the range the
+ * user is looking at first, then the ranges right before and after it, so swiping to the next or previous page finds its events already loaded.
+ * <p/>
+ * Loaded events are kept per Julian day in an LRU cache, and handed to the views already laid out in an {@link EventRenderModel}. A newer visible request supersedes the older ones: the queued ones are skipped and the
+ * running ones are cancelled through a {@link CancellationSignal} that reaches the SQLite query (Jelly Bean and later).
+ */
 public class EventLoader {
-  private static final String TAG = EventLoader.class.getSimpleName();
-  private Context                          context;
-  private Handler                          handler;
-  private AtomicInteger                    sequenceNumber;
-  private LinkedBlockingQueue<LoadRequest> loaderQueue;
-  private LoaderThread                     loaderThread;
-  private ContentResolver                  contentResolver;
+  private static final String TAG               = EventLoader.class.getSimpleName();
+  private static final int    PRIORITY_SHUTDOWN = 0;
+  private static final int    PRIORITY_VISIBLE  = 1;
+  private static final int    PRIORITY_PREFETCH = 2;
+  private static final int    NUM_THREADS       = 2;
+  // Enough for the visible week plus the two around it, with room to go back and forth
+  private static final int    CACHE_DAYS        = 8 * 7;
+  private final ArrayList<LoadEventsRequest>        runningRequests;
+  private       Context                             context;
+  private       Handler                             handler;
+  private       AtomicInteger                       sequenceNumber;
+  private       AtomicInteger                       cacheGeneration;
+  private       PriorityBlockingQueue<LoadRequest>  loaderQueue;
+  private       LoaderThread[]                      loaderThreads;
+  private       LruCache<Integer, ArrayList<Event>> eventsCache;
+
+  /**
+   * Called in the UI thread with the events of the range that was asked for, laid out in the loader thread.
+   */
+  public interface OnEventsLoadedListener {
+    public void onEventsLoaded(EventRenderModel model);
+  }
 
   public EventLoader(Context context) {
     this.context = context;
     handler = new Handler();
     sequenceNumber = new AtomicInteger();
-    loaderQueue = new LinkedBlockingQueue<LoadRequest>();
-    contentResolver = context.getContentResolver();
+    cacheGeneration = new AtomicInteger();
+    loaderQueue = new PriorityBlockingQueue<LoadRequest>();
+    runningRequests = new ArrayList<LoadEventsRequest>();
+    eventsCache = new LruCache<Integer, ArrayList<Event>>(CACHE_DAYS);
   }
 
   public void startBackgroundThread() {
-    loaderThread = new LoaderThread(loaderQueue, this);
-    loaderThread.start();
+    // Changes made while stopped weren't observed
+    clearCache();
+
+    loaderThreads = new LoaderThread[NUM_THREADS];
+    for (int i = 0; i < NUM_THREADS; i++) {
+      loaderThreads[i] = new LoaderThread(loaderQueue, this);
+      loaderThreads[i].start();
+    }
   }
 
   public void stopBackgroundThread() {
-    loaderThread.shutdown();
+    // Nothing waiting in the queue is needed anymore
+    ArrayList<LoadRequest> pending = new ArrayList<LoadRequest>();
+    loaderQueue.drainTo(pending);
+    for (LoadRequest request : pending) {
+      request.skipRequest(this);
+    }
+    cancelRunningRequests(sequenceNumber.incrementAndGet(), 0, 0);
+
+    for (LoaderThread loaderThread : loaderThreads) {
+      loaderThread.shutdown();
+    }
   }
 
   /**
-   * Loads "numDays" days worth of events, starting at start, into events. Posts uiCallback to the {@link android.os.Handler} for this view, which will run in the UI thread.
-   * Reuses an existing background thread, if events were already being loaded in the background. NOTE: events and uiCallback are not used if an existing background thread gets reused --
-   * the ones that were passed in on the call that results in the background thread getting created are used, and the most recent call's worth of data is loaded into events and posted
-   * via the uiCallback.
+   * Forgets the cached events. Called when the events change, so the next request reads them again.
    */
-  public void loadEventsInBackground(final int numDays, final ArrayList<Event> events, int startDay, final Runnable successCallback, final Runnable cancelCallback) {
+  public void clearCache() {
+    synchronized (eventsCache) {
+      cacheGeneration.incrementAndGet();
+      eventsCache.evictAll();
+    }
+  }
+
+  /**
+   * Forgets the cached events of the days from firstJulianDay to lastJulianDay, both included.
+   */
+  public void evictDays(int firstJulianDay, int lastJulianDay) {
+    synchronized (eventsCache) {
+      cacheGeneration.incrementAndGet();
+      for (int day : eventsCache.snapshot().keySet()) {
+        if (day >= firstJulianDay && day <= lastJulianDay) {
+          eventsCache.remove(day);
+        }
+      }
+    }
+  }
+
+  /**
+   * Loads "numDays" days worth of events, starting at start, and lays them out in the loader thread. Calls listener in the UI thread, through the
+   * {@link android.os.Handler} for this view, or posts cancelCallback if a newer request supersedes this one before it finishes. Cached days are
+   * only laid out. Afterwards the "numDays" days before and after the range are prefetched.
+   *
+   * @param minimumDuration the duration, in minutes, events shorter than it are laid out with, see {@link EventRenderModel#build}
+   */
+  public void loadEventsInBackground(final int numDays, int startDay, long minimumDuration, final OnEventsLoadedListener listener,
+                                     final Runnable cancelCallback) {
 
     // Increment the sequence number for requests.  We don't care if the sequence numbers wrap around because we test for equality with the latest one.
     int id = sequenceNumber.incrementAndGet();
 
-    // Send the load request to the background thread
-    LoadEventsRequest request = new LoadEventsRequest(id, startDay, numDays, events, successCallback, cancelCallback);
+    // Whatever is running for other ranges is not needed anymore
+    cancelRunningRequests(id, startDay - numDays, 3 * numDays);
 
-    try {
-      loaderQueue.put(request);
-    } catch (InterruptedException ex) {
-      // The put() method fails with InterruptedException if the queue is full. This should never happen because the queue has no limit.
-      Log.e(TAG, "loadEventsInBackground() interrupted!", ex);
-    }
+    // Even cached days go through the loader threads, so the layout doesn't run in the UI thread
+    putRequest(new LoadEventsRequest(id, PRIORITY_VISIBLE, cacheGeneration.get(), startDay, numDays, minimumDuration, listener, cancelCallback));
+
+    prefetch(id, startDay - numDays, numDays);
+    prefetch(id, startDay + numDays, numDays);
   }
 
   /**
@@ -89,23 +156,115 @@ public class EventLoader {
    */
   void loadEventDaysInBackground(int startDay, int numDays, boolean[] eventDays, final Runnable uiCallback) {
     // Send load request to the background thread
-    LoadEventDaysRequest request = new LoadEventDaysRequest(startDay, numDays, eventDays, uiCallback);
+    putRequest(new LoadEventDaysRequest(startDay, numDays, eventDays, uiCallback));
+  }
+
+  private void prefetch(int id, int startDay, int numDays) {
+    if (!isCached(startDay, numDays)) {
+      putRequest(new LoadEventsRequest(id, PRIORITY_PREFETCH, cacheGeneration.get(), startDay, numDays, 0, null, null));
+    }
+  }
+
+  private void putRequest(LoadRequest request) {
+    // The queue has no limit, so put() never blocks
+    loaderQueue.put(request);
+  }
 
-    try {
-      loaderQueue.put(request);
-    } catch (InterruptedException ex) {
-      // The put() method fails with InterruptedException if the queue is full. This should never happen because the queue has no limit.
-      Log.e(TAG, "loadEventDaysInBackground() interrupted!", ex);
+  private boolean isCached(int startDay, int numDays) {
+    for (int day = startDay; day < startDay + numDays; day++) {
+      if (eventsCache.get(day) == null) {
+        return false;
+      }
     }
+    return true;
   }
 
-  private static interface LoadRequest {
-    public void processRequest(EventLoader eventLoader);
+  // Fills events from the cache, only if every day of the range is there
+  private boolean getCachedEvents(int startDay, int numDays, ArrayList<Event> events) {
+    ArrayList<ArrayList<Event>> days = new ArrayList<ArrayList<Event>>(numDays);
+    for (int day = startDay; day < startDay + numDays; day++) {
+      ArrayList<Event> dayEvents = eventsCache.get(day);
+      if (dayEvents == null) {
+        return false;
+      }
+      days.add(dayEvents);
+    }
 
-    public void skipRequest(EventLoader eventLoader);
+    events.clear();
+    for (ArrayList<Event> dayEvents : days) {
+      events.addAll(dayEvents);
+    }
+    return true;
   }
 
-  private static class ShutdownRequest implements LoadRequest {
+  // Splits the loaded events by day. Days without events are cached too, as empty lists.
+  private void cacheEvents(int generation, int startDay, int numDays, ArrayList<Event> events) {
+    ArrayList<ArrayList<Event>> days = new ArrayList<ArrayList<Event>>(numDays);
+    for (int i = 0; i < numDays; i++) {
+      days.add(new ArrayList<Event>());
+    }
+    for (Event event : events) {
+      int day = (int) event.getStartDay() - startDay;
+      days.get(Math.max(0, Math.min(numDays - 1, day))).add(event);
+    }
+
+    // Events read before the last change must not get in. Held while putting them, so a change can't come between the check and the puts.
+    synchronized (eventsCache) {
+      if (generation != cacheGeneration.get()) {
+        return;
+      }
+      for (int i = 0; i < numDays; i++) {
+        eventsCache.put(startDay + i, days.get(i));
+      }
+    }
+  }
+
+  // Cancels the running requests, except the ones loading days inside the given range, which become part of request id
+  private void cancelRunningRequests(int id, int keepStartDay, int keepNumDays) {
+    synchronized (runningRequests) {
+      for (LoadEventsRequest request : runningRequests) {
+        if (request.startDay >= keepStartDay && request.startDay + request.numDays <= keepStartDay + keepNumDays) {
+          request.id = id;
+        } else {
+          request.cancel();
+        }
+      }
+    }
+  }
+
+  private static abstract class LoadRequest implements Comparable<LoadRequest> {
+    private static final AtomicInteger order = new AtomicInteger();
+    private final int priority;
+    // Requests with the same priority are served in the order they were sent
+    private final int position;
+
+    protected LoadRequest(int priority) {
+      this.priority = priority;
+      position = order.incrementAndGet();
+    }
+
+    @Override
+    public int compareTo(LoadRequest another) {
+      if (priority != another.priority) {
+        return priority < another.priority ? -1 : 1;
+      }
+      return position < another.position ? -1 : (position == another.position ? 0 : 1);
+    }
+
+    public boolean isSuperseded(EventLoader eventLoader) {
+      return false;
+    }
+
+    public abstract void processRequest(EventLoader eventLoader);
+
+    public abstract void skipRequest(EventLoader eventLoader);
+  }
+
+  private static class ShutdownRequest extends LoadRequest {
+    public ShutdownRequest() {
+      super(PRIORITY_SHUTDOWN);
+    }
+
     @Override
     public void processRequest(EventLoader eventLoader) {
     }
@@ -118,17 +277,14 @@ public class EventLoader {
   /**
    * Code for handling requests to get whether days have an event or not and filling in the eventDays array.
    */
-  private static class LoadEventDaysRequest implements LoadRequest {
-    /**
-     * The projection used by the EventDays query.
-     */
-    private static final String[] PROJECTION = {CalendarContract.EventDays.STARTDAY, CalendarContract.EventDays.ENDDAY};
+  private static class LoadEventDaysRequest extends LoadRequest {
     public int       startDay;
     public int       numDays;
     public boolean[] eventDays;
     public Runnable  uiCallback;
 
     public LoadEventDaysRequest(int startDay, int numDays, boolean[] eventDays, final Runnable uiCallback) {
+      super(PRIORITY_VISIBLE);
       this.startDay = startDay;
       this.numDays = numDays;
       this.eventDays = eventDays;
@@ -138,34 +294,14 @@ public class EventLoader {
     @Override
     public void processRequest(EventLoader eventLoader) {
       final Handler handler = eventLoader.handler;
-      ContentResolver cr = eventLoader.contentResolver;
 
       // Clear the event days
       Arrays.fill(eventDays, false);
 
-      //query which days have events
-      Cursor cursor = EventDays.query(cr, startDay, numDays, PROJECTION);
-      try {
-        int startDayColumnIndex = cursor.getColumnIndex(EventDays.STARTDAY);
-        int endDayColumnIndex = cursor.getColumnIndex(EventDays.ENDDAY);
-
-        //Set all the days with events to true
-        while (cursor.moveToNext()) {
-          int firstDay = cursor.getInt(startDayColumnIndex);
-          int lastDay = cursor.getInt(endDayColumnIndex);
-          //we want the entire range the event occurs, but only within the month
-          int firstIndex = Math.max(firstDay - startDay, 0);
-          int lastIndex = Math.min(lastDay - startDay, 30);
-
-          for (int i = firstIndex; i <= lastIndex; i++) {
-            eventDays[i] = true;
-          }
-        }
-      } finally {
-        if (cursor != null) {
-          cursor.close();
-        }
-      }
+      // Which days have events comes from the occupancy index, one bit per day
+      DatabaseHelper databaseHelper = new DatabaseHelper(eventLoader.context);
+      long[] days = OccupancyIndex.getEventDays(databaseHelper.getReadableDatabase(), startDay, Math.min(numDays, eventDays.length));
+      OccupancyIndex.fillEventDays(days, eventDays);
       handler.post(uiCallback);
     }
 
@@ -174,57 +310,132 @@ public class EventLoader {
     }
   }
 
-  private static class LoadEventsRequest implements LoadRequest {
-    public int              id;
-    public int              startDay;
-    public int              numDays;
-    public ArrayList<Event> events;
-    public Runnable         successCallback;
-    public Runnable         cancelCallback;
-
-    public LoadEventsRequest(int id, int startDay, int numDays, ArrayList<Event> events, final Runnable successCallback, final Runnable cancelCallback) {
+  /**
+   * Loads a range of days into the cache. Visible requests also lay the events out and call the caller's listener, prefetch requests have no
+   * listener.
+   */
+  private static class LoadEventsRequest extends LoadRequest {
+    public volatile int                    id;
+    public          int                    generation;
+    public          int                    startDay;
+    public          int                    numDays;
+    public          long                   minimumDuration;
+    public          OnEventsLoadedListener listener;
+    public          Runnable               cancelCallback;
+    private         CancellationSignal     cancellationSignal;
+    private volatile boolean               canceled;
+
+    public LoadEventsRequest(int id, int priority, int generation, int startDay, int numDays, long minimumDuration, OnEventsLoadedListener listener,
+                             final Runnable cancelCallback) {
+      super(priority);
       this.id = id;
+      this.generation = generation;
       this.startDay = startDay;
       this.numDays = numDays;
-      this.events = events;
-      this.successCallback = successCallback;
+      this.minimumDuration = minimumDuration;
+      this.listener = listener;
       this.cancelCallback = cancelCallback;
+      if (Utils.isJellybeanOrLater()) {
+        cancellationSignal = new CancellationSignal();
+      }
+    }
+
+    // Called with the running requests lock held
+    public void cancel() {
+      canceled = true;
+      if (cancellationSignal != null) {
+        cancellationSignal.cancel();
+      }
+    }
+
+    @Override
+    public boolean isSuperseded(EventLoader eventLoader) {
+      return canceled || id != eventLoader.sequenceNumber.get();
     }
 
     @Override
     public void processRequest(EventLoader eventLoader) {
-      events = Event.loadEvents(eventLoader.context, startDay, numDays, id, eventLoader.sequenceNumber);
+      // A prefetch may have loaded these days while this request was waiting
+      if (listener != null) {
+        ArrayList<Event> events = new ArrayList<Event>();
+        if (eventLoader.getCachedEvents(startDay, numDays, events)) {
+          deliver(eventLoader, events);
+          return;
+        }
+      } else if (eventLoader.isCached(startDay, numDays)) {
+        return;
+      }
+
+      synchronized (eventLoader.runningRequests) {
+        if (isSuperseded(eventLoader)) {
+          skipRequest(eventLoader);
+          return;
+        }
+        eventLoader.runningRequests.add(this);
+      }
+
+      ArrayList<Event> loadedEvents = null;
+      try {
+        loadedEvents = Event.loadEvents(eventLoader.context, startDay, numDays, cancellationSignal);
+      } catch (RuntimeException e) {
+        // OperationCanceledException doesn't exist before Jelly Bean, so it can't be caught by its own type
+        if (!canceled) {
+          throw e;
+        }
+      } finally {
+        synchronized (eventLoader.runningRequests) {
+          eventLoader.runningRequests.remove(this);
+        }
+      }
+
+      if (loadedEvents == null) {
+        skipRequest(eventLoader);
+        return;
+      }
+      eventLoader.cacheEvents(generation, startDay, numDays, loadedEvents);
+
+      if (listener == null) {
+        return;
+      }
 
       // Check if we are still the most recent request.
       if (id == eventLoader.sequenceNumber.get()) {
-        eventLoader.handler.post(successCallback);
+        deliver(eventLoader, loadedEvents);
       } else {
         eventLoader.handler.post(cancelCallback);
       }
     }
 
+    // Lays the events out here, in the loader thread, and hands them to the listener in the UI thread
+    private void deliver(EventLoader eventLoader, ArrayList<Event> events) {
+      final EventRenderModel model = EventRenderModel.build(events, startDay, numDays, minimumDuration);
+      eventLoader.handler.post(new Runnable() {
+        @Override
+        public void run() {
+          listener.onEventsLoaded(model);
+        }
+      });
+    }
+
     @Override
     public void skipRequest(EventLoader eventLoader) {
-      eventLoader.handler.post(cancelCallback);
+      if (cancelCallback != null) {
+        eventLoader.handler.post(cancelCallback);
+      }
     }
   }
 
   private static class LoaderThread extends Thread {
-    private LinkedBlockingQueue<LoadRequest> queue;
-    private EventLoader                      eventLoader;
+    private PriorityBlockingQueue<LoadRequest> queue;
+    private EventLoader                        eventLoader;
 
-    public LoaderThread(LinkedBlockingQueue<LoadRequest> queue, EventLoader eventLoader) {
+    public LoaderThread(PriorityBlockingQueue<LoadRequest> queue, EventLoader eventLoader) {
       this.queue = queue;
       this.eventLoader = eventLoader;
     }
 
     public void shutdown() {
-      try {
-        queue.put(new ShutdownRequest());
-      } catch (InterruptedException ex) {
-        // The put() method fails with InterruptedException if the queue is full. This should never happen because the queue has no limit.
-        Log.e(TAG, "LoaderThread.shutdown() interrupted!", ex);
-      }
+      queue.put(new ShutdownRequest());
     }
 
     @Override
@@ -232,22 +443,19 @@ public class EventLoader {
       Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
       while (true) {
         try {
-          // Wait for the next request
+          // Wait for the most urgent request
           LoadRequest request = queue.take();
 
-          // If there are a bunch of requests already waiting, then skip all but the most recent request.
-          while (!queue.isEmpty()) {
-            // Let the request know that it was skipped
-            request.skipRequest(eventLoader);
-
-            // Skip to the next request
-            request = queue.take();
-          }
-
           if (request instanceof ShutdownRequest) {
             return;
           }
-          request.processRequest(eventLoader);
+
+          // Requests sent before the newest visible one are not needed anymore
+          if (request.isSuperseded(eventLoader)) {
+            request.skipRequest(eventLoader);
+          } else {
+            request.processRequest(eventLoader);
+          }
         } catch (InterruptedException ex) {
           Log.e(TAG, "background LoaderThread interrupted!", ex);
         }
@@ -0,0 +1,48 @@
+package es.android.TurnosAndroid.views;
+
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import es.android.TurnosAndroid.database.PagedList;
+
+/**
+ * Shows a {@link PagedList}. The rows whose page hasn't been read yet are shown empty, {@link #getItem} returns null for them, until it is.
+ * <p/>
+ * List views can only be told the whole list has changed, so when only some rows have, the ones on screen are bound again in place instead.
+ */
+public abstract class PagedListAdapter<T> extends BaseAdapter implements PagedList.OnPagesChangedListener {
+  private final PagedList<T> pagedList;
+  private final AbsListView  listView;
+
+  protected PagedListAdapter(PagedList<T> pagedList, AbsListView listView) {
+    this.pagedList = pagedList;
+    this.listView = listView;
+    pagedList.setOnPagesChangedListener(this);
+  }
+
+  @Override
+  public int getCount() {
+    return pagedList.size();
+  }
+
+  @Override
+  public T getItem(int position) {
+    return pagedList.get(position);
+  }
+
+  @Override
+  public void onPagesChanged(int[] changedPositions) {
+    if (changedPositions == null) {
+      notifyDataSetChanged();
+      return;
+    }
+
+    int firstVisiblePosition = listView.getFirstVisiblePosition();
+    for (int position : changedPositions) {
+      View child = listView.getChildAt(position - firstVisiblePosition);
+      if (child != null) {
+        getView(position, child, listView);
+      }
+    }
+  }
+}
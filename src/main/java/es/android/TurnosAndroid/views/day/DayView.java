@@ -9,7 +9,9 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.res.Resources;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
@@ -17,15 +19,11 @@ import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
 import android.os.Handler;
-import android.text.Layout.Alignment;
-import android.text.SpannableStringBuilder;
 import android.text.StaticLayout;
-import android.text.TextPaint;
 import android.text.TextUtils;
 import android.text.format.DateFormat;
 import android.text.format.DateUtils;
 import android.text.format.Time;
-import android.text.style.StyleSpan;
 import android.util.Log;
 import android.view.*;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -37,10 +35,13 @@ import android.widget.*;
 import es.android.TurnosAndroid.EventGeometry;
 import es.android.TurnosAndroid.R;
 import es.android.TurnosAndroid.controllers.CalendarController;
+import es.android.TurnosAndroid.helpers.JulianDay;
 import es.android.TurnosAndroid.helpers.TimeZoneUtils;
 import es.android.TurnosAndroid.helpers.Utils;
 import es.android.TurnosAndroid.model.CalendarData;
 import es.android.TurnosAndroid.model.Event;
+import es.android.TurnosAndroid.model.EventRenderModel;
+import es.android.TurnosAndroid.model.EventSpatialIndex;
 import es.android.TurnosAndroid.model.EventType;
 import es.android.TurnosAndroid.requests.EventLoader;
 import es.android.TurnosAndroid.views.ViewType;
@@ -48,8 +49,6 @@ import es.android.TurnosAndroid.views.ViewType;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * View for multi-day view. So far only 1 and 7 day have been tested.
@@ -63,6 +62,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
   private static final long    ANIMATION_SECONDARY_DURATION = 200; // duration of the more allday event text fade
   private static final int     GOTO_SCROLL_DURATION         = 200; // duration of the scroll to go to a specified time
   private static final int     EVENTS_CROSS_FADE_DURATION   = 400; // duration for events' cross-fade animation
+  private static final long    SWITCH_WAIT_TIMEOUT          = 100; // longest wait for the next view's events before switching without them
   private static final int     CLICK_DISPLAY_DURATION       = 50; // duration to show the event clicked
   private static final int     MENU_AGENDA                  = 2;
   private static final int     MENU_DAY                     = 3;
@@ -81,7 +81,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
   private static final int     DAY_GAP                      = 1;
   private static final int     HOUR_GAP                     = 1;
   private static final int     MORE_EVENTS_MAX_ALPHA        = 0x4C; // More events text will transition between invisible and this alpha
-  private static final int     MAX_EVENT_TEXT_LEN           = 500;
   private static final int     TOUCH_MODE_INITIAL_STATE     = 0; // The initial state of the touch mode when we enter this view.
   private static final int     TOUCH_MODE_DOWN              = 1; // Indicates we just received the touch event and we are waiting to see if it is a tap or a scroll gesture.
   private static final int     TOUCH_MODE_VSCROLL           = 0x20; // Indicates the touch gesture is a vertical scroll
@@ -217,6 +216,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
       baseDate.timezone = tz;
       baseDate.normalize(true);
       currentTime.switchTimezone(tz);
+      invalidateLayers();
       invalidate();
     }
   };
@@ -246,6 +246,15 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
   private final Rect                  destRect              = new Rect();
   private final Rect                  selectionRect         = new Rect();
   private final Rect                  expandAllDayRect      = new Rect(); // This encloses the more allDay events icon
+  // The grid, hours and background colors only change on resize, zoom, day or time change, so they are drawn once into a band of the scrolling
+  // area around the visible part, and the day headers into a layer of their own
+  private Bitmap  gridLayer;
+  private Canvas  gridLayerCanvas;
+  private int     gridLayerTop;
+  private boolean gridLayerValid;
+  private Bitmap  headerLayer;
+  private Canvas  headerLayerCanvas;
+  private boolean headerLayerValid;
   // TODO Clean up paint usage
   private final Paint                 paint                 = new Paint();
   private final Paint                 eventTextPaint        = new Paint();
@@ -269,7 +278,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
       clearCachedEvents();
     }
   };
-  private final Pattern  drawTextSanitizerFilter = Pattern.compile("[\t\n],");
   private boolean              selectionAllday;
   private ScaleGestureDetector scaleGestureDetector;
   private ObjectAnimator       alldayAnimator; // Animates the height of the allday region
@@ -327,6 +335,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
   private long      downTouchTime;
   private int eventsAlpha = 255;
   private ObjectAnimator eventsCrossFadeAnimation;
+  // The events loaded last, until their text has been laid out and they are shown
+  private EventRenderModel warmingModel;
   /**
    * This variable helps to avoid unnecessarily reloading events by keeping track of the start millis parameter used for the most recent loading
    * of events.  If the next reload matches this, then the events are not reloaded.  To force a reload, set this to zero (this is set to zero
@@ -334,6 +344,10 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
    */
   private long           lastReloadMillis;
   private ArrayList<Event> events        = new ArrayList<Event>();
+  // The events laid out for drawing, built with them in the loader thread
+  private EventRenderModel renderModel;
+  // The events the index finds when hit-testing, reused between taps
+  private int[]            foundEvents   = new int[0];
   private ArrayList<Event> allDayEvents  = new ArrayList<Event>();
   private StaticLayout[]   layouts       = null;
   private StaticLayout[]   allDayLayouts = null;
@@ -577,7 +591,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     currentTime = new Time(TimeZoneUtils.getTimeZone(context, timeZoneUpdater));
     long currentTime = System.currentTimeMillis();
     this.currentTime.set(currentTime);
-    todayJulianDay = Time.getJulianDay(currentTime, this.currentTime.gmtoff);
+    todayJulianDay = JulianDay.fromMillis(currentTime, this.currentTime.timezone);
 
     weekSaturdayColor = resources.getColor(R.color.week_saturday);
     weekSundayColor = resources.getColor(R.color.week_sunday);
@@ -916,6 +930,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     monthLength = baseDate.getActualMaximum(Time.MONTH_DAY);
     firstVisibleDate = baseDate.monthDay;
     firstVisibleDayOfWeek = baseDate.weekDay;
+    invalidateLayers();
   }
 
   private void adjustToBeginningOfWeek(Time time) {
@@ -956,6 +971,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
    * loading new events.  This can change if there are all-day events.
    */
   private void remeasure(int width, int height) {
+    invalidateLayers();
+
     // Shrink to fit available space but make sure we can display at least two events
     MAX_UNEXPANDED_ALLDAY_HEIGHT = (int) (MIN_UNEXPANDED_ALLDAY_EVENT_HEIGHT * 4);
     MAX_UNEXPANDED_ALLDAY_HEIGHT = Math.min(MAX_UNEXPANDED_ALLDAY_HEIGHT, height / 6);
@@ -1031,9 +1048,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     numHours = gridAreaHeight / (cellHeight + HOUR_GAP);
     eventGeometry.setHourHeight(cellHeight);
 
-    final long minimumDurationMillis = (long) (MIN_EVENT_HEIGHT * DateUtils.MINUTE_IN_MILLIS / (cellHeight / 60.0f));
-    Event.computePositions(events);
-
     // Compute the top of our reachable view
     maxViewStartY = HOUR_GAP + 24 * (cellHeight + HOUR_GAP) - gridAreaHeight;
     if (DEBUG) {
@@ -1251,7 +1265,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
         return super.onKeyDown(keyCode, event);
       case KeyEvent.KEYCODE_DPAD_LEFT:
         if (selectedEvent != null) {
-          setSelectedEvent(selectedEvent.nextLeft);
+          setSelectedEvent(getNeighbor(selectedEvent, EventSpatialIndex.LEFT));
         }
         if (selectedEvent == null) {
           lastPopupEventId = INVALID_EVENT_ID;
@@ -1262,7 +1276,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
 
       case KeyEvent.KEYCODE_DPAD_RIGHT:
         if (selectedEvent != null) {
-          setSelectedEvent(selectedEvent.nextRight);
+          setSelectedEvent(getNeighbor(selectedEvent, EventSpatialIndex.RIGHT));
         }
         if (selectedEvent == null) {
           lastPopupEventId = INVALID_EVENT_ID;
@@ -1273,7 +1287,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
 
       case KeyEvent.KEYCODE_DPAD_UP:
         if (selectedEvent != null) {
-          setSelectedEvent(selectedEvent.nextUp);
+          setSelectedEvent(getNeighbor(selectedEvent, EventSpatialIndex.UP));
         }
         if (selectedEvent == null) {
           lastPopupEventId = INVALID_EVENT_ID;
@@ -1289,7 +1303,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
 
       case KeyEvent.KEYCODE_DPAD_DOWN:
         if (selectedEvent != null) {
-          setSelectedEvent(selectedEvent.nextDown);
+          setSelectedEvent(getNeighbor(selectedEvent, EventSpatialIndex.DOWN));
         }
         if (selectedEvent == null) {
           lastPopupEventId = INVALID_EVENT_ID;
@@ -1444,15 +1458,31 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
 
     DayView view = (DayView) viewSwitcher.getCurrentView();
     view.cleanup();
-    viewSwitcher.showNext();
-    view = (DayView) viewSwitcher.getCurrentView();
-    view.setSelected(newSelected, true, false);
-    view.requestFocus();
-    view.reloadEvents();
-    view.updateTitle();
-    view.restartCurrentTimeUpdates();
+    // The next view animates in once its events are loaded and their text laid out, or after SWITCH_WAIT_TIMEOUT, when they fade in on arrival
+    final DayView nextView = (DayView) viewSwitcher.getNextView();
+    nextView.setSelected(newSelected, true, false);
+    Runnable showNext = new Runnable() {
+      private boolean shown;
+
+      @Override
+      public void run() {
+        if (shown) {
+          return;
+        }
+        shown = true;
+        removeCallbacks(this);
+        // Kept until now so this view doesn't jump back while waiting, the out animation starts where it was dragged to
+        viewStartX = 0;
+        viewSwitcher.showNext();
+        nextView.requestFocus();
+        nextView.updateTitle();
+        nextView.restartCurrentTimeUpdates();
+      }
+    };
+    postDelayed(showNext, SWITCH_WAIT_TIMEOUT);
+    nextView.reloadEvents(showNext);
 
-    return view;
+    return nextView;
   }
 
   // This is called after scrolling stops to move the selected hour
@@ -1549,6 +1579,15 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
   }
 
   public void reloadEvents() {
+    reloadEvents(null);
+  }
+
+  /**
+   * Loads the events of the days shown, and lays out their text, in the background.
+   *
+   * @param onReady run in the UI thread once the events are shown, may be null. It is not run if another load is started meanwhile.
+   */
+  public void reloadEvents(final Runnable onReady) {
     // Protect against this being called before this view has been
     // initialized.
 //        if (context == null) {
@@ -1572,64 +1611,122 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
 
     // Avoid reloading events unnecessarily.
     if (millis == lastReloadMillis) {
+      if (onReady != null) {
+        onReady.run();
+      }
       return;
     }
     lastReloadMillis = millis;
 
     // load events in the background
 //        context.startProgressSpinner();
-    final ArrayList<Event> events = new ArrayList<Event>();
-    Runnable successCallback = new Runnable() {
+    // Events are laid out in the loader thread, for the smallest zoom so that zooming in never needs another layout
+    long minimumDuration = (long) (MIN_EVENT_HEIGHT * MINUTES_PER_HOUR / minCellHeight);
+    EventLoader.OnEventsLoadedListener listener = new EventLoader.OnEventsLoadedListener() {
       @Override
-      public void run() {
-        boolean fadeinEvents = firstJulianDay != loadedFirstJulianDay;
-        DayView.this.events = events;
-        loadedFirstJulianDay = firstJulianDay;
-        if (allDayEvents == null) {
-          allDayEvents = new ArrayList<Event>();
-        } else {
-          allDayEvents.clear();
-        }
+      public void onEventsLoaded(final EventRenderModel model) {
+        model.applyColumns();
+        warmingModel = model;
+        // Lay out the text of the new events in the background before they are shown, so neither their first frame nor the switch does it
+        warmEventLayouts(model, new Runnable() {
+          @Override
+          public void run() {
+            // Events loaded again in the meantime are shown by their own load
+            if (warmingModel != model) {
+              return;
+            }
+            warmingModel = null;
+            showEvents(model);
+            if (onReady != null) {
+              onReady.run();
+            }
+          }
+        });
+      }
+    };
+    eventLoader.loadEventsInBackground(numDays, firstJulianDay, minimumDuration, listener, cancelCallback);
+  }
 
-        // Create a shorter array for all day events
-//        for (Event e : events) {
-//          if (e.drawAsAllday()) {
-//            allDayEvents.add(e);
-//          }
-//        }
+  private void showEvents(EventRenderModel model) {
+    boolean fadeinEvents = firstJulianDay != loadedFirstJulianDay;
+    ArrayList<Event> events = model.getEvents();
+    renderModel = model;
+    this.events = events;
+    loadedFirstJulianDay = firstJulianDay;
+    if (allDayEvents == null) {
+      allDayEvents = new ArrayList<Event>();
+    } else {
+      allDayEvents.clear();
+    }
 
-        // New events, new layouts
-        if (layouts == null || layouts.length < events.size()) {
-          layouts = new StaticLayout[events.size()];
-        } else {
-          Arrays.fill(layouts, null);
-        }
+    // Create a shorter array for all day events
+//    for (Event e : events) {
+//      if (e.drawAsAllday()) {
+//        allDayEvents.add(e);
+//      }
+//    }
 
-        if (allDayLayouts == null || allDayLayouts.length < allDayEvents.size()) {
-          allDayLayouts = new StaticLayout[events.size()];
-        } else {
-          Arrays.fill(allDayLayouts, null);
-        }
+    // New events, new layouts
+    if (layouts == null || layouts.length < events.size()) {
+      layouts = new StaticLayout[events.size()];
+    } else {
+      Arrays.fill(layouts, null);
+    }
 
-        computeEventRelations();
+    if (allDayLayouts == null || allDayLayouts.length < allDayEvents.size()) {
+      allDayLayouts = new StaticLayout[events.size()];
+    } else {
+      Arrays.fill(allDayLayouts, null);
+    }
 
-        remeasure = true;
-        computeSelectedEvents = true;
-        recalc();
-
-        // Start animation to cross fade the events
-        if (fadeinEvents) {
-          if (eventsCrossFadeAnimation == null) {
-            eventsCrossFadeAnimation = ObjectAnimator.ofInt(DayView.this, "EventsAlpha", 0, 255);
-            eventsCrossFadeAnimation.setDuration(EVENTS_CROSS_FADE_DURATION);
-          }
-          eventsCrossFadeAnimation.start();
-        } else {
-          invalidate();
-        }
+    computeEventRelations();
+
+    remeasure = true;
+    computeSelectedEvents = true;
+    recalc();
+
+    // Start animation to cross fade the events, from transparent so they don't show before it starts
+    if (fadeinEvents) {
+      if (eventsCrossFadeAnimation == null) {
+        eventsCrossFadeAnimation = ObjectAnimator.ofInt(this, "EventsAlpha", 0, 255);
+        eventsCrossFadeAnimation.setDuration(EVENTS_CROSS_FADE_DURATION);
       }
-    };
-//    eventLoader.loadEventsInBackground(numDays, events, firstJulianDay, successCallback, cancelCallback);
+      eventsAlpha = 0;
+      eventsCrossFadeAnimation.start();
+    }
+    invalidate();
+  }
+
+  /**
+   * Builds in the background the text layouts of the events of a model at the width they will be drawn at, then runs onWarm in the UI thread.
+   */
+  private void warmEventLayouts(EventRenderModel model, Runnable onWarm) {
+    int numEvents = model == null ? 0 : model.size();
+    if (numEvents == 0 || viewWidth == 0) {
+      // Nothing to draw yet, or no width to lay it out at
+      onWarm.run();
+      return;
+    }
+
+    Event[] warmEvents = model.getEvents().toArray(new Event[numEvents]);
+    int[] widths = new int[numEvents];
+    for (int i = 0; i < numEvents; i++) {
+      int dayIndex = (int) (warmEvents[i].getStartDay() - firstJulianDay);
+      if (dayIndex < 0 || dayIndex >= numDays) {
+        continue;
+      }
+      int left = computeDayLeftPosition(dayIndex) + 1;
+      int cellWidth = computeDayLeftPosition(dayIndex + 1) - left + 1;
+      // The same width drawEventRect and setupTextRect give the text when drawing
+      eventGeometry.computeEventRect(left, 0, cellWidth, model, i);
+      Event event = warmEvents[i];
+      int width = (int) event.right - EVENT_RECT_RIGHT_MARGIN - ((int) event.left + EVENT_RECT_LEFT_MARGIN);
+      if (width > EVENT_TEXT_LEFT_MARGIN + EVENT_TEXT_RIGHT_MARGIN) {
+        width -= EVENT_TEXT_LEFT_MARGIN + EVENT_TEXT_RIGHT_MARGIN;
+      }
+      widths[i] = width;
+    }
+    EventLayoutCache.getInstance().warm(warmEvents, widths, eventTextPaint, onWarm);
   }
 
   public void stopEventsAnimation() {
@@ -1792,7 +1889,9 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     }
 
     drawScrollLine(r, canvas, p);
-    drawDayHeaderLoop(r, canvas, p);
+    if (!drawHeaderLayer(canvas)) {
+      drawDayHeaderLoop(r, canvas, p);
+    }
 
     // Draw the AM and PM indicators if we're in 12 hour mode
     if (!is24HourFormat) {
@@ -1985,11 +2084,9 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     Paint p = paint;
     Rect r = rect;
 
-    if (futureBgColor != 0) {
-      drawBgColors(r, canvas, p);
+    if (!drawGridLayer(canvas)) {
+      drawStaticGrid(r, canvas, p, destRect.top, destRect.bottom);
     }
-    drawGridBackground(r, canvas, p);
-    drawHours(canvas, p);
 
     // Draw each day
     int cell = firstJulianDay;
@@ -2016,6 +2113,113 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     drawSelectedRect(r, canvas, p);
   }
 
+  // Everything in the scrolling area that doesn't depend on the events or the selection, from top to bottom
+  private void drawStaticGrid(Rect r, Canvas canvas, Paint p, int top, int bottom) {
+    if (futureBgColor != 0) {
+      drawBgColors(r, canvas, p, top, bottom);
+    }
+    drawGridBackground(r, canvas, p);
+    drawHours(canvas, p);
+  }
+
+  /**
+   * Draws the grid from its layer, drawing the layer first if it is out of date or the visible part of the grid is outside its band. Returns false
+   * if there is no layer, when the view has no size yet or there is no memory for it.
+   */
+  private boolean drawGridLayer(Canvas canvas) {
+    int gridHeight = HOUR_GAP + 24 * (cellHeight + HOUR_GAP) + 1;
+    // Half a screen of margin around the visible part, so short scrolls don't draw the layer again
+    int layerHeight = Math.min(gridHeight, viewHeight * 3 / 2);
+    if (viewWidth <= 0 || layerHeight <= 0) {
+      return false;
+    }
+
+    if (gridLayer == null || gridLayer.getWidth() != viewWidth || gridLayer.getHeight() != layerHeight) {
+      releaseGridLayer();
+      try {
+        gridLayer = Bitmap.createBitmap(viewWidth, layerHeight, Bitmap.Config.ARGB_8888);
+      } catch (OutOfMemoryError e) {
+        Log.w(TAG, "No memory for the grid layer, drawing the grid on every frame");
+        return false;
+      }
+      gridLayerCanvas = new Canvas(gridLayer);
+      gridLayerValid = false;
+    }
+
+    int visibleTop = Math.max(destRect.top, 0);
+    int visibleBottom = Math.min(destRect.bottom, gridHeight);
+    if (visibleTop < gridLayerTop || visibleBottom > gridLayerTop + layerHeight) {
+      gridLayerTop = visibleTop - (layerHeight - (visibleBottom - visibleTop)) / 2;
+      gridLayerTop = Math.max(0, Math.min(gridLayerTop, gridHeight - layerHeight));
+      gridLayerValid = false;
+    }
+
+    if (!gridLayerValid) {
+      gridLayer.eraseColor(Color.TRANSPARENT);
+      gridLayerCanvas.save();
+      gridLayerCanvas.translate(0, -gridLayerTop);
+      drawStaticGrid(rect, gridLayerCanvas, paint, gridLayerTop, gridLayerTop + layerHeight);
+      gridLayerCanvas.restore();
+      gridLayerValid = true;
+    }
+    canvas.drawBitmap(gridLayer, 0, gridLayerTop, null);
+    return true;
+  }
+
+  /**
+   * Draws the day headers from their layer, drawing it first if it is out of date. Returns false if there is no layer.
+   */
+  private boolean drawHeaderLayer(Canvas canvas) {
+    if (numDays == 1 && ONE_DAY_HEADER_HEIGHT == 0) {
+      return true;
+    }
+    if (viewWidth <= 0 || DAY_HEADER_HEIGHT <= 0) {
+      return false;
+    }
+
+    if (headerLayer == null || headerLayer.getWidth() != viewWidth || headerLayer.getHeight() != DAY_HEADER_HEIGHT) {
+      releaseHeaderLayer();
+      try {
+        headerLayer = Bitmap.createBitmap(viewWidth, DAY_HEADER_HEIGHT, Bitmap.Config.ARGB_8888);
+      } catch (OutOfMemoryError e) {
+        Log.w(TAG, "No memory for the header layer, drawing the headers on every frame");
+        return false;
+      }
+      headerLayerCanvas = new Canvas(headerLayer);
+      headerLayerValid = false;
+    }
+
+    if (!headerLayerValid) {
+      headerLayer.eraseColor(Color.TRANSPARENT);
+      drawDayHeaderLoop(rect, headerLayerCanvas, paint);
+      headerLayerValid = true;
+    }
+    canvas.drawBitmap(headerLayer, 0, 0, null);
+    return true;
+  }
+
+  // The layers are drawn again the next time they are needed
+  private void invalidateLayers() {
+    gridLayerValid = false;
+    headerLayerValid = false;
+  }
+
+  private void releaseGridLayer() {
+    if (gridLayer != null) {
+      gridLayer.recycle();
+      gridLayer = null;
+      gridLayerCanvas = null;
+    }
+  }
+
+  private void releaseHeaderLayer() {
+    if (headerLayer != null) {
+      headerLayer.recycle();
+      headerLayer = null;
+      headerLayerCanvas = null;
+    }
+  }
+
   private void drawSelectedRect(Rect r, Canvas canvas, Paint p) {
     // Draw a highlight on the selected hour (if needed)
     if (selectionMode != SELECTION_HIDDEN && !selectionAllday) {
@@ -2168,11 +2372,11 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     p.setAntiAlias(true);
   }
 
-  private void drawBgColors(Rect r, Canvas canvas, Paint p) {
+  private void drawBgColors(Rect r, Canvas canvas, Paint p, int top, int bottom) {
     int todayIndex = todayJulianDay - firstJulianDay;
     // Draw the hours background color
-    r.top = destRect.top;
-    r.bottom = destRect.bottom;
+    r.top = top;
+    r.bottom = bottom;
     r.left = 0;
     r.right = hoursWidth;
     p.setColor(bgColor);
@@ -2184,24 +2388,24 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     if (numDays == 1 && todayIndex == 0) {
       // Draw a white background for the time later than current time
       int lineY = currentTime.hour * (cellHeight + HOUR_GAP) + ((currentTime.minute * cellHeight) / 60) + 1;
-      if (lineY < viewStartY + viewHeight) {
-        lineY = Math.max(lineY, viewStartY);
+      if (lineY < bottom) {
+        lineY = Math.max(lineY, top);
         r.left = hoursWidth;
         r.right = viewWidth;
         r.top = lineY;
-        r.bottom = viewStartY + viewHeight;
+        r.bottom = bottom;
         p.setColor(futureBgColor);
         canvas.drawRect(r, p);
       }
     } else if (todayIndex >= 0 && todayIndex < numDays) {
       // Draw today with a white background for the time later than current time
       int lineY = currentTime.hour * (cellHeight + HOUR_GAP) + ((currentTime.minute * cellHeight) / 60) + 1;
-      if (lineY < viewStartY + viewHeight) {
-        lineY = Math.max(lineY, viewStartY);
+      if (lineY < bottom) {
+        lineY = Math.max(lineY, top);
         r.left = computeDayLeftPosition(todayIndex) + 1;
         r.right = computeDayLeftPosition(todayIndex + 1);
         r.top = lineY;
-        r.bottom = viewStartY + viewHeight;
+        r.bottom = bottom;
         p.setColor(futureBgColor);
         canvas.drawRect(r, p);
       }
@@ -2210,8 +2414,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
       if (todayIndex + 1 < numDays) {
         r.left = computeDayLeftPosition(todayIndex + 1) + 1;
         r.right = computeDayLeftPosition(numDays);
-        r.top = destRect.top;
-        r.bottom = destRect.bottom;
+        r.top = top;
+        r.bottom = bottom;
         p.setColor(futureBgColor);
         canvas.drawRect(r, p);
       }
@@ -2219,8 +2423,8 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
       // Future
       r.left = computeDayLeftPosition(0) + 1;
       r.right = computeDayLeftPosition(numDays);
-      r.top = destRect.top;
-      r.bottom = destRect.bottom;
+      r.top = top;
+      r.bottom = bottom;
       p.setColor(futureBgColor);
       canvas.drawRect(r, p);
     }
@@ -2313,7 +2517,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
   }
 
   /**
-   * Return the layout for a numbered event. Create it if not already existing
+   * Return the layout for a numbered event. Take it from the shared cache if this view doesn't have it yet
    */
   private StaticLayout getEventLayout(StaticLayout[] layouts, int i, Event event, Paint paint, Rect r) {
     if (i < 0 || i >= layouts.length) {
@@ -2324,19 +2528,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     // Check if we have already initialized the StaticLayout and that the width hasn't changed (due to vertical resizing which causes
     // re-layout of events at min height)
     if (layout == null || r.width() != layout.getWidth()) {
-      SpannableStringBuilder bob = new SpannableStringBuilder();
-      if (event.getName() != null) {
-        // MAX - 1 since we add a space
-        bob.append(drawTextSanitizer(event.getName(), MAX_EVENT_TEXT_LEN - 1));
-        bob.setSpan(new StyleSpan(android.graphics.Typeface.BOLD), 0, bob.length(), 0);
-        bob.append(' ');
-      }
-      if (event.getLocation() != null) {
-        bob.append(drawTextSanitizer(event.getLocation(), MAX_EVENT_TEXT_LEN - bob.length()));
-      }
-
-      // Leave a one pixel boundary on the left and right of the rectangle for the event
-      layout = new StaticLayout(bob, 0, bob.length(), new TextPaint(paint), r.width(), Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, r.width());
+      layout = EventLayoutCache.getInstance().get(event, paint, r.width());
       layouts[i] = layout;
     }
 
@@ -2473,7 +2665,7 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
 
     if (selectionAllday) {
       // Compute the neighbors for the list of all-day events that intersect the selected day.
-      computeAllDayNeighbors();
+      selectStartAllDayEvent();
 
       // Set the selection position to zero so that when we move down to the normal event area, we will highlight the topmost event.
       saveSelectionPosition(0f, 0f, 0f, 0f);
@@ -2513,23 +2705,13 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     canvas.drawText(String.format(text, remainingEvents), x, y, p);
   }
 
-  private void computeAllDayNeighbors() {
+  // Selects the all-day event in the same row as the one selected before, or the last row.
+  private void selectStartAllDayEvent() {
     int len = selectedEvents.size();
     if (len == 0 || selectedEvent != null) {
       return;
     }
 
-    // First, clear all the links
-    for (Event event : selectedEvents) {
-      event.nextUp = null;
-      event.nextDown = null;
-      event.nextLeft = null;
-      event.nextRight = null;
-    }
-
-    // For each event in the selected event list "selectedEvents", find its neighbors in the up and down directions. This could be done
-    // more efficiently by sorting on the Event.getColumn() field, but the list is expected to be very small.
-
     // Find the event in the same row as the previously selected all-day event, if any.
     int startPosition = -1;
 //    if (prevSelectedEvent != null && prevSelectedEvent.drawAsAllday()) {
@@ -2547,17 +2729,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
         maxPositionEvent = ev;
         maxPosition = position;
       }
-      for (int jj = 0; jj < len; jj++) {
-        if (jj != ii) {
-          Event neighbor = selectedEvents.get(jj);
-          int neighborPosition = neighbor.getColumn();
-          if (neighborPosition == position - 1) {
-            ev.nextUp = neighbor;
-          } else if (neighborPosition == position + 1) {
-            ev.nextDown = neighbor;
-          }
-        }
-      }
     }
     if (startEvent != null) {
       setSelectedEvent(startEvent);
@@ -2579,19 +2750,20 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     selectionArea.left = left;
     selectionArea.right = selectionArea.left + cellWidth;
 
-    final ArrayList<Event> events = this.events;
-    int numEvents = events.size();
+    final EventRenderModel model = renderModel;
+    if (model == null) {
+      return;
+    }
     EventGeometry geometry = eventGeometry;
 
     final int viewEndY = viewStartY + viewHeight - DAY_HEADER_HEIGHT - allDayHeight;
 
     int alpha = eventTextPaint.getAlpha();
     eventTextPaint.setAlpha(eventsAlpha);
-    for (int i = 0; i < numEvents; i++) {
-      Event event = events.get(i);
-      if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
-        continue;
-      }
+    for (int position = model.getDayStart(date); position < model.getDayEnd(date); position++) {
+      int i = model.getDayRow(position);
+      Event event = model.getEvent(i);
+      geometry.computeEventRect(left, top, cellWidth, model, i);
 
       // Don't draw it if it is not visible
       if (event.bottom < viewStartY || event.top > viewEndY) {
@@ -2616,25 +2788,45 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     eventTextPaint.setAlpha(alpha);
 
     if (date == selectionDay && !selectionAllday && isFocused() && selectionMode != SELECTION_HIDDEN) {
-      computeNeighbors();
+      selectStartEvent();
+    }
+  }
+
+  /**
+   * Returns the event next to another in a direction of {@link EventSpatialIndex}, or null if there is none. Timed events are looked up in the
+   * index of the render model, all-day events by their row among the selected ones, of which there are only a few.
+   */
+  private Event getNeighbor(Event event, int direction) {
+    if (selectionAllday) {
+      if (direction != EventSpatialIndex.UP && direction != EventSpatialIndex.DOWN) {
+        return null;
+      }
+      int row = event.getColumn() + (direction == EventSpatialIndex.UP ? -1 : 1);
+      for (Event neighbor : selectedEvents) {
+        if (neighbor.getColumn() == row) {
+          return neighbor;
+        }
+      }
+      return null;
+    }
+
+    EventRenderModel model = renderModel;
+    int index = model == null ? -1 : model.indexOf(event);
+    if (index < 0) {
+      return null;
     }
+    int neighbor = model.getIndex().getNeighbor(index, direction);
+    return neighbor < 0 ? null : model.getEvent(neighbor);
   }
 
-  // Computes the "nearest" neighbor event in four directions (left, right, up, down) for each of the events in the selectedEvents array.
-  private void computeNeighbors() {
+  // Selects the event of the selectedEvents array closest to where the selection came from. Moving from it to the events around it is left to
+  // getNeighbor.
+  private void selectStartEvent() {
     int len = selectedEvents.size();
     if (len == 0 || selectedEvent != null) {
       return;
     }
 
-    // First, clear all the links
-    for (Event event : selectedEvents) {
-      event.nextUp = null;
-      event.nextDown = null;
-      event.nextLeft = null;
-      event.nextRight = null;
-    }
-
     Event startEvent = selectedEvents.get(0);
     int startEventDistance1 = 100000; // any large number
     int startEventDistance2 = 100000; // any large number
@@ -2695,14 +2887,11 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
       prevCenter = (prevLeft + prevRight) / 2;
     }
 
-    // For each event in the selected event list "selectedEvents", search
-    // all the other events in that list for the nearest neighbor in 4
-    // directions.
+    // For each event in the selected event list "selectedEvents", see how
+    // close it is to where the selection came from.
     for (int ii = 0; ii < len; ii++) {
       Event ev = selectedEvents.get(ii);
 
-      long startTime = ev.getStartTime();
-//      int endTime = ev.endTime;
       int left = (int) ev.left;
       int right = (int) ev.right;
       int top = (int) ev.top;
@@ -2722,15 +2911,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
 //                String timeRange = DateUtils.formatDateRange(context, ev.startMillis,
 //                        ev.endMillis, flags);
 //            }
-      int upDistanceMin = 10000; // any large number
-      int downDistanceMin = 10000; // any large number
-      int leftDistanceMin = 10000; // any large number
-      int rightDistanceMin = 10000; // any large number
-      Event upEvent = null;
-      Event downEvent = null;
-      Event leftEvent = null;
-      Event rightEvent = null;
-
       // Pick the starting event closest to the previously selected event,
       // if any. distance1 takes precedence over distance2.
       int distance1 = 0;
@@ -2770,134 +2950,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
         startEventDistance1 = distance1;
         startEventDistance2 = distance2;
       }
-
-      // For each neighbor, figure out if it is above or below or left
-      // or right of me and compute the distance.
-      for (int jj = 0; jj < len; jj++) {
-        if (jj == ii) {
-          continue;
-        }
-        Event neighbor = selectedEvents.get(jj);
-        int neighborLeft = (int) neighbor.left;
-        int neighborRight = (int) neighbor.right;
-//        if (neighbor.endTime <= startTime) {
-//          // This neighbor is entirely above me.
-//          // If we overlap the same column, then compute the distance.
-//          if (neighborLeft < right && neighborRight > left) {
-//            int distance = startTime - neighbor.endTime;
-//            if (distance < upDistanceMin) {
-//              upDistanceMin = distance;
-//              upEvent = neighbor;
-//            } else if (distance == upDistanceMin) {
-//              int center = (left + right) / 2;
-//              int currentDistance = 0;
-//              int currentLeft = (int) upEvent.left;
-//              int currentRight = (int) upEvent.right;
-//              if (currentRight <= center) {
-//                currentDistance = center - currentRight;
-//              } else if (currentLeft >= center) {
-//                currentDistance = currentLeft - center;
-//              }
-//
-//              int neighborDistance = 0;
-//              if (neighborRight <= center) {
-//                neighborDistance = center - neighborRight;
-//              } else if (neighborLeft >= center) {
-//                neighborDistance = neighborLeft - center;
-//              }
-//              if (neighborDistance < currentDistance) {
-//                upDistanceMin = distance;
-//                upEvent = neighbor;
-//              }
-//            }
-//          }
-//        } else if (neighbor.startTime >= endTime) {
-//          // This neighbor is entirely below me.
-//          // If we overlap the same column, then compute the distance.
-//          if (neighborLeft < right && neighborRight > left) {
-//            int distance = neighbor.startTime - endTime;
-//            if (distance < downDistanceMin) {
-//              downDistanceMin = distance;
-//              downEvent = neighbor;
-//            } else if (distance == downDistanceMin) {
-//              int center = (left + right) / 2;
-//              int currentDistance = 0;
-//              int currentLeft = (int) downEvent.left;
-//              int currentRight = (int) downEvent.right;
-//              if (currentRight <= center) {
-//                currentDistance = center - currentRight;
-//              } else if (currentLeft >= center) {
-//                currentDistance = currentLeft - center;
-//              }
-//
-//              int neighborDistance = 0;
-//              if (neighborRight <= center) {
-//                neighborDistance = center - neighborRight;
-//              } else if (neighborLeft >= center) {
-//                neighborDistance = neighborLeft - center;
-//              }
-//              if (neighborDistance < currentDistance) {
-//                downDistanceMin = distance;
-//                downEvent = neighbor;
-//              }
-//            }
-//          }
-//        }
-
-        if (neighborLeft >= right) {
-          // This neighbor is entirely to the right of me.
-          // Take the closest neighbor in the y direction.
-          int center = (top + bottom) / 2;
-          int distance = 0;
-          int neighborBottom = (int) neighbor.bottom;
-          int neighborTop = (int) neighbor.top;
-          if (neighborBottom <= center) {
-            distance = center - neighborBottom;
-          } else if (neighborTop >= center) {
-            distance = neighborTop - center;
-          }
-          if (distance < rightDistanceMin) {
-            rightDistanceMin = distance;
-            rightEvent = neighbor;
-          } else if (distance == rightDistanceMin) {
-            // Pick the closest in the x direction
-            int neighborDistance = neighborLeft - right;
-            int currentDistance = (int) rightEvent.left - right;
-            if (neighborDistance < currentDistance) {
-              rightDistanceMin = distance;
-              rightEvent = neighbor;
-            }
-          }
-        } else if (neighborRight <= left) {
-          // This neighbor is entirely to the left of me.
-          // Take the closest neighbor in the y direction.
-          int center = (top + bottom) / 2;
-          int distance = 0;
-          int neighborBottom = (int) neighbor.bottom;
-          int neighborTop = (int) neighbor.top;
-          if (neighborBottom <= center) {
-            distance = center - neighborBottom;
-          } else if (neighborTop >= center) {
-            distance = neighborTop - center;
-          }
-          if (distance < leftDistanceMin) {
-            leftDistanceMin = distance;
-            leftEvent = neighbor;
-          } else if (distance == leftDistanceMin) {
-            // Pick the closest in the x direction
-            int neighborDistance = left - neighborRight;
-            int currentDistance = left - (int) leftEvent.right;
-            if (neighborDistance < currentDistance) {
-              leftDistanceMin = distance;
-              leftEvent = neighbor;
-            }
-          }
-        }
-      }
-      ev.nextUp = upEvent;
-      ev.nextDown = downEvent;
-      ev.nextLeft = leftEvent;
-      ev.nextRight = rightEvent;
     }
     setSelectedEvent(startEvent);
   }
@@ -3027,19 +3079,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
   // Sanitize a string before passing it to drawText or else we get little
   // squares. For newlines and tabs before a comma, delete the character.
   // Otherwise, just replace them with a space.
-  private String drawTextSanitizer(String string, int maxEventTextLen) {
-    Matcher m = drawTextSanitizerFilter.matcher(string);
-    string = m.replaceAll(",");
-
-    if (maxEventTextLen <= 0) {
-      string = "";
-    } else if (string.length() > maxEventTextLen) {
-      string = string.substring(0, maxEventTextLen);
-    }
-
-    return string.replace('\n', ' ');
-  }
-
   private void drawEventText(StaticLayout eventLayout, Rect rect, Canvas canvas, int top, int bottom, boolean center) {
     // drawEmptyRect(canvas, rect, 0xFFFF00FF); // for debugging
 
@@ -3505,7 +3544,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
       touchMode = TOUCH_MODE_INITIAL_STATE;
       int deltaX = (int) e2.getX() - (int) e1.getX();
       switchViews(deltaX < 0, viewStartX, viewWidth, velocityX);
-      viewStartX = 0;
       return;
     }
 
@@ -3668,7 +3706,6 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
           if (Math.abs(viewStartX) > horizontalSnapBackThreshold) {
             // The user has gone beyond the threshold so switch views
             switchViews(viewStartX > 0, viewStartX, viewWidth, 0);
-            viewStartX = 0;
             return true;
           } else {
             // Not beyond the threshold so invalidate which will cause
@@ -3849,13 +3886,23 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
     region.bottom = y + 10;
 
     EventGeometry geometry = eventGeometry;
-
-    for (int i = 0; i < numEvents; i++) {
-      Event event = events.get(i);
-      // Compute the event rectangle.
-      if (!geometry.computeEventRect(date, left, top, cellWidth, event)) {
-        continue;
+    EventRenderModel model = renderModel;
+
+    // Only the events the index finds around the region can touch it. Short events are drawn taller than they last, so the search starts a
+    // minimum event height above it.
+    int numFound = 0;
+    if (model != null) {
+      if (foundEvents.length < model.size()) {
+        foundEvents = new int[model.size()];
       }
+      numFound = model.getIndex().findEvents(date, geometry.yToMinute(region.top - MIN_EVENT_HEIGHT, top), geometry.yToMinute(region.bottom, top),
+                                             foundEvents);
+    }
+    for (int found = 0; found < numFound; found++) {
+      int i = foundEvents[found];
+      Event event = model.getEvent(i);
+      // Compute the event rectangle.
+      geometry.computeEventRect(left, top, cellWidth, model, i);
 
       // If the event intersects the selection region, then add it to
       // selectedEvents.
@@ -3955,9 +4002,21 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
   @Override
   protected void onDetachedFromWindow() {
     cleanup();
+    releaseGridLayer();
+    releaseHeaderLayer();
     super.onDetachedFromWindow();
   }
 
+  @Override
+  protected void onVisibilityChanged(View changedView, int visibility) {
+    super.onVisibilityChanged(changedView, visibility);
+    // The view switcher hides the view that was switched out, it will be drawn again for another day
+    if (changedView == this && visibility != VISIBLE) {
+      releaseGridLayer();
+      releaseHeaderLayer();
+    }
+  }
+
   @Override
   public boolean onLongClick(View v) {
     int flags = DateUtils.FORMAT_SHOW_WEEKDAY;
@@ -4207,7 +4266,9 @@ public class DayView extends View implements View.OnCreateContextMenuListener, S
       if (!DayView.this.paused) {
         handler.postDelayed(updateCurrentTime, UPDATE_CURRENT_TIME_DELAY - (currentTime % UPDATE_CURRENT_TIME_DELAY));
       }
-      todayJulianDay = Time.getJulianDay(currentTime, DayView.this.currentTime.gmtoff);
+      todayJulianDay = JulianDay.fromMillis(currentTime, DayView.this.currentTime.timezone);
+      // The current time line moved, and maybe today
+      invalidateLayers();
       invalidate();
     }
   }
@@ -0,0 +1,184 @@
+package es.android.TurnosAndroid.views.day;
+
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.text.Layout.Alignment;
+import android.text.SpannableStringBuilder;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.style.StyleSpan;
+import android.util.LruCache;
+import es.android.TurnosAndroid.model.Event;
+
+import java.util.regex.Pattern;
+
+/**
+ * The text layouts of the events, shared by the day views of the {@link android.widget.ViewSwitcher}, so flipping to a day that was shown a moment
+ * ago, or reloading its events, doesn't lay out its text again. A layout depends on the event, its text, the width it is drawn at and the paint,
+ * which together make its {@link Key}.
+ * <p/>
+ * Layouts are looked up and built in the UI thread when drawing, and can be built ahead of time in a background thread with {@link #warm}.
+ */
+final class EventLayoutCache {
+  private static final String  TAG                = EventLayoutCache.class.getSimpleName();
+  // A few weeks of events on either side of the visible ones
+  private static final int     MAX_LAYOUTS        = 256;
+  private static final int     MAX_EVENT_TEXT_LEN = 500;
+  private static final Pattern SANITIZER_FILTER   = Pattern.compile("[\t\n],");
+  private static EventLayoutCache instance;
+  private final Handler                       workerHandler;
+  private final Handler                       mainHandler;
+  // LruCache is synchronized, the worker puts layouts while the UI thread reads them
+  private final LruCache<Key, StaticLayout>   layouts;
+
+  private EventLayoutCache() {
+    HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+    thread.start();
+    workerHandler = new Handler(thread.getLooper());
+    mainHandler = new Handler(Looper.getMainLooper());
+    layouts = new LruCache<Key, StaticLayout>(MAX_LAYOUTS);
+  }
+
+  static EventLayoutCache getInstance() {
+    if (instance == null) {
+      instance = new EventLayoutCache();
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the layout of the text of an event at the given width, building it if it isn't cached. Must be called from the UI thread.
+   */
+  StaticLayout get(Event event, Paint paint, int width) {
+    Key key = new Key(event.getId(), getTextHash(event.getName(), event.getLocation()), width, getPaintConfig(paint));
+    StaticLayout layout = layouts.get(key);
+    if (layout == null) {
+      layout = build(event.getName(), event.getLocation(), new TextPaint(paint), width);
+      layouts.put(key, layout);
+    }
+    return layout;
+  }
+
+  /**
+   * Builds in the background the layouts of some events that aren't cached yet, and calls onWarm in the UI thread once they are. Widths are the
+   * widths each event will be drawn at; the events whose width is not positive are skipped. Must be called from the UI thread.
+   */
+  void warm(Event[] events, final int[] widths, Paint paint, final Runnable onWarm) {
+    final int numEvents = events.length;
+    final long[] ids = new long[numEvents];
+    final String[] names = new String[numEvents];
+    final String[] locations = new String[numEvents];
+    for (int i = 0; i < numEvents; i++) {
+      ids[i] = events[i].getId();
+      names[i] = events[i].getName();
+      locations[i] = events[i].getLocation();
+    }
+    // Paints are not meant to be shared between threads, the worker measures with a copy
+    final TextPaint textPaint = new TextPaint(paint);
+    final int paintConfig = getPaintConfig(paint);
+
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < numEvents; i++) {
+          if (widths[i] <= 0) {
+            continue;
+          }
+          Key key = new Key(ids[i], getTextHash(names[i], locations[i]), widths[i], paintConfig);
+          if (layouts.get(key) == null) {
+            // Each layout keeps its own paint, the views change its alpha when drawing
+            layouts.put(key, build(names[i], locations[i], new TextPaint(textPaint), widths[i]));
+          }
+        }
+        if (onWarm != null) {
+          mainHandler.post(onWarm);
+        }
+      }
+    });
+  }
+
+  private static StaticLayout build(String name, String location, TextPaint paint, int width) {
+    SpannableStringBuilder bob = new SpannableStringBuilder();
+    if (name != null) {
+      // MAX - 1 since we add a space
+      bob.append(sanitize(name, MAX_EVENT_TEXT_LEN - 1));
+      bob.setSpan(new StyleSpan(Typeface.BOLD), 0, bob.length(), 0);
+      bob.append(' ');
+    }
+    if (location != null) {
+      bob.append(sanitize(location, MAX_EVENT_TEXT_LEN - bob.length()));
+    }
+
+    // Leave a one pixel boundary on the left and right of the rectangle for the event
+    return new StaticLayout(bob, 0, bob.length(), paint, width, Alignment.ALIGN_NORMAL, 1.0f, 0.0f, true, null, width);
+  }
+
+  private static String sanitize(String string, int maxEventTextLen) {
+    string = SANITIZER_FILTER.matcher(string).replaceAll(",");
+
+    if (maxEventTextLen <= 0) {
+      string = "";
+    } else if (string.length() > maxEventTextLen) {
+      string = string.substring(0, maxEventTextLen);
+    }
+
+    return string.replace('\n', ' ');
+  }
+
+  private static int getTextHash(String name, String location) {
+    return 31 * (name == null ? 0 : name.hashCode()) + (location == null ? 0 : location.hashCode());
+  }
+
+  // Everything of the paint that changes how the text is laid out or looks, but the alpha, which is set on every draw
+  private static int getPaintConfig(Paint paint) {
+    int result = Float.floatToIntBits(paint.getTextSize());
+    result = 31 * result + Float.floatToIntBits(paint.getTextScaleX());
+    result = 31 * result + (paint.getColor() | 0xFF000000);
+    result = 31 * result + paint.getFlags();
+    Typeface typeface = paint.getTypeface();
+    result = 31 * result + (typeface == null ? 0 : typeface.hashCode());
+    return result;
+  }
+
+  /**
+   * Identifies the layout of an event: its id, the text it shows, the width it is drawn at and the paint it is drawn with.
+   */
+  static final class Key {
+    final long eventId;
+    final int  textHash;
+    final int  width;
+    final int  paintConfig;
+
+    Key(long eventId, int textHash, int width, int paintConfig) {
+      this.eventId = eventId;
+      this.textHash = textHash;
+      this.width = width;
+      this.paintConfig = paintConfig;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return eventId == key.eventId && textHash == key.textHash && width == key.width && paintConfig == key.paintConfig;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = (int) (eventId ^ (eventId >>> 32));
+      result = 31 * result + textHash;
+      result = 31 * result + width;
+      result = 31 * result + paintConfig;
+      return result;
+    }
+  }
+}
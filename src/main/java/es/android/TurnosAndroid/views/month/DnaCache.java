@@ -0,0 +1,142 @@
+package es.android.TurnosAndroid.views.month;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.util.LruCache;
+import es.android.TurnosAndroid.helpers.Utils;
+import es.android.TurnosAndroid.model.EventBuffer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Builds the DNA of the weeks in a background thread and keeps the last ones built, so showing a week again, or drawing it, doesn't compute
+ * anything. The DNA of a week only depends on its first day, the events loaded and the size of the view, which together make its {@link Key}.
+ * <p/>
+ * Everything but the building itself happens in the UI thread.
+ */
+final class DnaCache {
+  private static final String             TAG       = DnaCache.class.getSimpleName();
+  // A few months of weeks on either side of the visible ones
+  private static final int                MAX_WEEKS = 64;
+  private static final Utils.EventStrand[] NO_DNA    = new Utils.EventStrand[0];
+  private static DnaCache instance;
+  private final Handler                                      workerHandler;
+  private final Handler                                      mainHandler;
+  private final LruCache<Key, Utils.EventStrand[]>           weeks;
+  // Listeners of the weeks being built, so a week asked for twice is only built once
+  private final HashMap<Key, ArrayList<OnDnaReadyListener>> pending;
+
+  interface OnDnaReadyListener {
+    /**
+     * Called in the UI thread once the DNA of a week has been built. Strands is empty if there is nothing to draw.
+     */
+    public void onDnaReady(Key key, Utils.EventStrand[] strands);
+  }
+
+  private DnaCache() {
+    HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+    thread.start();
+    workerHandler = new Handler(thread.getLooper());
+    mainHandler = new Handler(Looper.getMainLooper());
+    weeks = new LruCache<Key, Utils.EventStrand[]>(MAX_WEEKS);
+    pending = new HashMap<Key, ArrayList<OnDnaReadyListener>>();
+  }
+
+  static DnaCache getInstance() {
+    if (instance == null) {
+      instance = new DnaCache();
+    }
+    return instance;
+  }
+
+  /**
+   * Returns the DNA of a week if it has already been built, an empty array if it has nothing to draw, or null if it has to be built.
+   */
+  Utils.EventStrand[] get(Key key) {
+    return weeks.get(key);
+  }
+
+  /**
+   * Builds the DNA of a week in the background and calls the listener with it. The events must not change afterwards.
+   */
+  void build(final Key key, final EventBuffer events, final int top, final int bottom, final int minPixels, final int[] dayXs, Context context,
+             OnDnaReadyListener listener) {
+    ArrayList<OnDnaReadyListener> listeners = pending.get(key);
+    if (listeners != null) {
+      if (!listeners.contains(listener)) {
+        listeners.add(listener);
+      }
+      return;
+    }
+    listeners = new ArrayList<OnDnaReadyListener>();
+    listeners.add(listener);
+    pending.put(key, listeners);
+
+    final Context appContext = context.getApplicationContext();
+    workerHandler.post(new Runnable() {
+      @Override
+      public void run() {
+        Utils.EventStrand[] strands = Utils.createDNAStrands(key.firstJulianDay, events, top, bottom, minPixels, dayXs, appContext);
+        final Utils.EventStrand[] dna = strands != null ? strands : NO_DNA;
+        mainHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            weeks.put(key, dna);
+            ArrayList<OnDnaReadyListener> listeners = pending.remove(key);
+            if (listeners != null) {
+              for (OnDnaReadyListener listener : listeners) {
+                listener.onDnaReady(key, dna);
+              }
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Identifies the DNA of a week: its first day, which events were loaded, and the size and layout of the view.
+   */
+  static final class Key {
+    final int     firstJulianDay;
+    final int     eventsVersion;
+    final int     width;
+    final int     height;
+    final boolean showWeekNum;
+
+    Key(int firstJulianDay, int eventsVersion, int width, int height, boolean showWeekNum) {
+      this.firstJulianDay = firstJulianDay;
+      this.eventsVersion = eventsVersion;
+      this.width = width;
+      this.height = height;
+      this.showWeekNum = showWeekNum;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return firstJulianDay == key.firstJulianDay && eventsVersion == key.eventsVersion && width == key.width && height == key.height &&
+             showWeekNum == key.showWeekNum;
+    }
+
+    @Override
+    public int hashCode() {
+      int result = firstJulianDay;
+      result = 31 * result + eventsVersion;
+      result = 31 * result + width;
+      result = 31 * result + height;
+      result = 31 * result + (showWeekNum ? 1 : 0);
+      return result;
+    }
+  }
+}
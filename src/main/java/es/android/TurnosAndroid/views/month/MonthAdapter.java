@@ -26,14 +26,14 @@ import es.android.TurnosAndroid.controllers.CalendarController;
 import es.android.TurnosAndroid.fragments.MonthFragment;
 import es.android.TurnosAndroid.helpers.TimeZoneUtils;
 import es.android.TurnosAndroid.helpers.Utils;
-import es.android.TurnosAndroid.model.CalendarEvent;
+import es.android.TurnosAndroid.model.EventBuffer;
 import es.android.TurnosAndroid.model.EventType;
 import es.android.TurnosAndroid.views.ViewType;
 
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.HashMap;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * <p>
@@ -45,28 +45,30 @@ public class MonthAdapter extends BaseAdapter implements OnTouchListener {
   /**
    * The number of weeks to display at a time.
    */
-  public static final  String WEEK_PARAMS_NUM_WEEKS     = "num_weeks";
+  public static final  String        WEEK_PARAMS_NUM_WEEKS     = "num_weeks";
   /**
    * Which month should be in focus currently.
    */
-  public static final  String WEEK_PARAMS_FOCUS_MONTH   = "focus_month";
+  public static final  String        WEEK_PARAMS_FOCUS_MONTH   = "focus_month";
   /**
    * Whether the week number should be shown. Non-zero to show them.
    */
-  public static final  String WEEK_PARAMS_SHOW_WEEK     = "week_numbers";
+  public static final  String        WEEK_PARAMS_SHOW_WEEK     = "week_numbers";
   /**
    * Which day the week should start on. {@link android.text.format.Time#SUNDAY} through {@link android.text.format.Time#SATURDAY}.
    */
-  public static final  String WEEK_PARAMS_WEEK_START    = "week_start";
+  public static final  String        WEEK_PARAMS_WEEK_START    = "week_start";
   /**
    * The Julian day to highlight as selected.
    */
-  public static final  String WEEK_PARAMS_JULIAN_DAY    = "selected_day";
-  public static final  String WEEK_PARAMS_DAYS_PER_WEEK = "days_per_week";
-  private static final int    WEEK_COUNT                = 3497;
-  private static final int    DEFAULT_NUM_WEEKS         = 6;
-  private static final int    DEFAULT_MONTH_FOCUS       = 0;
-  private static final long   ANIMATE_TODAY_TIMEOUT     = 1000;
+  public static final  String        WEEK_PARAMS_JULIAN_DAY    = "selected_day";
+  public static final  String        WEEK_PARAMS_DAYS_PER_WEEK = "days_per_week";
+  private static final int           WEEK_COUNT                = 3497;
+  private static final int           DEFAULT_NUM_WEEKS         = 6;
+  private static final int           DEFAULT_MONTH_FOCUS       = 0;
+  private static final long          ANIMATE_TODAY_TIMEOUT     = 1000;
+  // The dna cache is shared by every adapter, a version taken by one must never be taken by another
+  private static final AtomicInteger EVENTS_VERSIONS           = new AtomicInteger();
 
   private Context                             context;
   private Time                                selectedDay;
@@ -85,8 +87,11 @@ public class MonthAdapter extends BaseAdapter implements OnTouchListener {
   private int                                 totalClickDelay;
   private int                                 onDownDelay;
   private float                               movedPixelToCancel;
-  private ArrayList<ArrayList<CalendarEvent>> eventDayList;
-  private ArrayList<CalendarEvent>            calendarEvents;
+  private int                                 numDays;
+  private EventBuffer                         events;
+  // Tells the week views, and the dna they have cached, which events they were given
+  private int                                 eventsVersion;
+  private WeekView.WeekParams                 weekParams;
   private boolean                             animateToday;
   private long                                animateTime;
   private WeekView                            clickedView;
@@ -136,7 +141,9 @@ public class MonthAdapter extends BaseAdapter implements OnTouchListener {
     today.setToNow();
     tempTime = new Time(homeTimeZone);
     updateParams(params);
-    eventDayList = new ArrayList<ArrayList<CalendarEvent>>();
+    numDays = 0;
+    events = null;
+    weekParams = new WeekView.WeekParams();
     animateToday = false;
     animateTime = 0;
     int onTapDelay = 100;
@@ -210,103 +217,84 @@ public class MonthAdapter extends BaseAdapter implements OnTouchListener {
     return position;
   }
 
-  public void setEvents(int firstJulianDay, int numDays, ArrayList<CalendarEvent> calendarEvents) {
-    this.calendarEvents = calendarEvents;
-    this.firstJulianDay = firstJulianDay;
-    // Create a new list, this is necessary since the weeks are referencing pieces of the old list
-    eventDayList = new ArrayList<ArrayList<CalendarEvent>>();
-    for (int i = 0; i < numDays; i++) {
-      eventDayList.add(new ArrayList<CalendarEvent>());
+  /**
+   * Sets the events of the days from firstJulianDay to firstJulianDay + numDays - 1. The buffer is shared with the week views, which read their
+   * days through its day index, so it must not change afterwards. The loaders index it in the background; it is only indexed here if they haven't.
+   */
+  public void setEvents(int firstJulianDay, int numDays, EventBuffer events) {
+    if (!events.isIndexed(firstJulianDay, numDays)) {
+      events.indexDays(firstJulianDay, numDays);
     }
-
-    // Compute the new set of days with calendarEvents
-//    for (Event event : calendarEvents) {
-//      int startDay = event.startDay - this.firstJulianDay;
-//      int endDay = event.endDay - this.firstJulianDay + 1;
-//      if (startDay < numDays || endDay >= 0) {
-//        if (startDay < 0) {
-//          startDay = 0;
-//        }
-//        if (startDay <= numDays && endDay >= 0) {
-//          if (endDay > numDays) {
-//            endDay = numDays;
-//          }
-//          for (int j = startDay; j < endDay; j++) {
-//            eventDayList.get(j).add(event);
-//          }
-//        }
-//      }
-//    }
-
+    this.events = events;
+    this.firstJulianDay = firstJulianDay;
+    this.numDays = numDays;
+    eventsVersion = EVENTS_VERSIONS.incrementAndGet();
     refresh();
   }
 
   @Override
   public View getView(int position, View convertView, ViewGroup parent) {
     WeekView v;
-    HashMap<String, Integer> drawingParams = new HashMap<String, Integer>();
     boolean isAnimatingToday = false;
 
-//    if (convertView != null) {
-//      v = (WeekView) convertView;
-//      // Checking updateToday uses the current params instead of the new params, so this is assuming the view is relatively stable
-//      if (animateToday && v.updateToday(selectedDay.timezone)) {
-//        long currentTime = System.currentTimeMillis();
-//        // If it's been too long since we tried to start the animation don't show it. This can happen if the user stops a scroll before reaching today.
-//        if (currentTime - animateTime > ANIMATE_TODAY_TIMEOUT) {
-//          animateToday = false;
-//          animateTime = 0;
-//        } else {
-//          isAnimatingToday = true;
-//          // There is a bug that causes invalidates to not work some of the time unless we recreate the view.
-//          v = new WeekView(context);
-//        }
-//      } else {
-//        drawingParams = (HashMap<String, Integer>) v.getTag();
-//      }
-//    } else {
+    if (convertView instanceof WeekView) {
+      v = (WeekView) convertView;
+      // Checking updateToday uses the current params instead of the new params, so this is assuming the view is relatively stable
+      if (animateToday && v.updateToday(selectedDay.timezone)) {
+        long currentTime = System.currentTimeMillis();
+        // If it's been too long since we tried to start the animation don't show it. This can happen if the user stops a scroll before reaching today.
+        if (currentTime - animateTime > ANIMATE_TODAY_TIMEOUT) {
+          animateToday = false;
+          animateTime = 0;
+        } else {
+          isAnimatingToday = true;
+          // There is a bug that causes invalidates to not work some of the time unless we recreate the view.
+          v = new WeekView(context);
+        }
+      }
+    } else {
       v = new WeekView(context);
-//    }
-
-    drawingParams.clear();
-
-    v.setOnTouchListener(this);
+      v.setOnTouchListener(this);
+    }
 
     int selectedDay = -1;
     if (selectedWeek == position) {
       selectedDay = this.selectedDay.weekDay;
     }
 
-    drawingParams.put(WeekView.KEY_WEEK_HEIGHT, (parent.getHeight() + parent.getTop()) / numWeeks);
-    drawingParams.put(WeekView.KEY_SELECTED_DAY, selectedDay);
-    drawingParams.put(WeekView.KEY_SHOW_WEEK_NUM, showWeekNumber ? 1 : 0);
-    drawingParams.put(WeekView.KEY_WEEK_START, firstDayOfWeek);
-    drawingParams.put(WeekView.KEY_WEEK_TO_DISPLAY, position);
-    drawingParams.put(WeekView.KEY_FOCUS_MONTH, focusMonth);
+    // The view copies the params, so the same ones are filled for every week
+    WeekView.WeekParams params = weekParams;
+    params.height = (parent.getHeight() + parent.getTop()) / numWeeks;
+    params.selectedDay = selectedDay;
+    params.showWeekNum = showWeekNumber;
+    params.weekStart = firstDayOfWeek;
+    params.week = position;
+    params.focusMonth = focusMonth;
+    params.animateToday = isAnimatingToday;
 
     if (isAnimatingToday) {
-      drawingParams.put(WeekView.KEY_ANIMATE_TODAY, 1);
+      v.setOnTouchListener(this);
       animateToday = false;
     }
 
-    v.setWeekParams(drawingParams, this.selectedDay.timezone);
+    v.setWeekParams(params, this.selectedDay.timezone);
     sendEventsToView(v);
     return v;
   }
 
   private void sendEventsToView(WeekView weekView) {
-    if (eventDayList.size() == 0) {
-      weekView.setEvents(null, null);
+    if (events == null || numDays == 0) {
+      weekView.setEvents(null, eventsVersion);
       return;
     }
     int viewJulianDay = weekView.getFirstJulianDay();
     int start = viewJulianDay - firstJulianDay;
     int end = start + MonthFragment.DAYS_PER_WEEK;
-    if (start < 0 || end > eventDayList.size()) {
-      weekView.setEvents(null, null);
+    if (start < 0 || end > numDays) {
+      weekView.setEvents(null, eventsVersion);
       return;
     }
-    weekView.setEvents(eventDayList.subList(start, end), calendarEvents);
+    weekView.setEvents(events, eventsVersion);
   }
 
   /**
@@ -10,15 +10,15 @@ import android.graphics.Paint.Align;
 import android.graphics.Paint.Style;
 import android.text.TextPaint;
 import android.text.format.Time;
-import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AbsListView;
 import es.android.TurnosAndroid.R;
 import es.android.TurnosAndroid.fragments.MonthFragment;
+import es.android.TurnosAndroid.helpers.JulianDay;
 import es.android.TurnosAndroid.helpers.Utils;
-import es.android.TurnosAndroid.model.CalendarEvent;
 import es.android.TurnosAndroid.model.Event;
+import es.android.TurnosAndroid.model.EventBuffer;
 
 import java.security.InvalidParameterException;
 import java.util.*;
@@ -27,38 +27,8 @@ import java.util.*;
  * This is a dynamic view for drawing a single week. It can be configured to display the week number, start the week on a given day, or show a reduced
  * number of days. It is intended for use as a single view within a ListView. See {@link MonthAdapter} for usage.
  */
-public class WeekView extends View {
-  public static final String KEY_ANIMATE_TODAY          = "animate_today";
-  public static final int    MONDAY_BEFORE_JULIAN_EPOCH = Time.EPOCH_JULIAN_DAY - 3;
-  /**
-   * This sets the height of this week in pixels
-   */
-  public static final String KEY_WEEK_HEIGHT            = "height";
-
-  /**
-   * These params can be passed into the view to control how it appears. {@link #KEY_WEEK_TO_DISPLAY} is the only required field, though the default
-   * values are unlikely to fit most layouts correctly.
-   */
-  /**
-   * This specifies the position (or weeks since the epoch) of this week, calculated using {@link es.android.TurnosAndroid.helpers.Utils#getWeeksSinceEpochFromJulianDay}
-   */
-  public static final    String        KEY_WEEK_TO_DISPLAY         = "week";
-  /**
-   * This sets one of the days in this view as selected {@link android.text.format.Time#SUNDAY} through {@link android.text.format.Time#SATURDAY}.
-   */
-  public static final    String        KEY_SELECTED_DAY            = "selected_day";
-  /**
-   * Which day the week should start on. {@link android.text.format.Time#SUNDAY} through {@link android.text.format.Time#SATURDAY}.
-   */
-  public static final    String        KEY_WEEK_START              = "week_start";
-  /**
-   * Which month is currently in focus, as defined by {@link android.text.format.Time#month} [0-11].
-   */
-  public static final    String        KEY_FOCUS_MONTH             = "focus_month";
-  /**
-   * If this month should display week numbers. false if 0, true otherwise.
-   */
-  public static final    String        KEY_SHOW_WEEK_NUM           = "show_wk_num";
+public class WeekView extends View implements DnaCache.OnDnaReadyListener {
+  public static final    int           MONDAY_BEFORE_JULIAN_EPOCH  = Time.EPOCH_JULIAN_DAY - 3;
   protected static final int           DEFAULT_SELECTED_DAY        = -1;
   protected static final int           DEFAULT_WEEK_START          = Time.SUNDAY;
   protected static final int           DEFAULT_FOCUS_MONTH         = -1;
@@ -105,8 +75,26 @@ public class WeekView extends View {
   private static         StringBuilder stringBuilder               = new StringBuilder(50);
   // TODO recreate formatter when locale changes
   private static         Formatter     mFormatter                  = new Formatter(stringBuilder, Locale.getDefault());
-  private   Paint                               p;
-  private   Paint                               monthNumPaint;
+  // Day and week numbers, so binding a week doesn't format them again
+  private static final   String[]      NUMBERS                     = new String[54];
+  // The paints are shared by all the weeks, every draw sets the color and style it needs
+  private static         Paint         p;
+  private static         Paint         monthNumPaint;
+  private static         TextPaint     eventPaint;
+  private static         TextPaint     solidBackgroundEventPaint;
+  private static         TextPaint     declinedEventPaint;
+  private static         TextPaint     eventExtrasPaint;
+  private static         TextPaint     eventDeclinedExtrasPaint;
+  private static         Paint         weekNumPaint;
+  private static         Paint         dnaTimePaint;
+  private static         Paint         eventSquarePaint;
+  private static         int           monthNumAscentHeight;
+  private static         int           eventHeight;
+  private static         int           eventAscentHeight;
+  private static         int           extrasHeight;
+  private static         int           extrasAscentHeight;
+  private static         int           extrasDescent;
+  private static         int           weekNumAscentHeight;
   // Cache the number strings so we don't have to recompute them each time
   private   String[]                            dayNumbers;
   // Quick lookup for checking which days are in the focus month
@@ -133,29 +121,16 @@ public class WeekView extends View {
   private   int                                 weekStart;
   // The timezone to display times/dates in (used for determining when Today is)
   private   String                              timeZone;
-  private   int                                 focusMonthColor;
   private   int                                 weekNumColor;
   private   Time                                today;
   private   boolean                             hasToday;
   private   int                                 todayIndex;
-  private   List<ArrayList<CalendarEvent>>      calendarEvents;
-  private   ArrayList<CalendarEvent>            unsortedEvents;
-  private   HashMap<Integer, Utils.EventStrand> dna;
-  private   TextPaint                           eventPaint;
-  private   TextPaint                           solidBackgroundEventPaint;
-  private   TextPaint                           declinedEventPaint;
-  private   TextPaint                           eventExtrasPaint;
-  private   TextPaint                           eventDeclinedExtrasPaint;
-  private   Paint                               weekNumPaint;
-  private   Paint                               dnaTimePaint;
-  private   Paint                               eventSquarePaint;
-  private   int                                 monthNumAscentHeight;
-  private   int                                 eventHeight;
-  private   int                                 eventAscentHeight;
-  private   int                                 extrasHeight;
-  private   int                                 extrasAscentHeight;
-  private   int                                 extrasDescent;
-  private   int                                 weekNumAscentHeight;
+  private   EventBuffer                         events;
+  // Changes every time the adapter gets new events, it tells the DNA of the old ones apart
+  private   int                                 eventsVersion;
+  // The DNA this view shows or is waiting for, null until it has been asked for
+  private   DnaCache.Key                        dnaKey;
+  private   Utils.EventStrand[]                 dna;
   private   int                                 monthBGOtherColor;
   private   int                                 monthBGTodayColor;
   private   int                                 monthNumColor;
@@ -172,16 +147,17 @@ public class WeekView extends View {
   private   int                                 clickedDayIndex;
   private   int                                 animateTodayAlpha;
   private   ObjectAnimator                      todayAnimator;
-  private   int[]                               mDayXs;
   private   TodayAnimatorListener               animatorListener;
+  // Reused on every bind and draw
+  private   Time                                weekTime;
+  private   Rect                                rect;
+  private   float[]                             lines;
 
   public WeekView(Context context) {
     super(context);
     Resources res = context.getResources();
 
-    focusMonthColor = res.getColor(R.color.month_mini_day_number);
     weekNumColor = res.getColor(R.color.month_week_num_color);
-    p = new Paint();
     firstJulianDay = -1;
     firstMonth = -1;
     lastMonth = -1;
@@ -194,13 +170,16 @@ public class WeekView extends View {
     today = new Time();
     hasToday = false;
     todayIndex = -1;
-    calendarEvents = null;
-    unsortedEvents = null;
+    events = null;
+    dnaKey = null;
     dna = null;
     clickedDayIndex = -1;
     animateTodayAlpha = 0;
     todayAnimator = null;
     animatorListener = new TodayAnimatorListener();
+    weekTime = new Time();
+    rect = new Rect();
+    lines = new float[8 * 4];
 
     if (scale == 0) {
       scale = context.getResources().getDisplayMetrics().density;
@@ -220,19 +199,6 @@ public class WeekView extends View {
   }
 
   private void initView() {
-    p.setFakeBoldText(false);
-    p.setAntiAlias(true);
-    p.setTextSize(MINI_DAY_NUMBER_TEXT_SIZE);
-    p.setStyle(Style.FILL);
-
-    monthNumPaint = new Paint();
-    monthNumPaint.setFakeBoldText(true);
-    monthNumPaint.setAntiAlias(true);
-    monthNumPaint.setTextSize(MINI_DAY_NUMBER_TEXT_SIZE);
-    monthNumPaint.setColor(focusMonthColor);
-    monthNumPaint.setStyle(Style.FILL);
-    monthNumPaint.setTextAlign(Align.CENTER);
-
     if (!initialized) {
       Resources resources = getContext().getResources();
       TEXT_SIZE_EVENT_TITLE = resources.getInteger(R.integer.text_size_event_title);
@@ -268,10 +234,28 @@ public class WeekView extends View {
         TODAY_HIGHLIGHT_WIDTH *= scale;
       }
       TOP_PADDING_MONTH_NUMBER += DNA_ALL_DAY_HEIGHT + DNA_MARGIN;
+      for (int i = 0; i < NUMBERS.length; i++) {
+        NUMBERS[i] = Integer.toString(i);
+      }
       initialized = true;
     }
 
     loadColors(getContext());
+    if (p == null) {
+      createPaints();
+    }
+
+    setLayoutParams(new AbsListView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
+    setClickable(true);
+  }
+
+  // Every week draws with the same colors and sizes, so the paints are only created by the first one
+  private void createPaints() {
+    p = new Paint();
+    p.setFakeBoldText(false);
+    p.setAntiAlias(true);
+    p.setTextSize(MINI_DAY_NUMBER_TEXT_SIZE);
+    p.setStyle(Style.FILL);
 
     monthNumPaint = new Paint();
     monthNumPaint.setFakeBoldText(false);
@@ -341,9 +325,6 @@ public class WeekView extends View {
     eventSquarePaint = new Paint();
     eventSquarePaint.setStrokeWidth(EVENT_SQUARE_BORDER);
     eventSquarePaint.setAntiAlias(false);
-
-    setLayoutParams(new AbsListView.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
-    setClickable(true);
   }
 
   private void loadColors(Context context) {
@@ -362,98 +343,91 @@ public class WeekView extends View {
     clickedDayColor = res.getColor(R.color.day_clicked_background_color);
   }
 
-  // Sets the list of events for this week. Takes a sorted list of arrays divided up by day for generating the large month version and the full
-  // arraylist sorted by start time to generate the dna version.
-  public void setEvents(List<ArrayList<CalendarEvent>> sortedEvents, ArrayList<CalendarEvent> unsortedEvents) {
-    setEvents(sortedEvents);
-    // The MIN_WEEK_WIDTH is a hack to prevent the view from trying to generate dna bits before its width has been fixed.
-    createDna(unsortedEvents);
-  }
-
-  private void setEvents(List<ArrayList<CalendarEvent>> sortedEvents) {
-    calendarEvents = sortedEvents;
-    if (sortedEvents != null && sortedEvents.size() != MonthFragment.DAYS_PER_WEEK) {
-      if (Log.isLoggable(TAG, Log.ERROR)) {
-        Log.wtf(TAG, "Events size must be same as days displayed: size=" + sortedEvents.size() + " days=" + MonthFragment.DAYS_PER_WEEK);
-      }
-      calendarEvents = null;
-    }
+  // Sets the events to generate the dna version. The buffer must be indexed by day, this week reads its own days through the index. The version
+  // identifies the buffer, the adapter changes it every time it gets new events.
+  public void setEvents(EventBuffer events, int eventsVersion) {
+    this.events = events;
+    this.eventsVersion = eventsVersion;
+    dnaKey = null;
+    dna = null;
+    createDna();
   }
 
   /**
-   * Sets up the dna bits for the view. This will return early if the view isn't in a state that will create a valid set of dna yet (such as the views width not being set correctly yet).
+   * Sets up the dna bits for the view. This will return early if the view isn't in a state that will create a valid set of dna yet (such as the views
+   * width not being set correctly yet). The dna of a week that has been shown before is taken from the {@link DnaCache}, otherwise it is built in
+   * the background and this view is drawn again once it is ready.
    */
-  private void createDna(ArrayList<CalendarEvent> unsortedEvents) {
-    if (unsortedEvents == null || width <= MIN_WEEK_WIDTH || getContext() == null) {
-      // Stash the list of events for use when this view is ready, or just clear it if a null set has been passed to this view
-      this.unsortedEvents = unsortedEvents;
-      dna = null;
+  private void createDna() {
+    // The MIN_WEEK_WIDTH is a hack to prevent the view from trying to generate dna bits before its width has been fixed.
+    if (events == null || width <= MIN_WEEK_WIDTH || getContext() == null) {
       return;
     }
 
-    // clear the cached set of events since we're ready to build it now
-    this.unsortedEvents = null;
+    DnaCache cache = DnaCache.getInstance();
+    dnaKey = new DnaCache.Key(firstJulianDay, eventsVersion, width, height, showWeekNum);
+    dna = cache.get(dnaKey);
+    if (dna != null) {
+      return;
+    }
 
     // Create the drawing coordinates for dna
-    int numDays = calendarEvents.size();
-    mDayXs = new int[numDays];
-
+    int numDays = MonthFragment.DAYS_PER_WEEK;
+    int[] dayXs = new int[numDays];
     for (int day = 0; day < numDays; day++) {
-      mDayXs[day] = computeDayLeftPosition(day) + DNA_WIDTH / 2 + DNA_SIDE_PADDING;
+      dayXs[day] = computeDayLeftPosition(day) + DNA_WIDTH / 2 + DNA_SIDE_PADDING;
     }
 
     int top = DAY_SEPARATOR_INNER_WIDTH + DNA_MARGIN + DNA_ALL_DAY_HEIGHT + 1;
     int bottom = height - DNA_MARGIN;
-    dna = Utils.createDNAStrands(firstJulianDay, unsortedEvents, top, bottom, DNA_MIN_SEGMENT_HEIGHT, mDayXs, getContext());
+    cache.build(dnaKey, events, top, bottom, DNA_MIN_SEGMENT_HEIGHT, dayXs, getContext(), this);
+  }
+
+  @Override
+  public void onDnaReady(DnaCache.Key key, Utils.EventStrand[] strands) {
+    // This view may be showing another week by now
+    if (key.equals(dnaKey)) {
+      dna = strands;
+      invalidate();
+    }
   }
 
   /**
-   * Sets all the parameters for displaying this week. The only required parameter is the week number. Other parameters have a default value and will only update if a new value is
-   * included, except for focus month, which will always default to no focus month if no value is passed in. See {@link #KEY_WEEK_HEIGHT} for more info on parameters.
+   * Sets all the parameters for displaying this week. The params are copied, so the caller can reuse the same object for every week it binds.
    *
-   * @param params A map of the new parameters, see {@link #KEY_WEEK_HEIGHT}
+   * @param params The parameters of this week, see {@link WeekParams}
    * @param tz     The time zone this view should reference times in
    */
-  public void setWeekParams(HashMap<String, Integer> params, String tz) {
-    if (!params.containsKey(KEY_WEEK_TO_DISPLAY)) {
+  public void setWeekParams(WeekParams params, String tz) {
+    if (params.week == WeekParams.NO_WEEK) {
       throw new InvalidParameterException("You must specify the week number for this view");
     }
-    setTag(params);
     timeZone = tz;
-
-    if (params.containsKey(KEY_WEEK_HEIGHT)) {
-      height = params.get(KEY_WEEK_HEIGHT);
-    }
-
-    if (params.containsKey(KEY_SELECTED_DAY)) {
-      selectedDay = params.get(KEY_SELECTED_DAY);
-    }
-
-    if (params.containsKey(KEY_SHOW_WEEK_NUM)) {
-      showWeekNum = params.get(KEY_SHOW_WEEK_NUM) != 0;
-    }
+    height = params.height;
+    selectedDay = params.selectedDay;
+    showWeekNum = params.showWeekNum;
+    weekStart = params.weekStart;
     int numCells = showWeekNum ? MonthFragment.DAYS_PER_WEEK + 1 : MonthFragment.DAYS_PER_WEEK;
 
-    // Allocate space for caching the day numbers and focus values
-    dayNumbers = new String[numCells];
-    focusDay = new boolean[numCells];
-    oddMonth = new boolean[numCells];
-    week = params.get(KEY_WEEK_TO_DISPLAY);
+    // Allocate space for caching the day numbers and focus values, unless a previous week of this view already did
+    if (dayNumbers == null || dayNumbers.length != numCells) {
+      dayNumbers = new String[numCells];
+      focusDay = new boolean[numCells];
+      oddMonth = new boolean[numCells];
+    }
+    week = params.week;
     int julianMonday = getJulianMondayFromWeeksSinceEpoch(week);
-    Time time = new Time(tz);
+    Time time = weekTime;
+    time.timezone = tz;
     time.setJulianDay(julianMonday);
 
     // If we're showing the week number calculate it based on Monday
     int i = 0;
     if (showWeekNum) {
-      dayNumbers[0] = Integer.toString(time.getWeekNumber());
+      dayNumbers[0] = NUMBERS[time.getWeekNumber()];
       i++;
     }
 
-    if (params.containsKey(KEY_WEEK_START)) {
-      weekStart = params.get(KEY_WEEK_START);
-    }
-
     // Now adjust our starting day based on the start day of the week. If the week is set to start on a Saturday the first week will be Dec 27th 1969 -Jan 2nd, 1970
     if (time.weekDay != weekStart) {
       int diff = time.weekDay - weekStart;
@@ -464,25 +438,15 @@ public class WeekView extends View {
       time.normalize(true);
     }
 
-    firstJulianDay = Time.getJulianDay(time.toMillis(true), time.gmtoff);
+    firstJulianDay = JulianDay.fromMillis(time.toMillis(true), tz);
     firstMonth = time.month;
 
-    // Figure out what day today is
-    Time today = new Time(tz);
-    today.setToNow();
-    hasToday = false;
-
-    int focusMonth = params.containsKey(KEY_FOCUS_MONTH) ? params.get(KEY_FOCUS_MONTH) : DEFAULT_FOCUS_MONTH;
+    int focusMonth = params.focusMonth;
 
     for (; i < numCells; i++) {
       oddMonth[i] = (time.month % 2) == 1;
       focusDay[i] = time.month == focusMonth;
-
-      if (time.year == today.year && time.yearDay == today.yearDay) {
-        hasToday = true;
-      }
-
-      dayNumbers[i] = Integer.toString(time.monthDay++);
+      dayNumbers[i] = NUMBERS[time.monthDay++];
       time.normalize(true);
     }
 
@@ -495,9 +459,10 @@ public class WeekView extends View {
     lastMonth = time.month;
 
 //    updateSelectionPositions();
+    // Figure out what day today is
     updateToday(tz);
 
-    if (params.containsKey(KEY_ANIMATE_TODAY) && hasToday) {
+    if (params.animateToday && hasToday) {
       synchronized (animatorListener) {
         if (todayAnimator != null) {
           todayAnimator.removeAllListeners();
@@ -518,7 +483,7 @@ public class WeekView extends View {
     today.timezone = tz;
     today.setToNow();
     today.normalize(true);
-    int julianToday = Time.getJulianDay(today.toMillis(false), today.gmtoff);
+    int julianToday = JulianDay.fromMillis(today.toMillis(false), tz);
     if (julianToday >= firstJulianDay && julianToday < firstJulianDay + MonthFragment.DAYS_PER_WEEK) {
       hasToday = true;
       todayIndex = julianToday - firstJulianDay;
@@ -537,8 +502,8 @@ public class WeekView extends View {
     if (hasToday && animateToday) {
       drawToday(canvas);
     }
-    if (dna == null && unsortedEvents != null) {
-      createDna(unsortedEvents);
+    if (dnaKey == null) {
+      createDna();
     }
     drawDNA(canvas);
     drawClick(canvas);
@@ -550,7 +515,7 @@ public class WeekView extends View {
    * @param canvas The canvas to draw on
    */
   private void drawBackground(Canvas canvas) {
-    Rect rect = new Rect();
+    Rect rect = this.rect;
     int i = 0;
     int offset = 0;
     rect.top = DAY_SEPARATOR_INNER_WIDTH;
@@ -589,7 +554,7 @@ public class WeekView extends View {
   }
 
   private void drawToday(Canvas canvas) {
-    Rect r = new Rect();
+    Rect r = rect;
     r.top = DAY_SEPARATOR_INNER_WIDTH + (TODAY_HIGHLIGHT_WIDTH / 2);
     r.bottom = height - (int) Math.ceil(TODAY_HIGHLIGHT_WIDTH / 2.0f);
     p.setStyle(Style.STROKE);
@@ -620,7 +585,7 @@ public class WeekView extends View {
    * @param canvas The canvas to draw on
    */
   private void drawDaySeparators(Canvas canvas) {
-    float lines[] = new float[8 * 4];
+    float[] lines = this.lines;
     int count = 6 * 4;
     int wkNumOffset = 0;
     int i = 0;
@@ -657,7 +622,7 @@ public class WeekView extends View {
   // Draw the "clicked" color on the tapped day
   private void drawClick(Canvas canvas) {
     if (clickedDayIndex != -1) {
-      Rect r = new Rect();
+      Rect r = rect;
       int alpha = p.getAlpha();
       p.setColor(clickedDayColor);
       p.setAlpha(CLICKED_ALPHA);
@@ -842,18 +807,9 @@ public class WeekView extends View {
    * events in the dna conflict color defined in colors.
    */
   private void drawDNA(Canvas canvas) {
-    // Draw event and conflict times
+    // Draw event and conflict times, the conflict strand comes last so it's on top
     if (dna != null) {
-      for (Utils.EventStrand strand : dna.values()) {
-//        if (strand.color == CONFLICT_COLOR || strand.points == null || strand.points.length == 0) {
-//          continue;
-//        }
-//        dnaTimePaint.setColor(strand.color);
-        canvas.drawLines(strand.points, dnaTimePaint);
-      }
-      // Draw black last to make sure it's on top
-      Utils.EventStrand strand = dna.get(CONFLICT_COLOR);
-      if (strand != null && strand.points != null && strand.points.length != 0) {
+      for (Utils.EventStrand strand : dna) {
         dnaTimePaint.setColor(strand.color);
         canvas.drawLines(strand.points, dnaTimePaint);
       }
@@ -868,6 +824,9 @@ public class WeekView extends View {
   @Override
   protected void onSizeChanged(int w, int h, int oldw, int oldh) {
     width = w;
+    // The dna depends on the width, it is asked for again on the next draw
+    dnaKey = null;
+    dna = null;
 //    updateSelectionPositions();
   }
 
@@ -949,6 +908,42 @@ public class WeekView extends View {
     return lastMonth;
   }
 
+  /**
+   * The parameters that control how a week appears. {@link #week} is the only required field, though the default values are unlikely to fit most
+   * layouts correctly.
+   */
+  public static class WeekParams {
+    public static final int NO_WEEK = Integer.MIN_VALUE;
+    /**
+     * The position (or weeks since the epoch) of this week, calculated using {@link es.android.TurnosAndroid.helpers.Utils#getWeeksSinceEpochFromJulianDay}
+     */
+    public int     week        = NO_WEEK;
+    /**
+     * The height of this week in pixels.
+     */
+    public int     height      = DEFAULT_HEIGHT;
+    /**
+     * One of the days in this view to show as selected, {@link android.text.format.Time#SUNDAY} through {@link android.text.format.Time#SATURDAY}.
+     */
+    public int     selectedDay = DEFAULT_SELECTED_DAY;
+    /**
+     * Which day the week should start on. {@link android.text.format.Time#SUNDAY} through {@link android.text.format.Time#SATURDAY}.
+     */
+    public int     weekStart   = DEFAULT_WEEK_START;
+    /**
+     * Which month is currently in focus, as defined by {@link android.text.format.Time#month} [0-11].
+     */
+    public int     focusMonth  = DEFAULT_FOCUS_MONTH;
+    /**
+     * If this month should display week numbers.
+     */
+    public boolean showWeekNum;
+    /**
+     * If today should be highlighted with an animation.
+     */
+    public boolean animateToday;
+  }
+
   private class TodayAnimatorListener extends AnimatorListenerAdapter {
     private volatile Animator animator = null;
     private volatile boolean  fadingIn = false;
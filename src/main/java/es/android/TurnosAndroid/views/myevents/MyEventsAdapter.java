@@ -1,43 +1,28 @@
 package es.android.TurnosAndroid.views.myevents;
 
 import android.content.Context;
+import android.graphics.Color;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
+import android.widget.AbsListView;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 import es.android.TurnosAndroid.R;
+import es.android.TurnosAndroid.database.EventPagedList;
 import es.android.TurnosAndroid.model.Event;
-
-import java.util.ArrayList;
+import es.android.TurnosAndroid.views.PagedListAdapter;
 
 /**
  * User: Jesús
  * Date: 23/12/13
  */
-public class MyEventsAdapter extends BaseAdapter {
-  private final Context          context;
-  private       ArrayList<Event> events;
+public class MyEventsAdapter extends PagedListAdapter<Event> {
+  private final Context context;
 
-  public MyEventsAdapter(Context context, ArrayList<Event> events) {
+  public MyEventsAdapter(Context context, EventPagedList events, AbsListView listView) {
+    super(events, listView);
     this.context = context;
-    this.events = events;
-  }
-
-  public void setMyEvents(ArrayList<Event> events) {
-    this.events = events;
-    notifyDataSetChanged();
-  }
-
-  @Override
-  public int getCount() {
-    return events.size();
-  }
-
-  @Override
-  public Object getItem(int position) {
-    return events.get(position);
   }
 
   @Override
@@ -64,7 +49,17 @@ public class MyEventsAdapter extends BaseAdapter {
       viewHolder = (ViewHolder) view.getTag();
     }
 
-    Event event = events.get(position);
+    Event event = getItem(position);
+    if (event == null) {
+      viewHolder.name.setText(null);
+      viewHolder.description.setText(null);
+      viewHolder.startTime.setText(null);
+      viewHolder.duration.setText(null);
+      viewHolder.location.setText(null);
+      viewHolder.color.setBackgroundColor(Color.TRANSPARENT);
+      return view;
+    }
+
     viewHolder.name.setText(event.getName());
     viewHolder.description.setText(event.getDescription());
     viewHolder.startTime.setText(String.valueOf(event.getStartTime()));
@@ -4,44 +4,29 @@ import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.BaseAdapter;
+import android.widget.AbsListView;
 import android.widget.TextView;
 import es.android.TurnosAndroid.R;
+import es.android.TurnosAndroid.database.PatternPagedList;
 import es.android.TurnosAndroid.model.Pattern;
-
-import java.util.ArrayList;
+import es.android.TurnosAndroid.views.PagedListAdapter;
 
 /**
  * User: Jesús
  * Date: 23/12/13
  */
-public class MyPatternsAdapter extends BaseAdapter {
-  private final Context            context;
-  private       ArrayList<Pattern> patterns;
+public class MyPatternsAdapter extends PagedListAdapter<Pattern> {
+  private final Context context;
 
-  public MyPatternsAdapter(Context context, ArrayList<Pattern> patterns) {
+  public MyPatternsAdapter(Context context, PatternPagedList patterns, AbsListView listView) {
+    super(patterns, listView);
     this.context = context;
-    this.patterns = patterns;
-  }
-
-  public void setMyPatterns(ArrayList<Pattern> patterns) {
-    this.patterns = patterns;
-    notifyDataSetChanged();
-  }
-
-  @Override
-  public int getCount() {
-    return patterns.size();
-  }
-
-  @Override
-  public Object getItem(int position) {
-    return patterns.get(position);
   }
 
   @Override
   public long getItemId(int position) {
-    return 0;
+    Pattern pattern = getItem(position);
+    return pattern == null ? 0 : pattern.getId();
   }
 
   @Override
@@ -58,8 +43,8 @@ public class MyPatternsAdapter extends BaseAdapter {
       viewHolder = (ViewHolder) view.getTag();
     }
 
-    Pattern pattern = patterns.get(position);
-    viewHolder.id.setText(pattern.getId());
+    Pattern pattern = getItem(position);
+    viewHolder.id.setText(pattern == null ? null : pattern.getName());
 
     return view;
   }
@@ -0,0 +1,99 @@
+package es.android.TurnosAndroid.views.statistics;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Paint.Align;
+import android.util.AttributeSet;
+import android.view.View;
+import es.android.TurnosAndroid.R;
+
+/**
+ * Bars of the hours worked in each period of a range, split in the hours of the day and of the night, the night ones on top. The values are set
+ * already summed, drawing doesn't compute anything but the size of each bar.
+ */
+public class StatisticsChartView extends View {
+  private static final long[]   NO_MINUTES = new long[0];
+  private static final String[] NO_LABELS  = new String[0];
+  private final Paint    dayPaint;
+  private final Paint    nightPaint;
+  private final Paint    labelPaint;
+  private final int      barGap;
+  private final int      labelHeight;
+  private       long[]   dayMinutes;
+  private       long[]   nightMinutes;
+  private       String[] labels;
+  private       long     maxMinutes;
+
+  public StatisticsChartView(Context context) {
+    this(context, null);
+  }
+
+  public StatisticsChartView(Context context, AttributeSet attrs) {
+    this(context, attrs, 0);
+  }
+
+  public StatisticsChartView(Context context, AttributeSet attrs, int defStyle) {
+    super(context, attrs, defStyle);
+    Resources res = context.getResources();
+    dayPaint = new Paint();
+    dayPaint.setColor(res.getColor(R.color.statistics_day_bar));
+    nightPaint = new Paint();
+    nightPaint.setColor(res.getColor(R.color.statistics_night_bar));
+    labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    labelPaint.setColor(res.getColor(R.color.statistics_label));
+    labelPaint.setTextSize(res.getDimension(R.dimen.statistics_label_text_size));
+    labelPaint.setTextAlign(Align.CENTER);
+    barGap = res.getDimensionPixelSize(R.dimen.statistics_bar_gap);
+    labelHeight = (int) (labelPaint.getFontSpacing() + barGap);
+    dayMinutes = NO_MINUTES;
+    nightMinutes = NO_MINUTES;
+    labels = NO_LABELS;
+  }
+
+  /**
+   * Sets the bars, one per entry of the arrays, which must all be as long.
+   *
+   * @param dayMinutes   the minutes worked out of the night in each period
+   * @param nightMinutes the minutes worked at night in each period
+   * @param labels       the name of each period, drawn below its bar
+   */
+  public void setBars(long[] dayMinutes, long[] nightMinutes, String[] labels) {
+    this.dayMinutes = dayMinutes;
+    this.nightMinutes = nightMinutes;
+    this.labels = labels;
+    maxMinutes = 0;
+    for (int i = 0; i < dayMinutes.length; i++) {
+      maxMinutes = Math.max(maxMinutes, dayMinutes[i] + nightMinutes[i]);
+    }
+    invalidate();
+  }
+
+  @Override
+  protected void onDraw(Canvas canvas) {
+    int numBars = dayMinutes.length;
+    if (numBars == 0) {
+      return;
+    }
+
+    int left = getPaddingLeft();
+    int width = getWidth() - left - getPaddingRight();
+    int bottom = getHeight() - getPaddingBottom() - labelHeight;
+    int height = bottom - getPaddingTop();
+    float barWidth = (float) width / numBars;
+    float labelY = bottom + barGap - labelPaint.ascent();
+
+    for (int i = 0; i < numBars; i++) {
+      float barLeft = left + i * barWidth + barGap / 2f;
+      float barRight = left + (i + 1) * barWidth - barGap / 2f;
+      if (maxMinutes > 0) {
+        float dayTop = bottom - (float) height * dayMinutes[i] / maxMinutes;
+        float nightTop = dayTop - (float) height * nightMinutes[i] / maxMinutes;
+        canvas.drawRect(barLeft, dayTop, barRight, bottom, dayPaint);
+        canvas.drawRect(barLeft, nightTop, barRight, dayTop, nightPaint);
+      }
+      canvas.drawText(labels[i], (barLeft + barRight) / 2, labelY, labelPaint);
+    }
+  }
+}